@@ -18,14 +18,22 @@
 package de.tudarmstadt.ukp.inception.recommendation.imls.datamajority;
 
 import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineCapability.TRAINING_REQUIRED;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -45,12 +53,15 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TrainingDataChanges;
 
 // tag::classDefinition[]
 public class DataMajorityNerRecommender
         extends RecommendationEngine
 {
     public static final Key<DataMajorityModel> KEY_MODEL = new Key<>("model");
+    public static final Key<Map<String, Map<String, Integer>>> KEY_DOCUMENT_COUNTS = new Key<>(
+            "documentCounts");
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -83,7 +94,82 @@ public class DataMajorityNerRecommender
         return aContext.get(KEY_MODEL).map(Objects::nonNull).orElse(false);
     }
 // end::train[]
+
+// tag::persistence[]
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        DataMajorityModel model = aContext.get(KEY_MODEL).orElseThrow(() ->
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+
+        DataOutputStream out = new DataOutputStream(aOutput);
+        out.writeUTF(model.majorityLabel);
+        out.writeDouble(model.confidence);
+        out.writeInt(model.numberOfAnnotations);
+        out.flush();
+    }
+
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(aInput);
+        DataMajorityModel model = new DataMajorityModel(in.readUTF(), in.readDouble(),
+                in.readInt());
+        aContext.put(KEY_MODEL, model);
+    }
+// end::persistence[]
     
+// tag::incremental[]
+    @Override
+    public boolean isIncrementalTrainingSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean trainIncrementally(RecommenderContext aContext,
+            RecommenderContext aPreviousContext, TrainingDataChanges aChanges)
+            throws RecommendationException
+    {
+        // The label counts of each document allow replacing the counts of changed documents
+        Optional<Map<String, Map<String, Integer>>> previousCounts = aPreviousContext
+                .get(KEY_DOCUMENT_COUNTS);
+        if (aPreviousContext.get(KEY_MODEL).isPresent() && !previousCounts.isPresent()) {
+            return false;
+        }
+
+        Map<String, Map<String, Integer>> documentCounts = new HashMap<>(
+                previousCounts.orElse(emptyMap()));
+        documentCounts.keySet().removeAll(aChanges.getRemovedDocuments());
+        for (String document : aChanges.getChangedDocuments()) {
+            checkCancelled();
+
+            Map<String, Integer> counts = new HashMap<>();
+            for (Annotation ann : extractAnnotations(asList(aChanges.getCas(document)))) {
+                counts.merge(ann.label, 1, Integer::sum);
+            }
+            documentCounts.put(document, counts);
+        }
+
+        Map<String, Integer> totalCounts = new HashMap<>();
+        for (Map<String, Integer> counts : documentCounts.values()) {
+            counts.forEach((label, count) -> totalCounts.merge(label, count, Integer::sum));
+        }
+
+        aContext.put(KEY_MODEL, trainModel(totalCounts));
+        aContext.put(KEY_DOCUMENT_COUNTS, documentCounts);
+        return true;
+    }
+// end::incremental[]
+
 // tag::extractAnnotations[]
     private List<Annotation> extractAnnotations(List<CAS> aCasses)
     {
@@ -115,14 +201,20 @@ public class DataMajorityNerRecommender
             model.put(ann.label, count + 1);
         }
 
-        Map.Entry<String, Integer> entry = model.entrySet().stream()
+        return trainModel(model);
+    }
+
+    private DataMajorityModel trainModel(Map<String, Integer> aCounts)
+            throws RecommendationException
+    {
+        Map.Entry<String, Integer> entry = aCounts.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
                 .orElseThrow(
                         () -> new RecommendationException("Could not obtain data majority label")
                 );
 
         String majorityLabel = entry.getKey();
-        int numberOfAnnotations = model.values().stream().reduce(Integer::sum).get();
+        int numberOfAnnotations = aCounts.values().stream().reduce(Integer::sum).get();
         double confidence = (float) entry.getValue() / numberOfAnnotations;
 
         return new DataMajorityModel(majorityLabel, confidence, numberOfAnnotations);
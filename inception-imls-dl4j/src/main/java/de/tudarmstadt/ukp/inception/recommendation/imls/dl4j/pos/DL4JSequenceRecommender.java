@@ -24,14 +24,21 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
 import static org.nd4j.linalg.indexing.NDArrayIndex.point;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.CAS;
@@ -46,6 +53,7 @@ import org.deeplearning4j.nn.conf.layers.LSTM;
 import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
 import org.deeplearning4j.nn.conf.layers.recurrent.Bidirectional;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
 import org.dkpro.core.api.datasets.DatasetFactory;
 import org.dkpro.core.api.embeddings.binary.BinaryVectorizer;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -70,6 +78,7 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TrainingDataChanges;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap.Entry;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
@@ -84,6 +93,12 @@ public class DL4JSequenceRecommender
     public static final Key<String[]> KEY_TAGSET = new Key<>("labelDict");
     public static final Key<MultiLayerNetwork> KEY_MODEL = new Key<>("model");
     public static final Key<INDArray> KEY_UNKNOWN = new Key<>("unknown");
+    public static final Key<Integer> KEY_INCREMENTAL_UPDATES = new Key<>("incrementalUpdates");
+
+    /**
+     * Number of incremental updates after which the model is trained from scratch again.
+     */
+    private static final int MAX_INCREMENTAL_UPDATES = 10;
     
     private final File datasetCache;
 
@@ -137,6 +152,131 @@ public class DL4JSequenceRecommender
         return RecommendationEngineCapability.TRAINING_REQUIRED;
     }
     
+    @Override
+    public boolean isIncrementalTrainingSupported()
+    {
+        return true;
+    }
+    
+    /**
+     * Fine-tunes a copy of the previous network on the changed documents. A network cannot
+     * unlearn what it has learned from a document, so the model is trained from scratch instead if
+     * documents have been removed. The same happens after a number of updates in a row to keep the
+     * model from drifting too far from a model trained on all documents.
+     */
+    @Override
+    public boolean trainIncrementally(RecommenderContext aContext,
+            RecommenderContext aPreviousContext, TrainingDataChanges aChanges)
+    {
+        Optional<MultiLayerNetwork> previousModel = aPreviousContext.get(KEY_MODEL);
+        Optional<String[]> previousTagset = aPreviousContext.get(KEY_TAGSET);
+        int updates = aPreviousContext.get(KEY_INCREMENTAL_UPDATES).orElse(0);
+        if (!previousModel.isPresent() || !previousTagset.isPresent()
+                || !aChanges.getRemovedDocuments().isEmpty()
+                || updates >= MAX_INCREMENTAL_UPDATES) {
+            return false;
+        }
+        
+        // Continue with the label IDs used by the previous network
+        Object2IntMap<String> tagsetCollector = new Object2IntOpenHashMap<>();
+        String[] tagset = previousTagset.get();
+        for (int i = 0; i < tagset.length; i++) {
+            tagsetCollector.put(tagset[i], i);
+        }
+        
+        try {
+            // Continue with the vector the previous network has been trained with
+            aPreviousContext.get(KEY_UNKNOWN).ifPresent(unknown -> randUnk = unknown);
+            ensureEmbeddingsAreAvailable();
+            
+            List<CAS> casses = new ArrayList<>();
+            for (String document : aChanges.getChangedDocuments()) {
+                casses.add(aChanges.getCas(document));
+            }
+            List<Sample> trainingData = extractData(casses, true);
+            
+            // The previous network may still be in use, so we fine-tune a copy of it. The network
+            // is not thread-safe, so it must not be used for prediction while it is copied.
+            MultiLayerNetwork model;
+            synchronized (previousModel.get()) {
+                model = previousModel.get().clone();
+            }
+            fit(model, trainingData, tagsetCollector);
+            
+            aContext.put(KEY_MODEL, model);
+            aContext.put(KEY_TAGSET, compileTagset(tagsetCollector));
+            aContext.put(KEY_UNKNOWN, randUnk);
+            aContext.put(KEY_INCREMENTAL_UPDATES, updates + 1);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unable to train model", e);
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        MultiLayerNetwork model = aContext.get(KEY_MODEL).orElseThrow(() -> 
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+        String[] tagset = aContext.get(KEY_TAGSET).orElseThrow(() -> 
+                new IOException("Key [" + KEY_TAGSET + "] not found in context"));
+        
+        DataOutputStream out = new DataOutputStream(aOutput);
+        
+        // The network is written to a buffer first since the serializer closes its stream. The
+        // network is not thread-safe, so it must not be used for prediction while it is written.
+        ByteArrayOutputStream modelBuffer = new ByteArrayOutputStream();
+        synchronized (model) {
+            ModelSerializer.writeModel(model, modelBuffer, false);
+        }
+        out.writeInt(modelBuffer.size());
+        modelBuffer.writeTo(out);
+        
+        out.writeInt(tagset.length);
+        for (String tag : tagset) {
+            out.writeUTF(tag);
+        }
+        
+        INDArray unknown = aContext.get(KEY_UNKNOWN).orElse(null);
+        out.writeBoolean(unknown != null);
+        if (unknown != null) {
+            Nd4j.write(unknown, out);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(aInput);
+        
+        byte[] modelBuffer = new byte[in.readInt()];
+        in.readFully(modelBuffer);
+        MultiLayerNetwork model = ModelSerializer
+                .restoreMultiLayerNetwork(new ByteArrayInputStream(modelBuffer));
+        
+        String[] tagset = new String[in.readInt()];
+        for (int i = 0; i < tagset.length; i++) {
+            tagset[i] = in.readUTF();
+        }
+        
+        aContext.put(KEY_MODEL, model);
+        aContext.put(KEY_TAGSET, tagset);
+        if (in.readBoolean()) {
+            aContext.put(KEY_UNKNOWN, Nd4j.read(in));
+        }
+    }
+    
     private void ensureEmbeddingsAreAvailable() throws IOException
     {
         if (wordVectors == null) {
@@ -202,6 +342,15 @@ public class DL4JSequenceRecommender
         // Configure the neural network
         MultiLayerNetwork model = createConfiguredNetwork(traits, wordVectors.dimensions());
 
+        fit(model, aTrainingData, aTagset);
+
+        return model;
+    }
+
+    private void fit(MultiLayerNetwork aModel, List<Sample> aTrainingData,
+            Object2IntMap<String> aTagset)
+        throws IOException
+    {
         final int limit = traits.getTrainingSetSizeLimit();
         final int batchSize = traits.getBatchSize();
 
@@ -212,6 +361,8 @@ public class DL4JSequenceRecommender
             int sentNum = 0;
             Iterator<Sample> sampleIterator = aTrainingData.iterator();
             while (sampleIterator.hasNext()) {
+                checkCancelled();
+                
                 List<DataSet> batch = new ArrayList<>();
                 while (sampleIterator.hasNext() && batch.size() < batchSize && sentNum < limit) {
                     Sample sample = sampleIterator.next();
@@ -220,7 +371,7 @@ public class DL4JSequenceRecommender
                     sentNum++;
                 }
                 
-                model.fit(new ListDataSetIterator<DataSet>(batch, batch.size()));
+                aModel.fit(new ListDataSetIterator<DataSet>(batch, batch.size()));
                 log.trace("Epoch {}: processed {} of {} sentences", epoch, sentNum,
                         aTrainingData.size());
                 
@@ -229,8 +380,6 @@ public class DL4JSequenceRecommender
                 }
             }
         }
-
-        return model;
     }
 
     private DataSet vectorize(List<? extends Sample> aData)
@@ -370,6 +519,17 @@ public class DL4JSequenceRecommender
 
     @Override
     public void predict(RecommenderContext aContext, CAS aCas) throws RecommendationException
+    {
+        predict(aContext, asList(aCas));
+    }
+    
+    /**
+     * Predicts on the sentences of all given CASes. Calling the network is expensive, so the
+     * sentences are predicted in batches which may span several documents.
+     */
+    @Override
+    public void predict(RecommenderContext aContext, List<CAS> aCasses)
+        throws RecommendationException
     {
         String[] tagset = aContext.get(KEY_TAGSET).orElseThrow(() ->
                 new RecommendationException("Key [" + KEY_TAGSET + "] not found in context"));
@@ -377,58 +537,34 @@ public class DL4JSequenceRecommender
                 new RecommendationException("Key [" + KEY_MODEL + "] not found in context"));
         
         try {
-            Type sentenceType = getType(aCas, Sentence.class);
-            Type predictedType = getPredictedType(aCas);
-            Type tokenType = getType(aCas, Token.class);
-
-            Feature scoreFeature = getScoreFeature(aCas);
-            Feature predictedFeature = getPredictedFeature(aCas);
-            Feature isPredictionFeature = getIsPredictionFeature(aCas);
-    
             final int limit = traits.getPredictionLimit();
             final int batchSize = traits.getBatchSize();
 
-            Collection<AnnotationFS> sentences = select(aCas, sentenceType);
-            int sentNum = 0;
-            
-            Iterator<AnnotationFS> sentenceIterator = sentences.iterator();
-            while (sentenceIterator.hasNext()) {
-                // Prepare a batch of sentences that we want to predict because calling the
-                // prediction is expensive
-                List<CasSample> batch = new ArrayList<>();
-                while (sentenceIterator.hasNext() && batch.size() < batchSize && sentNum < limit) {
+            List<CasSample> batch = new ArrayList<>();
+            for (CAS cas : aCasses) {
+                checkCancelled();
+                
+                Type sentenceType = getType(cas, Sentence.class);
+                Type tokenType = getType(cas, Token.class);
+
+                int sentNum = 0;
+                Iterator<AnnotationFS> sentenceIterator = select(cas, sentenceType).iterator();
+                while (sentenceIterator.hasNext() && sentNum < limit) {
                     AnnotationFS sentence = sentenceIterator.next();
                     List<AnnotationFS> tokenFSes = selectCovered(tokenType, sentence);
                     List<String> tokens = CasUtil.toText(tokenFSes);
-                    batch.add(new CasSample(tokens, tokenFSes));
+                    batch.add(new CasSample(tokens, tokenFSes, cas));
                     sentNum++;
-                }
-                
-                // If a limit was set that is smaller than the number of sentence, then we
-                // eventually start producing empty batches. At this point, we are done.
-                if (batch.isEmpty()) {
-                    break;
-                }
-
-                List<Outcome<CasSample>> outcomes = predict(classifier, tagset, batch);
-                
-                int outcomeIdx = 0;
-                for (Outcome<CasSample> outcome : outcomes) {
-                    List<AnnotationFS> tokenFSes = outcome.getSample().getTokens();
-                    for (int tokenIdx = 0; tokenIdx < tokenFSes.size(); tokenIdx ++) {
-                        AnnotationFS token = tokenFSes.get(tokenIdx);
-                        AnnotationFS annotation = aCas.createAnnotation(predictedType,
-                                token.getBegin(), token.getEnd());
-                        //annotation.setDoubleValue(scoreFeature, prediction.getProb());
-                        annotation.setStringValue(predictedFeature,
-                                outcomes.get(outcomeIdx).getLabels().get(tokenIdx));
-                        annotation.setBooleanValue(isPredictionFeature, true);
-                        aCas.addFsToIndexes(annotation);
+                    
+                    if (batch.size() == batchSize) {
+                        predictBatch(classifier, tagset, batch);
+                        batch.clear();
                     }
-                    outcomeIdx++;
                 }
-                
-                log.trace("Predicted {} of {} sentences", sentNum, sentences.size());
+            }
+            
+            if (!batch.isEmpty()) {
+                predictBatch(classifier, tagset, batch);
             }
         }
         catch (IOException e) {
@@ -436,6 +572,37 @@ public class DL4JSequenceRecommender
         }
     }
     
+    /**
+     * Predicts the labels of the given sentences and writes them into the CASes the sentences
+     * have been taken from.
+     */
+    private void predictBatch(MultiLayerNetwork aClassifier, String[] aTagset,
+            List<CasSample> aBatch)
+        throws IOException
+    {
+        List<Outcome<CasSample>> outcomes = predict(aClassifier, aTagset, aBatch);
+        
+        for (Outcome<CasSample> outcome : outcomes) {
+            CAS cas = outcome.getSample().getCas();
+            Type predictedType = getPredictedType(cas);
+            Feature predictedFeature = getPredictedFeature(cas);
+            Feature isPredictionFeature = getIsPredictionFeature(cas);
+            
+            List<AnnotationFS> tokenFSes = outcome.getSample().getTokens();
+            for (int tokenIdx = 0; tokenIdx < tokenFSes.size(); tokenIdx ++) {
+                AnnotationFS token = tokenFSes.get(tokenIdx);
+                AnnotationFS annotation = cas.createAnnotation(predictedType,
+                        token.getBegin(), token.getEnd());
+                annotation.setStringValue(predictedFeature,
+                        outcome.getLabels().get(tokenIdx));
+                annotation.setBooleanValue(isPredictionFeature, true);
+                cas.addFsToIndexes(annotation);
+            }
+        }
+        
+        log.trace("Predicted batch of {} sentences", aBatch.size());
+    }
+    
     private <T extends Sample> List<Outcome<T>> predict(MultiLayerNetwork aClassifier,
             String[] aTagset, List<T> aData)
         throws IOException
@@ -448,8 +615,13 @@ public class DL4JSequenceRecommender
         
         // Predict labels
         long predictionStart = System.currentTimeMillis();
-        INDArray predicted = aClassifier.output(data.getFeatures(), false,
-                data.getFeaturesMaskArray(), data.getLabelsMaskArray());
+        INDArray predicted;
+        // The network is not thread-safe and may be used by several engines at the same time,
+        // e.g. if the context holding it is shared between users
+        synchronized (aClassifier) {
+            predicted = aClassifier.output(data.getFeatures(), false,
+                    data.getFeaturesMaskArray(), data.getLabelsMaskArray());
+        }
         log.trace("Prediction took {}ms", System.currentTimeMillis() - predictionStart);
         
         // This is a brute-force hack to ensue that argmax doesn't predict tags that are not 
@@ -662,16 +834,23 @@ public class DL4JSequenceRecommender
     private static class CasSample extends Sample
     {
         private final List<AnnotationFS> tokens;
+        private final CAS cas;
 
-        public CasSample(Collection<String> aSentence, List<AnnotationFS> aTokens)
+        public CasSample(Collection<String> aSentence, List<AnnotationFS> aTokens, CAS aCas)
         {
             super(aSentence);
             tokens = aTokens;
+            cas = aCas;
         }
         
         public List<AnnotationFS> getTokens()
         {
             return tokens;
         }
+        
+        public CAS getCas()
+        {
+            return cas;
+        }
     }
 }
@@ -28,6 +28,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.plugin.api.ExportedComponent;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactoryImplBase;
 
 @ExportedComponent
@@ -58,6 +59,15 @@ public class DL4JSequenceRecommenderFactory
         return "Token Sequence Classifier (DL4J)";
     }
 
+    @Override
+    public RecommendationEngineConcurrency getConcurrency()
+    {
+        // The engine keeps the embeddings it has loaded. The network held by the context is not
+        // thread-safe either, but the engine synchronizes on it whenever it uses a network which
+        // it has not built itself.
+        return RecommendationEngineConcurrency.PER_THREAD;
+    }
+
     @Override
     public boolean accepts(AnnotationLayer aLayer, AnnotationFeature aFeature)
     {
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.imls.opennlp;
+
+import static java.util.Collections.emptyIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.uima.cas.CAS;
+
+import opennlp.tools.util.ObjectStream;
+
+/**
+ * Stream of training samples which are extracted from one CAS at a time while the trainer reads
+ * them. Only the samples of the current CAS are held in memory. On {@link #reset()}, the
+ * extraction starts again from the first CAS.
+ */
+public class CasSampleStream<T>
+    implements ObjectStream<T>
+{
+    private Iterable<CAS> casses;
+    private final Function<CAS, List<T>> extractor;
+    private final int limit;
+
+    private Iterator<CAS> casIterator;
+    private Iterator<T> sampleIterator;
+    private int count;
+
+    /**
+     * @param aCasses
+     *            the CASes to extract the samples from.
+     * @param aExtractor
+     *            extracts the samples from a single CAS.
+     * @param aLimit
+     *            the maximum number of samples to read.
+     */
+    public CasSampleStream(Iterable<CAS> aCasses, Function<CAS, List<T>> aExtractor, int aLimit)
+    {
+        casses = aCasses;
+        extractor = aExtractor;
+        limit = aLimit;
+        reset();
+    }
+
+    @Override
+    public T read()
+    {
+        if (casIterator == null || count >= limit) {
+            return null;
+        }
+
+        while (!sampleIterator.hasNext()) {
+            if (!casIterator.hasNext()) {
+                return null;
+            }
+            sampleIterator = extractor.apply(casIterator.next()).iterator();
+        }
+
+        count++;
+        return sampleIterator.next();
+    }
+
+    /**
+     * @return all remaining samples.
+     */
+    public List<T> readAll()
+    {
+        List<T> samples = new ArrayList<>();
+        T sample;
+        while ((sample = read()) != null) {
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    @Override
+    public void reset()
+    {
+        casIterator = casses.iterator();
+        sampleIterator = emptyIterator();
+        count = 0;
+    }
+
+    @Override
+    public void close()
+    {
+        casses = null;
+        casIterator = null;
+        sampleIterator = null;
+    }
+}
@@ -23,6 +23,8 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -49,12 +51,14 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.imls.opennlp.CasSampleStream;
 import opennlp.tools.doccat.DoccatFactory;
 import opennlp.tools.doccat.DoccatModel;
 import opennlp.tools.doccat.DocumentCategorizerME;
 import opennlp.tools.doccat.DocumentSample;
 import opennlp.tools.ml.BeamSearch;
 import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.TrainingParameters;
 
 public class OpenNlpDoccatRecommender
@@ -86,8 +90,13 @@ public class OpenNlpDoccatRecommender
     public void train(RecommenderContext aContext, List<CAS> aCasses)
         throws RecommendationException
     {
-        List<DocumentSample> nameSamples = extractSamples(aCasses);
-        
+        train(aContext, (Iterable<CAS>) aCasses);
+    }
+    
+    @Override
+    public void train(RecommenderContext aContext, Iterable<CAS> aCasses)
+        throws RecommendationException
+    {
         // The beam size controls how many results are returned at most. But even if the user
         // requests only few results, we always use at least the default bean size recommended by
         // OpenNLP
@@ -96,17 +105,50 @@ public class OpenNlpDoccatRecommender
         TrainingParameters params = traits.getParameters();
         params.put(BeamSearch.BEAM_SIZE_PARAMETER, Integer.toString(beamSize));
         
-        DoccatModel model = train(nameSamples, params);
+        // The samples are extracted from one document at a time while the trainer reads them
+        DoccatModel model = train(new CasSampleStream<DocumentSample>(aCasses,
+                this::extractSamples, traits.getTrainingSetSizeLimit()), params);
         
         aContext.put(KEY_MODEL, model);
     }
     
+    /**
+     * The trainer indexes the samples in a single pass over the training data.
+     */
+    @Override
+    public boolean isMultiPassTraining()
+    {
+        return false;
+    }
+    
     @Override
     public RecommendationEngineCapability getTrainingCapability() 
     {
         return RecommendationEngineCapability.TRAINING_REQUIRED;
     }
 
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        DoccatModel model = aContext.get(KEY_MODEL).orElseThrow(() -> 
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+        model.serialize(aOutput);
+    }
+
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        aContext.put(KEY_MODEL, new DoccatModel(aInput));
+    }
+
     @Override
     public void predict(RecommenderContext aContext, CAS aCas) throws RecommendationException
     {
@@ -190,7 +232,8 @@ public class OpenNlpDoccatRecommender
                 trainingSet.size(), testSet.size());
 
         // Train model
-        DoccatModel model = train(trainingSet, traits.getParameters());
+        DoccatModel model = train(new DocumentSampleStream(trainingSet),
+                traits.getParameters());
         DocumentCategorizerME doccat = new DocumentCategorizerME(model);
 
         // Evaluate
@@ -204,35 +247,38 @@ public class OpenNlpDoccatRecommender
     }
 
     private List<DocumentSample> extractSamples(List<CAS> aCasses)
+    {
+        try (CasSampleStream<DocumentSample> stream = new CasSampleStream<DocumentSample>(
+                aCasses, this::extractSamples, traits.getTrainingSetSizeLimit())) {
+            return stream.readAll();
+        }
+    }
+
+    private List<DocumentSample> extractSamples(CAS aCas)
     {
         List<DocumentSample> samples = new ArrayList<>();
-        casses: for (CAS cas : aCasses) {
-            Type sentenceType = getType(cas, Sentence.class);
-            Type tokenType = getType(cas, Token.class);
-
-            Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(
-                    cas, sentenceType, tokenType);
-            for (Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
-                AnnotationFS sentence = e.getKey();
-                Collection<AnnotationFS> tokens = e.getValue();
-                String[] tokenTexts = tokens.stream()
-                    .map(AnnotationFS::getCoveredText)
-                    .toArray(String[]::new);
-                
-                Type annotationType = getType(cas, layerName);
-                Feature feature = annotationType.getFeatureByBaseName(featureName);
-                
-                for (AnnotationFS annotation : selectCovered(annotationType, sentence)) {
-                    if (samples.size() >= traits.getTrainingSetSizeLimit()) {
-                        break casses;
-                    }
-                    
-                    String label = annotation.getFeatureValueAsString(feature);
-                    DocumentSample nameSample = new DocumentSample(
-                            label != null ? label : NO_CATEGORY, tokenTexts);
-                    if (nameSample.getCategory() != null) {
-                        samples.add(nameSample);
-                    }
+        
+        Type sentenceType = getType(aCas, Sentence.class);
+        Type tokenType = getType(aCas, Token.class);
+
+        Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(
+                aCas, sentenceType, tokenType);
+        for (Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
+            AnnotationFS sentence = e.getKey();
+            Collection<AnnotationFS> tokens = e.getValue();
+            String[] tokenTexts = tokens.stream()
+                .map(AnnotationFS::getCoveredText)
+                .toArray(String[]::new);
+            
+            Type annotationType = getType(aCas, layerName);
+            Feature feature = annotationType.getFeatureByBaseName(featureName);
+            
+            for (AnnotationFS annotation : selectCovered(annotationType, sentence)) {
+                String label = annotation.getFeatureValueAsString(feature);
+                DocumentSample nameSample = new DocumentSample(
+                        label != null ? label : NO_CATEGORY, tokenTexts);
+                if (nameSample.getCategory() != null) {
+                    samples.add(nameSample);
                 }
             }
         }
@@ -240,10 +286,11 @@ public class OpenNlpDoccatRecommender
         return samples;
     }
 
-    private DoccatModel train(List<DocumentSample> aSamples, TrainingParameters aParameters)
+    private DoccatModel train(ObjectStream<DocumentSample> aSamples,
+            TrainingParameters aParameters)
         throws RecommendationException
     {
-        try (DocumentSampleStream stream = new DocumentSampleStream(aSamples)) {
+        try (ObjectStream<DocumentSample> stream = aSamples) {
             DoccatFactory factory = new DoccatFactory();
             return DocumentCategorizerME.train("unknown", stream, aParameters, factory);
         }
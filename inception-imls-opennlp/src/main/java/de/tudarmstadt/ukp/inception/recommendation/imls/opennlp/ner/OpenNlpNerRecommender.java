@@ -24,6 +24,8 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -49,6 +51,8 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TokenIndex;
+import de.tudarmstadt.ukp.inception.recommendation.imls.opennlp.CasSampleStream;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
@@ -58,6 +62,7 @@ import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.NameSample;
 import opennlp.tools.namefind.TokenNameFinderFactory;
 import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.Span;
 import opennlp.tools.util.TrainingParameters;
 
@@ -88,8 +93,13 @@ public class OpenNlpNerRecommender
     public void train(RecommenderContext aContext, List<CAS> aCasses)
         throws RecommendationException
     {
-        List<NameSample> nameSamples = extractNameSamples(aCasses);
-        
+        train(aContext, (Iterable<CAS>) aCasses);
+    }
+    
+    @Override
+    public void train(RecommenderContext aContext, Iterable<CAS> aCasses)
+        throws RecommendationException
+    {
         // The beam size controls how many results are returned at most. But even if the user
         // requests only few results, we always use at least the default bean size recommended by
         // OpenNLP
@@ -98,17 +108,50 @@ public class OpenNlpNerRecommender
         TrainingParameters params = traits.getParameters();
         params.put(BeamSearch.BEAM_SIZE_PARAMETER, Integer.toString(beamSize));
         
-        TokenNameFinderModel model = train(nameSamples, params);
+        // The name samples are extracted from one document at a time while the trainer reads them
+        TokenNameFinderModel model = train(new CasSampleStream<NameSample>(aCasses,
+                this::extractNameSamples, traits.getTrainingSetSizeLimit()), params);
         
         aContext.put(KEY_MODEL, model);
     }
     
+    /**
+     * The trainer indexes the samples in a single pass over the training data.
+     */
+    @Override
+    public boolean isMultiPassTraining()
+    {
+        return false;
+    }
+    
     @Override
     public RecommendationEngineCapability getTrainingCapability() 
     {
         return RecommendationEngineCapability.TRAINING_REQUIRED;
     }
 
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        TokenNameFinderModel model = aContext.get(KEY_MODEL).orElseThrow(() -> 
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+        model.serialize(aOutput);
+    }
+
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        aContext.put(KEY_MODEL, new TokenNameFinderModel(aInput));
+    }
+
     @Override
     public void predict(RecommenderContext aContext, CAS aCas) throws RecommendationException
     {
@@ -118,7 +161,7 @@ public class OpenNlpNerRecommender
         NameFinderME finder = new NameFinderME(model);
 
         Type sentenceType = getType(aCas, Sentence.class);
-        Type tokenType = getType(aCas, Token.class);
+        TokenIndex tokenIndex = TokenIndex.of(aCas, getType(aCas, Token.class));
         Type predictedType = getPredictedType(aCas);
 
         Feature predictedFeature = getPredictedFeature(aCas);
@@ -132,7 +175,7 @@ public class OpenNlpNerRecommender
             }
             predictionCount++;
             
-            List<AnnotationFS> tokenAnnotations = selectCovered(tokenType, sentence);
+            List<AnnotationFS> tokenAnnotations = tokenIndex.selectCovered(sentence);
             String[] tokens = tokenAnnotations.stream()
                 .map(AnnotationFS::getCoveredText)
                 .toArray(String[]::new);
@@ -198,7 +241,8 @@ public class OpenNlpNerRecommender
                 testSet.size(), data.size());
 
         // Train model
-        TokenNameFinderModel model = train(trainingSet, traits.getParameters());
+        TokenNameFinderModel model = train(new NameSampleStream(trainingSet),
+                traits.getParameters());
         NameFinderME nameFinder = new NameFinderME(model);
 
         // Evaluate
@@ -281,26 +325,28 @@ public class OpenNlpNerRecommender
     }
 
     private List<NameSample> extractNameSamples(List<CAS> aCasses)
+    {
+        try (CasSampleStream<NameSample> stream = new CasSampleStream<NameSample>(aCasses,
+                this::extractNameSamples, traits.getTrainingSetSizeLimit())) {
+            return stream.readAll();
+        }
+    }
+
+    private List<NameSample> extractNameSamples(CAS aCas)
     {
         List<NameSample> nameSamples = new ArrayList<>();
         
-        casses: for (CAS cas : aCasses) {
-            Type sentenceType = getType(cas, Sentence.class);
-            Type tokenType = getType(cas, Token.class);
-
-            Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(
-                    cas, sentenceType, tokenType);
-            for (Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
-                if (nameSamples.size() >= traits.getTrainingSetSizeLimit()) {
-                    break casses;
-                }
-                
-                AnnotationFS sentence = e.getKey();
-                Collection<AnnotationFS> tokens = e.getValue();
-                NameSample nameSample = createNameSample(cas, sentence, tokens);
-                if (nameSample.getNames().length > 0) {
-                    nameSamples.add(nameSample);
-                }
+        Type sentenceType = getType(aCas, Sentence.class);
+        Type tokenType = getType(aCas, Token.class);
+
+        Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(
+                aCas, sentenceType, tokenType);
+        for (Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
+            AnnotationFS sentence = e.getKey();
+            Collection<AnnotationFS> tokens = e.getValue();
+            NameSample nameSample = createNameSample(aCas, sentence, tokens);
+            if (nameSample.getNames().length > 0) {
+                nameSamples.add(nameSample);
             }
         }
         
@@ -369,11 +415,11 @@ public class OpenNlpNerRecommender
         return result.toArray(new Span[result.size()]);
     }
 
-    private TokenNameFinderModel train(List<NameSample> aNameSamples,
+    private TokenNameFinderModel train(ObjectStream<NameSample> aNameSamples,
             TrainingParameters aParameters)
         throws RecommendationException
     {
-        try (NameSampleStream stream = new NameSampleStream(aNameSamples)) {
+        try (ObjectStream<NameSample> stream = aNameSamples) {
             TokenNameFinderFactory finderFactory = new TokenNameFinderFactory();
             return NameFinderME.train("unknown", null, stream, aParameters, finderFactory);
         } catch (IOException e) {
@@ -31,6 +31,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactoryImplBase;
 
 @Component
@@ -63,6 +64,13 @@ public class OpenNlpNerRecommenderFactory
         return "Multi-Token Sequence Classifier (OpenNLP NER)";
     }
 
+    @Override
+    public RecommendationEngineConcurrency getConcurrency()
+    {
+        // NameFinderME is not thread-safe
+        return RecommendationEngineConcurrency.PER_THREAD;
+    }
+
     @Override
     public boolean accepts(AnnotationLayer aLayer, AnnotationFeature aFeature)
     {
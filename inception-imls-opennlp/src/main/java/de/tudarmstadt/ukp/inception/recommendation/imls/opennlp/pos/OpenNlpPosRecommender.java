@@ -21,9 +21,10 @@ import static org.apache.commons.lang3.StringUtils.isNoneBlank;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.indexCovered;
 import static org.apache.uima.fit.util.CasUtil.select;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -52,11 +53,14 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TokenIndex;
+import de.tudarmstadt.ukp.inception.recommendation.imls.opennlp.CasSampleStream;
 import opennlp.tools.ml.BeamSearch;
 import opennlp.tools.postag.POSModel;
 import opennlp.tools.postag.POSSample;
 import opennlp.tools.postag.POSTaggerFactory;
 import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.Sequence;
 import opennlp.tools.util.TrainingParameters;
 
@@ -87,8 +91,13 @@ public class OpenNlpPosRecommender
     public void train(RecommenderContext aContext, List<CAS> aCasses)
         throws RecommendationException
     {
-        List<POSSample> posSamples = extractPosSamples(aCasses);
-
+        train(aContext, (Iterable<CAS>) aCasses);
+    }
+    
+    @Override
+    public void train(RecommenderContext aContext, Iterable<CAS> aCasses)
+        throws RecommendationException
+    {
         // The beam size controls how many results are returned at most. But even if the user
         // requests only few results, we always use at least the default bean size recommended by
         // OpenNLP
@@ -96,17 +105,51 @@ public class OpenNlpPosRecommender
 
         TrainingParameters params = traits.getParameters();
         params.put(BeamSearch.BEAM_SIZE_PARAMETER, Integer.toString(beamSize));
-        POSModel model = train(posSamples, params);
+        
+        // The POS samples are extracted from one document at a time while the trainer reads them
+        POSModel model = train(new CasSampleStream<POSSample>(aCasses, this::extractPosSamples,
+                traits.getTrainingSetSizeLimit()), params);
 
         aContext.put(KEY_MODEL, model);
     }
     
+    /**
+     * The trainer indexes the samples in a single pass over the training data.
+     */
+    @Override
+    public boolean isMultiPassTraining()
+    {
+        return false;
+    }
+    
     @Override
     public RecommendationEngineCapability getTrainingCapability() 
     {
         return RecommendationEngineCapability.TRAINING_REQUIRED;
     }
 
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        POSModel model = aContext.get(KEY_MODEL).orElseThrow(() -> 
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+        model.serialize(aOutput);
+    }
+
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        aContext.put(KEY_MODEL, new POSModel(aInput));
+    }
+
     @Override
     public void predict(RecommenderContext aContext, CAS aCas)
         throws RecommendationException
@@ -118,7 +161,7 @@ public class OpenNlpPosRecommender
 
         Type sentenceType = getType(aCas, Sentence.class);
         Type predictedType = getPredictedType(aCas);
-        Type tokenType = getType(aCas, Token.class);
+        TokenIndex tokenIndex = TokenIndex.of(aCas, getType(aCas, Token.class));
 
         Feature scoreFeature = getScoreFeature(aCas);
         Feature predictedFeature = getPredictedFeature(aCas);
@@ -131,7 +174,7 @@ public class OpenNlpPosRecommender
             }
             predictionCount++;
             
-            List<AnnotationFS> tokenAnnotations = selectCovered(tokenType, sentence);
+            List<AnnotationFS> tokenAnnotations = tokenIndex.selectCovered(sentence);
             String[] tokens = tokenAnnotations.stream()
                 .map(AnnotationFS::getCoveredText)
                 .toArray(String[]::new);
@@ -217,7 +260,7 @@ public class OpenNlpPosRecommender
             testSet.size(), data.size());
 
         // Train model
-        POSModel model = train(trainingSet, traits.getParameters());
+        POSModel model = train(new POSSampleStream(trainingSet), traits.getParameters());
         if (model == null) {
             throw new RecommendationException("Model is null, cannot evaluate!");
         }
@@ -239,30 +282,35 @@ public class OpenNlpPosRecommender
     }
 
     private List<POSSample> extractPosSamples(List<CAS> aCasses)
+    {
+        List<POSSample> posSamples;
+        try (CasSampleStream<POSSample> stream = new CasSampleStream<POSSample>(aCasses,
+                this::extractPosSamples, traits.getTrainingSetSizeLimit())) {
+            posSamples = stream.readAll();
+        }
+        
+        LOG.debug("Extracted {} POS samples", posSamples.size());
+        
+        return posSamples;
+    }
+
+    private List<POSSample> extractPosSamples(CAS aCas)
     {
         List<POSSample> posSamples = new ArrayList<>();
         
-        casses: for (CAS cas : aCasses) {
-            Type sentenceType = getType(cas, Sentence.class);
-            Type tokenType = getType(cas, Token.class);
-
-            Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(cas, sentenceType,
-                    tokenType);
-            for (Map.Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
-                if (posSamples.size() >= traits.getTrainingSetSizeLimit()) {
-                    break casses;
-                }
-                
-                AnnotationFS sentence = e.getKey();
+        Type sentenceType = getType(aCas, Sentence.class);
+        Type tokenType = getType(aCas, Token.class);
 
-                Collection<AnnotationFS> tokens = e.getValue();
-                
-                createPosSample(cas, sentence, tokens).map(posSamples::add);
-            }
+        Map<AnnotationFS, List<AnnotationFS>> sentences = indexCovered(aCas, sentenceType,
+                tokenType);
+        for (Map.Entry<AnnotationFS, List<AnnotationFS>> e : sentences.entrySet()) {
+            AnnotationFS sentence = e.getKey();
+
+            Collection<AnnotationFS> tokens = e.getValue();
+            
+            createPosSample(aCas, sentence, tokens).map(posSamples::add);
         }
         
-        LOG.debug("Extracted {} POS samples", posSamples.size());
-        
         return posSamples;
     }
 
@@ -310,14 +358,16 @@ public class OpenNlpPosRecommender
     }
 
     @Nullable
-    private POSModel train(List<POSSample> aPosSamples, TrainingParameters aParameters)
+    private POSModel train(ObjectStream<POSSample> aPosSamples, TrainingParameters aParameters)
         throws RecommendationException
     {
-        if (aPosSamples.isEmpty()) {
-            return null;
-        }
-
-        try (POSSampleStream stream = new POSSampleStream(aPosSamples)) {
+        try (ObjectStream<POSSample> stream = aPosSamples) {
+            // Without any samples, there is nothing to train on
+            if (stream.read() == null) {
+                return null;
+            }
+            stream.reset();
+            
             POSTaggerFactory taggerFactory = new POSTaggerFactory();
             return POSTaggerME.train("unknown", stream, aParameters, taggerFactory);
         }
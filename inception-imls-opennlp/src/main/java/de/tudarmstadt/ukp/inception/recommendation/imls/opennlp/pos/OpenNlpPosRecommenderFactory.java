@@ -27,6 +27,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactoryImplBase;
 
 @Component
@@ -56,6 +57,13 @@ public class OpenNlpPosRecommenderFactory
         return "Token Sequence Classifier (OpenNLP POS)";
     }
 
+    @Override
+    public RecommendationEngineConcurrency getConcurrency()
+    {
+        // POSTaggerME is not thread-safe
+        return RecommendationEngineConcurrency.PER_THREAD;
+    }
+
     @Override
     public boolean accepts(AnnotationLayer aLayer, AnnotationFeature aFeature)
     {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.imls.opennlp;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CasSampleStreamTest
+{
+    private List<CAS> casses;
+    private List<CAS> extracted;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        casses = new ArrayList<>();
+        for (String text : asList("a b", "", "c d e")) {
+            CAS cas = JCasFactory.createJCas().getCas();
+            cas.setDocumentText(text);
+            casses.add(cas);
+        }
+        extracted = new ArrayList<>();
+    }
+
+    @Test
+    public void thatSamplesAreExtractedOnDemand()
+    {
+        CasSampleStream<String> sut = new CasSampleStream<>(casses, this::tokens, 100);
+
+        assertThat(sut.read()).isEqualTo("a");
+        assertThat(extracted).containsExactly(casses.get(0));
+        assertThat(sut.readAll()).containsExactly("b", "c", "d", "e");
+        assertThat(sut.read()).isNull();
+    }
+
+    @Test
+    public void thatLimitIsRespectedAndResetStartsOver()
+    {
+        CasSampleStream<String> sut = new CasSampleStream<>(casses, this::tokens, 3);
+
+        assertThat(sut.readAll()).containsExactly("a", "b", "c");
+
+        sut.reset();
+
+        assertThat(sut.readAll()).containsExactly("a", "b", "c");
+    }
+
+    private List<String> tokens(CAS aCas)
+    {
+        extracted.add(aCas);
+        List<String> tokens = new ArrayList<>();
+        for (String token : aCas.getDocumentText().split(" ")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
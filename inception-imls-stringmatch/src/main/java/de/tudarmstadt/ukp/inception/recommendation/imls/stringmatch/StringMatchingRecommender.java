@@ -18,6 +18,8 @@
 package de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Comparator.comparing;
 import static java.util.Comparator.comparingInt;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
@@ -25,10 +27,19 @@ import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -51,16 +62,29 @@ import de.tudarmstadt.ukp.inception.recommendation.api.recommender.Recommendatio
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TrainingDataChanges;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.gazeteer.GazeteerService;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.model.Gazeteer;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.model.GazeteerEntry;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.trie.Trie;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.trie.WhitespaceNormalizingSanitizer;
+import de.tudarmstadt.ukp.inception.recommendation.util.TrainingDataFingerprint;
 
 public class StringMatchingRecommender
     extends RecommendationEngine
 {
     public static final Key<Trie<DictEntry>> KEY_MODEL = new Key<>("model");
+    /**
+     * The annotations learned from each training document by document name. These allow removing
+     * the contribution of a document from the model when the document changes.
+     */
+    public static final Key<Map<String, List<GazeteerEntry>>> KEY_DOCUMENT_ENTRIES = new Key<>(
+            "documentEntries");
+    /**
+     * The digest of the gazeteers the model has been built from. The entries of the gazeteers are
+     * not tracked individually, so a model can only be updated if its gazeteers are unchanged.
+     */
+    public static final Key<String> KEY_GAZETEERS = new Key<>("gazeteers");
 
     private static final String UNKNOWN_LABEL = "unknown";
     private static final String NO_LABEL = "O";
@@ -111,6 +135,30 @@ public class StringMatchingRecommender
     
     @Override
     public void train(RecommenderContext aContext, List<CAS> aCasses) throws RecommendationException
+    {
+        train(aContext, (Iterable<CAS>) aCasses);
+    }
+
+    @Override
+    public void train(RecommenderContext aContext, Iterable<CAS> aCasses)
+        throws RecommendationException
+    {
+        pretrainGazeteers(aContext);
+        
+        Trie<DictEntry> dict = aContext.get(KEY_MODEL).orElseGet(this::createTrie);
+        
+        for (CAS cas : aCasses) {
+            for (GazeteerEntry entry : extractEntries(cas)) {
+                learn(dict, entry.text, entry.label);
+            }
+        }
+        
+        aContext.put(KEY_MODEL, dict);
+        
+        log.debug("Learned dictionary model with {} entries", dict.size());
+    }
+
+    private void pretrainGazeteers(RecommenderContext aContext)
     {
         // Pre-load the gazeteers into the model
         if (gazeteerService != null) {
@@ -127,21 +175,278 @@ public class StringMatchingRecommender
                 }
             }
         }
+    }
+
+    private List<GazeteerEntry> extractEntries(CAS aCas)
+    {
+        Type predictedType = getPredictedType(aCas);
+        Feature predictedFeature = getPredictedFeature(aCas);
+
+        List<GazeteerEntry> entries = new ArrayList<>();
+        for (AnnotationFS ann : select(aCas, predictedType)) {
+            entries.add(new GazeteerEntry(ann.getCoveredText(),
+                    ann.getFeatureValueAsString(predictedFeature)));
+        }
+        return entries;
+    }
+
+    @Override
+    public boolean isIncrementalTrainingSupported()
+    {
+        return true;
+    }
+
+    /**
+     * Removes the annotations of the changed and removed documents from a copy of the previous
+     * dictionary and adds the current annotations of the changed documents.
+     */
+    @Override
+    public boolean trainIncrementally(RecommenderContext aContext,
+            RecommenderContext aPreviousContext, TrainingDataChanges aChanges)
+        throws RecommendationException
+    {
+        Optional<Trie<DictEntry>> previousDict = aPreviousContext.get(KEY_MODEL);
+        Optional<Map<String, List<GazeteerEntry>>> previousEntries = aPreviousContext
+                .get(KEY_DOCUMENT_ENTRIES);
         
-        Trie<DictEntry> dict = aContext.get(KEY_MODEL).orElseGet(this::createTrie);
+        // Without knowing which annotations came from which document, the previous dictionary
+        // cannot be updated
+        if (previousDict.isPresent() && !previousEntries.isPresent()) {
+            return false;
+        }
         
-        for (CAS cas : aCasses) {
-            Type predictedType = getPredictedType(cas);
-            Feature predictedFeature = getPredictedFeature(cas);
+        // Entries of deleted gazeteers cannot be removed from the previous dictionary and added
+        // gazeteers would not be loaded into it
+        String gazeteers = digestGazeteers();
+        if (previousDict.isPresent()
+                && !aPreviousContext.get(KEY_GAZETEERS).map(gazeteers::equals).orElse(false)) {
+            return false;
+        }
+        
+        Map<String, List<GazeteerEntry>> documentEntries = new HashMap<>(
+                previousEntries.orElse(emptyMap()));
+        
+        Trie<DictEntry> dict;
+        if (previousDict.isPresent()) {
+            // The previous dictionary may still be in use, so we update a copy of it
+            dict = copy(previousDict.get());
+            
+            boolean hasEmptyEntries = false;
+            List<String> outdatedDocuments = new ArrayList<>(aChanges.getRemovedDocuments());
+            outdatedDocuments.addAll(aChanges.getChangedDocuments());
+            for (String document : outdatedDocuments) {
+                List<GazeteerEntry> entries = documentEntries.remove(document);
+                if (entries != null) {
+                    for (GazeteerEntry entry : entries) {
+                        hasEmptyEntries |= unlearn(dict, entry.text, entry.label);
+                    }
+                }
+            }
+            
+            if (hasEmptyEntries) {
+                dict = compact(dict);
+            }
+        }
+        else {
+            pretrainGazeteers(aContext);
+            dict = aContext.get(KEY_MODEL).orElseGet(this::createTrie);
+        }
+        
+        for (String document : aChanges.getChangedDocuments()) {
+            checkCancelled();
+            
+            List<GazeteerEntry> entries = extractEntries(aChanges.getCas(document));
+            for (GazeteerEntry entry : entries) {
+                learn(dict, entry.text, entry.label);
+            }
+            documentEntries.put(document, entries);
+        }
+        
+        aContext.put(KEY_MODEL, dict);
+        aContext.put(KEY_DOCUMENT_ENTRIES, documentEntries);
+        aContext.put(KEY_GAZETEERS, gazeteers);
+        
+        log.debug("Updated dictionary model to {} entries", dict.size());
+        
+        return true;
+    }
+
+    private String digestGazeteers() throws RecommendationException
+    {
+        try {
+            return TrainingDataFingerprint.digest(this);
+        }
+        catch (IOException e) {
+            throw new RecommendationException("Unable to read gazeteers", e);
+        }
+    }
+
+    private Trie<DictEntry> copy(Trie<DictEntry> aDict)
+    {
+        Trie<DictEntry> copy = createTrie();
+        for (DictEntry entry : aDict.values()) {
+            copy.put(entry.key, new DictEntry(entry));
+        }
+        return copy;
+    }
+
+    private Trie<DictEntry> compact(Trie<DictEntry> aDict)
+    {
+        // The trie does not support removing entries, so we drop the entries which no longer
+        // have any labels by re-building the trie
+        Trie<DictEntry> compacted = createTrie();
+        for (DictEntry entry : aDict.values()) {
+            if (entry.labels.length > 0) {
+                compacted.put(entry.key, entry);
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * The dictionary is built from one document at a time.
+     */
+    @Override
+    public boolean isMultiPassTraining()
+    {
+        return false;
+    }
+
+    /**
+     * The gazeteers are covered by the training data fingerprint via
+     * {@link #digestAdditionalTrainingData}, so a stored model is only restored if the gazeteers
+     * have not changed since.
+     */
+    @Override
+    public boolean isModelPersistable()
+    {
+        return true;
+    }
+
+    /**
+     * The dictionary is pre-loaded from the gazeteers of the recommender, so these are described
+     * by their IDs and contents.
+     */
+    @Override
+    public void digestAdditionalTrainingData(OutputStream aOutput)
+        throws IOException
+    {
+        if (gazeteerService == null) {
+            return;
+        }
+        
+        DataOutputStream out = new DataOutputStream(aOutput);
+        List<Gazeteer> gazeteers = new ArrayList<>(gazeteerService.listGazeteers(recommender));
+        gazeteers.sort(comparing(Gazeteer::getId));
+        for (Gazeteer gaz : gazeteers) {
+            out.writeLong(gaz.getId());
+            File file = gazeteerService.getGazeteerFile(gaz);
+            if (file.exists()) {
+                out.writeLong(file.length());
+                Files.copy(file.toPath(), out);
+            }
+            else {
+                out.writeLong(-1);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        Trie<DictEntry> dict = aContext.get(KEY_MODEL).orElseThrow(() -> 
+                new IOException("Key [" + KEY_MODEL + "] not found in context"));
+        
+        DataOutputStream out = new DataOutputStream(aOutput);
+        Collection<DictEntry> entries = dict.values();
+        out.writeInt(entries.size());
+        for (DictEntry entry : entries) {
+            out.writeUTF(entry.key);
+            out.writeInt(entry.labels.length);
+            for (int i = 0; i < entry.labels.length; i++) {
+                out.writeUTF(entry.labels[i]);
+                out.writeInt(entry.counts[i]);
+            }
+        }
+        
+        // Without the entries learned per document, a restored model could not be updated
+        // incrementally
+        Optional<Map<String, List<GazeteerEntry>>> documentEntries = aContext
+                .get(KEY_DOCUMENT_ENTRIES);
+        out.writeBoolean(documentEntries.isPresent());
+        if (documentEntries.isPresent()) {
+            out.writeInt(documentEntries.get().size());
+            for (Entry<String, List<GazeteerEntry>> document : documentEntries.get()
+                    .entrySet()) {
+                out.writeUTF(document.getKey());
+                out.writeInt(document.getValue().size());
+                for (GazeteerEntry entry : document.getValue()) {
+                    out.writeUTF(entry.text);
+                    writeNullableUTF(out, entry.label);
+                }
+            }
+        }
+        writeNullableUTF(out, aContext.get(KEY_GAZETEERS).orElse(null));
+        
+        out.flush();
+    }
 
-            for (AnnotationFS ann : select(cas, predictedType)) {
-                learn(dict, ann.getCoveredText(), ann.getFeatureValueAsString(predictedFeature));
+    @Override
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        Trie<DictEntry> dict = createTrie();
+        
+        DataInputStream in = new DataInputStream(aInput);
+        int entryCount = in.readInt();
+        for (int e = 0; e < entryCount; e++) {
+            DictEntry entry = new DictEntry(in.readUTF());
+            int labelCount = in.readInt();
+            entry.labels = new String[labelCount];
+            entry.counts = new int[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                entry.labels[i] = in.readUTF();
+                entry.counts[i] = in.readInt();
             }
+            dict.put(entry.key, entry);
         }
         
         aContext.put(KEY_MODEL, dict);
         
-        log.debug("Learned dictionary model with {} entries", dict.size());
+        if (in.readBoolean()) {
+            Map<String, List<GazeteerEntry>> documentEntries = new HashMap<>();
+            int documentCount = in.readInt();
+            for (int d = 0; d < documentCount; d++) {
+                String document = in.readUTF();
+                int count = in.readInt();
+                List<GazeteerEntry> entries = new ArrayList<>(count);
+                for (int e = 0; e < count; e++) {
+                    entries.add(new GazeteerEntry(in.readUTF(), readNullableUTF(in)));
+                }
+                documentEntries.put(document, entries);
+            }
+            aContext.put(KEY_DOCUMENT_ENTRIES, documentEntries);
+        }
+        
+        String gazeteers = readNullableUTF(in);
+        if (gazeteers != null) {
+            aContext.put(KEY_GAZETEERS, gazeteers);
+        }
+    }
+    
+    private static void writeNullableUTF(DataOutputStream aOut, String aValue) throws IOException
+    {
+        aOut.writeBoolean(aValue != null);
+        if (aValue != null) {
+            aOut.writeUTF(aValue);
+        }
+    }
+    
+    private static String readNullableUTF(DataInputStream aIn) throws IOException
+    {
+        return aIn.readBoolean() ? aIn.readUTF() : null;
     }
 
     @Override
@@ -301,6 +606,23 @@ public class StringMatchingRecommender
         entry.put(label);
 
     }
+
+    /**
+     * @return whether the entry no longer has any labels.
+     */
+    private boolean unlearn(Trie<DictEntry> aDict, String aText, String aLabel)
+    {
+        String label = isBlank(aLabel) ? UNKNOWN_LABEL : aLabel;
+
+        DictEntry entry = aDict.get(aText);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.remove(label);
+        
+        return entry.labels.length == 0;
+    }
     
     private List<Sample> extractData(List<CAS> aCasses, String aLayerName, String aFeatureName)
     {
@@ -528,6 +850,13 @@ public class StringMatchingRecommender
             key = aKey;
         }
         
+        public DictEntry(DictEntry aOther)
+        {
+            key = aOther.key;
+            labels = aOther.labels.clone();
+            counts = aOther.counts.clone();
+        }
+        
         public void put(String aLabel)
         {
             // No data yet - create it
@@ -559,6 +888,31 @@ public class StringMatchingRecommender
             counts[counts.length - 1] = 1;
         }
         
+        public void remove(String aLabel)
+        {
+            int i = asList(labels).indexOf(aLabel);
+            if (i == -1) {
+                return;
+            }
+            
+            // Label is still used elsewhere
+            if (counts[i] > 1) {
+                counts[i]--;
+                return;
+            }
+            
+            // Label is no longer used
+            String[] newLabels = new String[labels.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+            labels = newLabels;
+            
+            int[] newCounts = new int[counts.length - 1];
+            System.arraycopy(counts, 0, newCounts, 0, i);
+            System.arraycopy(counts, i + 1, newCounts, i, counts.length - i - 1);
+            counts = newCounts;
+        }
+        
         public List<LabelStats> getBest(int aN)
         {
             int total = IntStream.of(counts).sum();
@@ -20,14 +20,26 @@ package de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch;
 import static de.tudarmstadt.ukp.inception.support.test.recommendation.RecommenderTestHelper.getPredictions;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.dkpro.core.api.datasets.DatasetValidationPolicy.CONTINUE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -57,6 +69,9 @@ import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.IncrementalSpl
 import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.PercentageBasedSplitter;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TrainingDataChanges;
+import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.gazeteer.GazeteerService;
+import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.model.Gazeteer;
 import de.tudarmstadt.ukp.inception.recommendation.imls.stringmatch.model.GazeteerEntry;
 import de.tudarmstadt.ukp.inception.support.test.recommendation.RecommenderTestHelper;
 
@@ -182,6 +197,116 @@ public class StringMatchingRecommenderTest
     }
 
 
+    @Test
+    public void thatIncrementalTrainingUpdatesChangedDocuments() throws Exception
+    {
+        StringMatchingRecommender sut = new StringMatchingRecommender(recommender, traits);
+        CAS doc1 = getTestNECas("Hans", new String[] { "PER" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+        CAS doc2 = getTestNECas("Darmstadt", new String[] { "LOC" }, new int[][] { { 0, 9 } },
+                new int[][] { { 0, 9 } }, new int[][] { { 0, 9 } }).get(0);
+        CAS doc1Changed = getTestNECas("Hans", new String[] { "ORG" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+
+        Map<String, Supplier<CAS>> changed = new LinkedHashMap<>();
+        changed.put("doc1", () -> doc1);
+        changed.put("doc2", () -> doc2);
+        assertThat(sut.trainIncrementally(context, RecommenderContext.EMPTY_CONTEXT,
+                new TrainingDataChanges(changed, emptySet()))).isTrue();
+        context.close();
+
+        RecommenderContext updatedContext = new RecommenderContext();
+        assertThat(sut.trainIncrementally(updatedContext, context, new TrainingDataChanges(
+                singletonMap("doc1", () -> doc1Changed), singleton("doc2")))).isTrue();
+
+        assertThat(updatedContext.get(StringMatchingRecommender.KEY_DOCUMENT_ENTRIES).get())
+                .containsOnlyKeys("doc1")
+                .containsEntry("doc1", asList(new GazeteerEntry("Hans", "ORG")));
+        assertThat(updatedContext.get(StringMatchingRecommender.KEY_MODEL).get().keys())
+                .containsExactly("Hans");
+        assertThat(context.get(StringMatchingRecommender.KEY_MODEL).get().keys())
+                .as("Previous model has not been modified")
+                .containsExactlyInAnyOrder("Hans", "Darmstadt");
+    }
+
+    @Test
+    public void thatRestoredModelCanBeUpdatedIncrementally() throws Exception
+    {
+        StringMatchingRecommender sut = new StringMatchingRecommender(recommender, traits);
+        CAS doc1 = getTestNECas("Hans", new String[] { "PER" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+        CAS doc1Changed = getTestNECas("Hans", new String[] { "ORG" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+
+        sut.trainIncrementally(context, RecommenderContext.EMPTY_CONTEXT,
+                new TrainingDataChanges(singletonMap("doc1", () -> doc1), emptySet()));
+        context.close();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        sut.writeModel(context, buffer);
+        RecommenderContext restoredContext = new RecommenderContext();
+        sut.readModel(restoredContext, new ByteArrayInputStream(buffer.toByteArray()));
+        restoredContext.close();
+
+        assertThat(restoredContext.get(StringMatchingRecommender.KEY_DOCUMENT_ENTRIES).get())
+                .containsEntry("doc1", asList(new GazeteerEntry("Hans", "PER")));
+
+        RecommenderContext updatedContext = new RecommenderContext();
+        assertThat(sut.trainIncrementally(updatedContext, restoredContext,
+                new TrainingDataChanges(singletonMap("doc1", () -> doc1Changed), emptySet())))
+                        .isTrue();
+        updatedContext.close();
+
+        CAS cas = getTestNECas("Hans", new String[] { "PER" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+        RecommenderTestHelper.addScoreFeature(cas, NamedEntity.class, "value");
+        sut.predict(updatedContext, cas);
+
+        assertThat(getPredictions(cas, NamedEntity.class))
+                .as("Label learned from the previous version of the document has been unlearned")
+                .extracting(NamedEntity::getValue)
+                .containsExactly("ORG");
+    }
+
+    @Test
+    public void thatIncrementalTrainingIsDeclinedWhenGazeteersChange() throws Exception
+    {
+        Gazeteer gaz1 = new Gazeteer("gaz1", recommender);
+        gaz1.setId(1l);
+        Gazeteer gaz2 = new Gazeteer("gaz2", recommender);
+        gaz2.setId(2l);
+        
+        GazeteerService gazeteerService = mock(GazeteerService.class);
+        when(gazeteerService.listGazeteers(recommender)).thenReturn(asList(gaz1));
+        when(gazeteerService.getGazeteerFile(any())).thenReturn(new File("does-not-exist"));
+        when(gazeteerService.readGazeteerFile(gaz1))
+                .thenReturn(asList(new GazeteerEntry("Hans", "PER")));
+        when(gazeteerService.readGazeteerFile(gaz2))
+                .thenReturn(asList(new GazeteerEntry("Darmstadt", "LOC")));
+        
+        StringMatchingRecommender sut = new StringMatchingRecommender(recommender, traits,
+                gazeteerService);
+        CAS doc1 = getTestNECas("Hans", new String[] { "PER" }, new int[][] { { 0, 4 } },
+                new int[][] { { 0, 4 } }, new int[][] { { 0, 4 } }).get(0);
+        
+        assertThat(sut.trainIncrementally(context, RecommenderContext.EMPTY_CONTEXT,
+                new TrainingDataChanges(singletonMap("doc1", () -> doc1), emptySet())))
+                        .isTrue();
+        context.close();
+        
+        assertThat(sut.trainIncrementally(new RecommenderContext(), context,
+                new TrainingDataChanges(emptyMap(), emptySet())))
+                        .as("Unchanged gazeteers allow updating the model")
+                        .isTrue();
+        
+        when(gazeteerService.listGazeteers(recommender)).thenReturn(asList(gaz1, gaz2));
+        
+        assertThat(sut.trainIncrementally(new RecommenderContext(), context,
+                new TrainingDataChanges(emptyMap(), emptySet())))
+                        .as("Added gazeteer requires re-building the model")
+                        .isFalse();
+    }
+
     @Test
     public void thatEvaluationWorks() throws Exception
     {
@@ -26,6 +26,7 @@ import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecord;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordChangeLocation;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordIndex;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType;
 
 public interface LearningRecordService
@@ -42,6 +43,14 @@ public interface LearningRecordService
      */
     List<LearningRecord> listRecords(String user, AnnotationLayer layer, int aLimit);
 
+    /**
+     * Returns an index of the learning records of the given user and layer which allows looking up
+     * the records applying to a suggestion. The index is kept in memory and updated when records
+     * are logged or deleted via this service. Learning records with the action
+     * {@link LearningRecordType#SHOWN} are <b>not</b> contained in the index.
+     */
+    LearningRecordIndex getRecordIndex(String aUsername, AnnotationLayer aLayer);
+
     void deleteRecords(SourceDocument document, String user);
 
     LearningRecord getRecordById(long recordId);
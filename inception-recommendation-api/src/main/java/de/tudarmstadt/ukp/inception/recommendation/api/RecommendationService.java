@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.inception.recommendation.api;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.uima.cas.CAS;
 
@@ -37,6 +38,7 @@ import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.SuggestionGroup;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactory;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.scheduling.CancellationToken;
 
 /**
  * The main contact point of the Recommendation module. This interface can be injected in the wicket
@@ -92,6 +94,28 @@ public interface RecommendationService
     
     void putIncomingPredictions(User aUser, Project aProject, Predictions aPredictions);
     
+    /**
+     * Returns the lock which a prediction run must hold while computing and publishing the
+     * predictions of the given user and project. Concurrent runs would start from the same
+     * previous predictions and the run publishing last would discard the new suggestions of the
+     * other one.
+     */
+    Lock getPredictionLock(User aUser, Project aProject);
+    
+    /**
+     * Requests another prediction run for the given user and project. This is used by a run which
+     * cannot acquire the {@link #getPredictionLock prediction lock} - instead of waiting for the
+     * lock, it leaves it to the run holding the lock to schedule a follow-up run.
+     */
+    void requestPrediction(User aUser, Project aProject);
+    
+    /**
+     * Clears a pending {@link #requestPrediction request} for another prediction run.
+     *
+     * @return whether another prediction run has been requested.
+     */
+    boolean consumePredictionRequest(User aUser, Project aProject);
+    
     boolean switchPredictions(User aUser, Project aProject);
 
     /**
@@ -116,6 +140,21 @@ public interface RecommendationService
      *            The new active context of the given recommender.
      */
     void putContext(User aUser, Recommender aRecommender, RecommenderContext aContext);
+
+    /**
+     * Returns a context of the given recommender which some user has trained on data with the
+     * given fingerprint. Since the context is shared between users, it is always closed.
+     * 
+     * @param aRecommender
+     *            The recommender to which the desired context belongs.
+     * @param aTrainingDataFingerprint
+     *            The fingerprint of the data the context must have been trained on. This must
+     *            include the data the engine trains on besides the documents (e.g. gazeteers),
+     *            otherwise a context trained on outdated data may be returned.
+     * @return The shared context if there is one.
+     */
+    Optional<RecommenderContext> getSharedContext(Recommender aRecommender,
+            String aTrainingDataFingerprint);
     
     /**
      * Uses the given annotation suggestion to create a new annotation or to update a feature in an
@@ -129,6 +168,19 @@ public interface RecommendationService
         throws AnnotationException;
     
     Predictions computePredictions(User aUser, Project aProject, List<SourceDocument> aDocuments);
+
+    /**
+     * Computes predictions only for the documents which have been written and the recommenders
+     * which have been retrained since the last prediction run. All other suggestions are carried
+     * over from the most recent predictions. If there are no previous predictions, all documents
+     * are predicted.
+     * <p>
+     * The cancellation token is checked between documents and recommenders. If cancellation is
+     * requested, the returned predictions are incomplete and should be discarded. The documents
+     * and recommenders which would have been predicted are predicted again in the next run.
+     */
+    Predictions computeIncrementalPredictions(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, CancellationToken aCancellationToken);
     
     void calculateVisibility(CAS aCas, String aUser, AnnotationLayer aLayer,
             Collection<SuggestionGroup> aRecommendations, int aWindowBegin, int aWindowEnd);
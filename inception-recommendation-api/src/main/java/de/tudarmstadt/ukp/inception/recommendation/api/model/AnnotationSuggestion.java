@@ -110,19 +110,28 @@ public class AnnotationSuggestion
      */
     public AnnotationSuggestion(AnnotationSuggestion aObject)
     {
-        label = aObject.label;
-        uiLabel = aObject.uiLabel;
-        id = aObject.id;
-        layerId = aObject.layerId;
-        feature = aObject.feature;
-        recommenderName = aObject.recommenderName;
-        confidence = aObject.confidence;
-        confidenceExplanation = aObject.confidenceExplanation;
-        recommenderId = aObject.recommenderId;
-        begin = aObject.begin;
-        end = aObject.end;
-        coveredText = aObject.coveredText;
-        documentName = aObject.documentName;
+        label = aObject.getLabel();
+        uiLabel = aObject.getUiLabel();
+        id = aObject.getId();
+        layerId = aObject.getLayerId();
+        feature = aObject.getFeature();
+        recommenderName = aObject.getRecommenderName();
+        confidence = aObject.getConfidence();
+        confidenceExplanation = aObject.getConfidenceExplanation();
+        recommenderId = aObject.getRecommenderId();
+        begin = aObject.getBegin();
+        end = aObject.getEnd();
+        coveredText = aObject.getCoveredText();
+        documentName = aObject.getDocumentName();
+    }
+
+    /**
+     * Constructor for suggestions which are backed by a shared storage. These must override all
+     * getters to read the properties from there.
+     */
+    protected AnnotationSuggestion()
+    {
+        this(-1, -1, null, -1, null, null, -1, -1, null, null, null, 0, null);
     }
 
     // Getter and setter
@@ -205,21 +214,36 @@ public class AnnotationSuggestion
     @Deprecated
     public Offset getOffset()
     {
-        return new Offset(begin, end);
+        return new Offset(getBegin(), getEnd());
     }
 
     public void hide(int aFlags)
     {
-        hidingFlags |= aFlags;
+        setHidingFlags(getHidingFlags() | aFlags);
     }
     
     public void show(int aFlags)
     {
-        hidingFlags &= ~aFlags;
+        setHidingFlags(getHidingFlags() & ~aFlags);
+    }
+    
+    /**
+     * Hook through which all access to the hiding flags goes. Suggestions which are backed by a
+     * shared storage override this to read the flags from there.
+     */
+    protected int getHidingFlags()
+    {
+        return hidingFlags;
+    }
+    
+    protected void setHidingFlags(int aFlags)
+    {
+        hidingFlags = aFlags;
     }
     
     public String getReasonForHiding()
     {
+        int hidingFlags = getHidingFlags();
         StringBuilder sb = new StringBuilder();
         if ((hidingFlags & FLAG_OVERLAP) != 0) {
             sb.append("overlapping ");
@@ -241,12 +265,13 @@ public class AnnotationSuggestion
     
     public boolean isVisible()
     {
-        return hidingFlags == 0;
+        return getHidingFlags() == 0;
     }
 
     public VID getVID()
     {
-        return new VID(EXTENSION_ID, layerId, (int) recommenderId, id, VID.NONE, VID.NONE);
+        return new VID(EXTENSION_ID, getLayerId(), (int) getRecommenderId(), getId(), VID.NONE,
+                VID.NONE);
     }
 
     @Override
@@ -254,7 +279,7 @@ public class AnnotationSuggestion
     {
         // The recommenderId captures uniquely the project, layer and feature, so we do not have to
         // check them separately
-        return Objects.hash(id, recommenderId, documentName);
+        return Objects.hash(getId(), getRecommenderId(), getDocumentName());
     }
 
     @Override
@@ -265,24 +290,26 @@ public class AnnotationSuggestion
         if (this == o) {
             return true;
         }
-        if (o == null || getClass() != o.getClass()) {
+        // Views on stored suggestions are subclasses, so we cannot compare the classes here
+        if (!(o instanceof AnnotationSuggestion)) {
             return false;
         }
         AnnotationSuggestion that = (AnnotationSuggestion) o;
-        return id == that.id && recommenderId == that.recommenderId
-                && documentName.equals(that.documentName);
+        return getId() == that.getId() && getRecommenderId() == that.getRecommenderId()
+                && getDocumentName().equals(that.getDocumentName());
     }
 
     @Override
     public String toString()
     {
-        return new ToStringBuilder(this).append("id", id).append("recommenderId", recommenderId)
-                .append("recommenderName", recommenderName).append("layerId", layerId)
-                .append("feature", feature).append("documentName", documentName)
-                .append("begin", begin).append("end", end)
-                .append("coveredText", coveredText).append("label", label)
-                .append("uiLabel", uiLabel).append("confidence", confidence)
-                .append("confindenceExplanation", confidenceExplanation)
+        return new ToStringBuilder(this).append("id", getId())
+                .append("recommenderId", getRecommenderId())
+                .append("recommenderName", getRecommenderName()).append("layerId", getLayerId())
+                .append("feature", getFeature()).append("documentName", getDocumentName())
+                .append("begin", getBegin()).append("end", getEnd())
+                .append("coveredText", getCoveredText()).append("label", getLabel())
+                .append("uiLabel", getUiLabel()).append("confidence", getConfidence())
+                .append("confindenceExplanation", getConfidenceExplanation())
                 .append("visible", isVisible())
                 .append("reasonForHiding", getReasonForHiding()).toString();
     }
@@ -294,6 +321,7 @@ public class AnnotationSuggestion
      */
     public boolean labelEquals(String aLabel)
     {
+        String label = getLabel();
         return (aLabel == null && label == null) || (label != null && label.equals(aLabel));
 
     }
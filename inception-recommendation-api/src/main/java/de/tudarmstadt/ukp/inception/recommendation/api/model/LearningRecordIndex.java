@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Learning records of a user on a layer, indexed by document, position and label such that the
+ * records applying to a suggestion can be looked up without scanning the whole learning history.
+ * Records of type {@link LearningRecordType#SHOWN} are not indexed.
+ */
+public class LearningRecordIndex
+{
+    private final Map<RecordKey, List<LearningRecord>> records = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * @param aRecords
+     *            the records to index, the most recent record first.
+     */
+    public LearningRecordIndex(Collection<LearningRecord> aRecords)
+    {
+        for (LearningRecord record : aRecords) {
+            if (record.getUserAction() != LearningRecordType.SHOWN) {
+                records.computeIfAbsent(RecordKey.of(record), k -> new LinkedList<>())
+                        .add(record);
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Adds the given record as the most recent one at its position.
+     */
+    public synchronized void add(LearningRecord aRecord)
+    {
+        if (aRecord.getUserAction() == LearningRecordType.SHOWN) {
+            return;
+        }
+
+        records.computeIfAbsent(RecordKey.of(aRecord), k -> new LinkedList<>()).add(0, aRecord);
+        size++;
+    }
+
+    /**
+     * Removes all records matching the given predicate.
+     */
+    public synchronized void removeIf(Predicate<LearningRecord> aPredicate)
+    {
+        records.values().removeIf(list -> {
+            int before = list.size();
+            list.removeIf(aPredicate);
+            size -= before - list.size();
+            return list.isEmpty();
+        });
+    }
+
+    /**
+     * @return the records for the given suggestion, the most recent record first.
+     */
+    public List<LearningRecord> get(AnnotationSuggestion aSuggestion)
+    {
+        return get(aSuggestion.getDocumentName(), aSuggestion.getBegin(), aSuggestion.getEnd(),
+                aSuggestion.getLabel());
+    }
+
+    /**
+     * @return the records for the given position and label, the most recent record first.
+     */
+    public synchronized List<LearningRecord> get(String aDocumentName, int aBegin, int aEnd,
+            String aLabel)
+    {
+        List<LearningRecord> result = records
+                .get(new RecordKey(aDocumentName, aBegin, aEnd, aLabel));
+        return result != null ? new ArrayList<>(result) : emptyList();
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    private static final class RecordKey
+    {
+        private final String documentName;
+        private final int begin;
+        private final int end;
+        private final String label;
+
+        public RecordKey(String aDocumentName, int aBegin, int aEnd, String aLabel)
+        {
+            documentName = aDocumentName;
+            begin = aBegin;
+            end = aEnd;
+            label = aLabel;
+        }
+
+        public static RecordKey of(LearningRecord aRecord)
+        {
+            return new RecordKey(aRecord.getSourceDocument().getName(),
+                    aRecord.getOffsetCharacterBegin(), aRecord.getOffsetCharacterEnd(),
+                    aRecord.getAnnotation());
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey castOther = (RecordKey) other;
+            return new EqualsBuilder().append(documentName, castOther.documentName)
+                    .append(begin, castOther.begin).append(end, castOther.end)
+                    .append(label, castOther.label).isEquals();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return new HashCodeBuilder().append(documentName).append(begin).append(end)
+                    .append(label).toHashCode();
+        }
+    }
+}
@@ -17,14 +17,18 @@
  */
 package de.tudarmstadt.ukp.inception.recommendation.api.model;
 
+import static java.util.Collections.emptyList;
+
 import java.io.Serializable;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +40,9 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Stores references to the recommendationService, the currently used JCas and the annotatorState.
@@ -43,13 +50,28 @@ import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
  * 
  * If the prediction task has run it stores the predicted annotations for an annotation layer in the
  * predictions map.
+ * 
+ * The suggestions themselves are kept in a compact {@link SuggestionStore}. The suggestions
+ * returned by the accessors are small views on the store which read the properties of a
+ * suggestion from the store when they are accessed. The store keeps the slots of replaced
+ * suggestions until the current suggestions are inherited by a new instance, which happens on
+ * every prediction run. The suggestions are indexed per document. Within a
+ * document, they are indexed by layer and begin offset to answer window queries and by recommender
+ * and suggestion ID to answer VID lookups. Access to the store and the index is guarded by a
+ * read/write lock because the suggestions may be added by several prediction workers concurrently.
  */
 public class Predictions
     implements Serializable
 {
     private static final long serialVersionUID = -1598768729246662885L;
     
-    private Map<ExtendedId, AnnotationSuggestion> predictions = new ConcurrentHashMap<>();
+    private static final int NO_SLOT = -1;
+    private static final int INDEX_BYTES_PER_SUGGESTION = 16;
+    
+    private final SuggestionStore store = new SuggestionStore();
+    private final Map<String, DocumentPredictions> documents = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size = 0;
     
     private final Project project;
     private final User user;
@@ -67,7 +89,11 @@ public class Predictions
         user = aUser;
 
         if (aPredictions != null) {
-            predictions = new ConcurrentHashMap<ExtendedId, AnnotationSuggestion>(aPredictions);
+            Map<Long, List<AnnotationSuggestion>> byLayer = new HashMap<>();
+            aPredictions.forEach((id, suggestion) -> byLayer
+                    .computeIfAbsent(id.getLayerId(), _key -> new ArrayList<>())
+                    .add(suggestion));
+            byLayer.forEach(this::putPredictions);
         }
     }
     
@@ -119,14 +145,36 @@ public class Predictions
     private List<AnnotationSuggestion> getFlattenedPredictions(String aDocumentName,
         AnnotationLayer aLayer, int aWindowBegin, int aWindowEnd)
     {
-        return predictions.entrySet().stream()
-            .filter(f -> f.getKey().getDocumentName().equals(aDocumentName))
-            .filter(f -> f.getKey().getLayerId() == aLayer.getId())
-            .filter(f -> aWindowBegin == -1 || (f.getKey().getBegin() >= aWindowBegin))
-            .filter(f -> aWindowEnd == -1 || (f.getKey().getEnd() <= aWindowEnd))
-            .sorted(Comparator.comparingInt(e2 -> e2.getValue().getBegin()))
-            .map(Map.Entry::getValue)
-            .collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            DocumentPredictions doc = documents.get(aDocumentName);
+            if (doc == null) {
+                return emptyList();
+            }
+            
+            IntArrayList slots = doc.byLayer.get(aLayer.getId());
+            if (slots == null) {
+                return emptyList();
+            }
+
+            // Since a suggestion cannot end before it begins, only the suggestions starting
+            // within the window need to be checked
+            int i = aWindowBegin == -1 ? 0 : firstStartingAtOrAfter(slots, aWindowBegin);
+            List<AnnotationSuggestion> result = new ArrayList<>();
+            for (; i < slots.size(); i++) {
+                int slot = slots.getInt(i);
+                if (aWindowEnd != -1 && store.getBegin(slot) > aWindowEnd) {
+                    break;
+                }
+                if (aWindowEnd == -1 || store.getEnd(slot) <= aWindowEnd) {
+                    result.add(view(slot));
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -135,11 +183,24 @@ public class Predictions
      */
     public Optional<AnnotationSuggestion> getPredictionByVID(SourceDocument aDocument, VID aVID)
     {
-        return predictions.values().stream()
-                .filter(f -> f.getDocumentName().equals(aDocument.getName()))
-                .filter(f -> f.getId() == aVID.getSubId())
-                .filter(f -> f.getRecommenderId() == aVID.getId())
-                .findFirst();
+        lock.readLock().lock();
+        try {
+            DocumentPredictions doc = documents.get(aDocument.getName());
+            if (doc == null) {
+                return Optional.empty();
+            }
+            
+            Int2IntMap byId = doc.byRecommender.get((long) aVID.getId());
+            if (byId == null) {
+                return Optional.empty();
+            }
+            
+            int slot = byId.get(aVID.getSubId());
+            return slot == NO_SLOT ? Optional.empty() : Optional.of(view(slot));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -148,51 +209,273 @@ public class Predictions
     public Optional<AnnotationSuggestion> getPrediction(SourceDocument aDocument, int aBegin,
             int aEnd, String aLabel)
     {
-        return predictions.values().stream()
-                .filter(f -> f.getDocumentName().equals(aDocument.getName()))
-                .filter(f -> f.getBegin() == aBegin && f.getEnd() == aEnd)
-                .filter(f -> f.getLabel().equals(aLabel))
-                .max(Comparator.comparingInt(AnnotationSuggestion::getId));
+        lock.readLock().lock();
+        try {
+            DocumentPredictions doc = documents.get(aDocument.getName());
+            if (doc == null) {
+                return Optional.empty();
+            }
+            
+            int best = NO_SLOT;
+            for (IntArrayList slots : doc.byLayer.values()) {
+                for (int i = firstStartingAtOrAfter(slots, aBegin); i < slots.size(); i++) {
+                    int slot = slots.getInt(i);
+                    if (store.getBegin(slot) != aBegin) {
+                        break;
+                    }
+                    if (store.getEnd(slot) == aEnd && labelEquals(slot, aLabel)
+                            && (best == NO_SLOT || store.getId(slot) > store.getId(best))) {
+                        best = slot;
+                    }
+                }
+            }
+            
+            return best == NO_SLOT ? Optional.empty() : Optional.of(view(best));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns all suggestions generated by the given recommender for the given document.
+     */
+    public List<AnnotationSuggestion> getPredictionsByRecommender(String aDocumentName,
+            long aRecommenderId)
+    {
+        lock.readLock().lock();
+        try {
+            DocumentPredictions doc = documents.get(aDocumentName);
+            if (doc == null) {
+                return emptyList();
+            }
+            
+            Int2IntMap byId = doc.byRecommender.get(aRecommenderId);
+            if (byId == null) {
+                return emptyList();
+            }
+            
+            List<AnnotationSuggestion> result = new ArrayList<>(byId.size());
+            for (int slot : byId.values()) {
+                result.add(view(slot));
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
     
     /**
+     * Adds the suggestions including their current hiding flags. A suggestion with the same
+     * recommender and ID in the same document replaces the previous one.
      * 
      * @param aLayerId
      * @param aPredictions - list of sentences containing recommendations
      */
     public void putPredictions(long aLayerId, List<AnnotationSuggestion> aPredictions)
     {
-        aPredictions.forEach(prediction -> {
-            predictions.put(new ExtendedId(user.getUsername(), project.getId(),
-                    prediction.getDocumentName(), aLayerId, prediction.getOffset(),
-                    prediction.getRecommenderId(), prediction.getId(), -1), prediction);
+        lock.writeLock().lock();
+        try {
+            // Slots added per document - usually all suggestions come from the same document
+            Map<String, IntArrayList> added = new HashMap<>();
+            
+            for (AnnotationSuggestion prediction : aPredictions) {
+                int slot = store.add(prediction);
+                
+                DocumentPredictions doc = documents.computeIfAbsent(
+                        prediction.getDocumentName(), _key -> new DocumentPredictions());
+                IntArrayList addedToDoc = added.computeIfAbsent(prediction.getDocumentName(),
+                    _key -> new IntArrayList());
+                
+                int previous = doc.byRecommender
+                        .computeIfAbsent(prediction.getRecommenderId(), _key -> {
+                            Int2IntMap byId = new Int2IntOpenHashMap();
+                            byId.defaultReturnValue(NO_SLOT);
+                            return byId;
+                        })
+                        .put(prediction.getId(), slot);
+                
+                if (previous == NO_SLOT) {
+                    size++;
+                }
+                else if (!addedToDoc.rem(previous)) {
+                    doc.byLayer.values().forEach(slots -> unindex(slots, previous));
+                }
+                
+                addedToDoc.add(slot);
+            }
+            
+            added.forEach((documentName, slots) -> {
+                DocumentPredictions doc = documents.get(documentName);
+                doc.byLayer.put(aLayerId, merge(doc.byLayer.get(aLayerId), slots));
+            });
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies all suggestions accepted by the given filter from another set of predictions. The
+     * hiding flags of the suggestions are retained. Only the current suggestions are copied, so
+     * the slots of replaced or removed suggestions in the other store are not carried over.
+     */
+    public void inheritSuggestions(Predictions aPredictions,
+            Predicate<AnnotationSuggestion> aFilter)
+    {
+        // Collect detached copies first to avoid holding the locks of both instances at the same
+        // time - the views would take the lock of the other instance while they are added
+        Map<Long, List<AnnotationSuggestion>> inherited = new HashMap<>();
+        aPredictions.lock.readLock().lock();
+        try {
+            for (DocumentPredictions doc : aPredictions.documents.values()) {
+                doc.byLayer.forEach((layerId, slots) -> {
+                    for (int i = 0; i < slots.size(); i++) {
+                        int slot = slots.getInt(i);
+                        if (aFilter.test(aPredictions.view(slot))) {
+                            inherited.computeIfAbsent(layerId, _key -> new ArrayList<>())
+                                    .add(aPredictions.detach(slot));
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            aPredictions.lock.readLock().unlock();
+        }
+        
+        inherited.forEach(this::putPredictions);
+    }
 
-        });
+    /**
+     * @return a new set of predictions containing the suggestions accepted by the given filter.
+     *         The hiding flags of the suggestions are retained. The store of the copy only
+     *         contains the current suggestions.
+     */
+    public Predictions copy(Predicate<AnnotationSuggestion> aFilter)
+    {
+        Predictions copy = new Predictions(project, user, null);
+        copy.inheritSuggestions(this, aFilter);
+        return copy;
     }
 
     public Project getProject() {
         return project;
     }
 
+    /**
+     * @return the number of suggestions.
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a rough estimate of the heap memory occupied by the suggestions in bytes. The
+     *         estimate covers the store and the indexes but not the project and user.
+     */
+    public long estimateMemoryUsage()
+    {
+        lock.readLock().lock();
+        try {
+            // Each suggestion is referenced by a slot in the layer index and by an entry in the
+            // recommender index
+            return store.estimateMemoryUsage() + size * INDEX_BYTES_PER_SUGGESTION;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public boolean hasPredictions()
     {
-        return !predictions.isEmpty();
+        lock.readLock().lock();
+        try {
+            return size > 0;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
     }
 
+    /**
+     * @return a snapshot of all suggestions keyed by their extended ID.
+     * @deprecated The suggestions are no longer stored by their extended ID, so the map has to be
+     *             built on every call. Better use the indexed accessors such as
+     *             {@link #getPredictions(String, AnnotationLayer, int, int)} or
+     *             {@link #getPredictionsByRecommender(String, long)}.
+     */
+    @Deprecated
     public Map<ExtendedId, AnnotationSuggestion> getPredictions()
     {
-        return predictions;
+        Map<ExtendedId, AnnotationSuggestion> result = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            documents.forEach((documentName, doc) -> doc.byLayer.forEach((layerId, slots) -> {
+                for (int i = 0; i < slots.size(); i++) {
+                    AnnotationSuggestion prediction = view(slots.getInt(i));
+                    result.put(new ExtendedId(user.getUsername(), project.getId(), documentName,
+                            layerId, prediction.getOffset(), prediction.getRecommenderId(),
+                            prediction.getId(), -1), prediction);
+                }
+            }));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return result;
     }
     
     public void clearPredictions()
     {
-        predictions.clear();
+        lock.writeLock().lock();
+        try {
+            // The slots in the store are not reclaimed - the store goes away with this instance
+            documents.clear();
+            size = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public void removePredictions(Long recommenderId)
     {
-        predictions.entrySet()
-            .removeIf((p) -> p.getKey().getRecommenderId() == recommenderId);
+        lock.writeLock().lock();
+        try {
+            for (DocumentPredictions doc : documents.values()) {
+                Int2IntMap removed = doc.byRecommender.remove(recommenderId);
+                if (removed == null) {
+                    continue;
+                }
+                
+                size -= removed.size();
+                for (IntArrayList slots : doc.byLayer.values()) {
+                    int retained = 0;
+                    for (int i = 0; i < slots.size(); i++) {
+                        int slot = slots.getInt(i);
+                        if (store.getRecommenderId(slot) != recommenderId) {
+                            slots.set(retained++, slot);
+                        }
+                    }
+                    slots.size(retained);
+                }
+                doc.byLayer.values().removeIf(IntArrayList::isEmpty);
+            }
+            
+            documents.values().removeIf(doc -> doc.byRecommender.isEmpty());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -210,14 +493,151 @@ public class Predictions
     public List<AnnotationSuggestion> getPredictionsByTokenAndFeature(String aDocumentName,
         AnnotationLayer aLayer, int aBegin, int aEnd, String aFeature)
     {
-        return predictions.entrySet().stream()
-            .filter(f -> f.getKey().getDocumentName().equals(aDocumentName))
-            .filter(f -> f.getKey().getLayerId() == aLayer.getId())
-            .filter(f -> f.getKey().getOffset().getBeginCharacter() == aBegin)
-            .filter(f -> f.getKey().getOffset().getEndCharacter() == aEnd)
-            .filter(f -> f.getValue().getFeature().equals(aFeature))
-            .map(Map.Entry::getValue)
-            .collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            DocumentPredictions doc = documents.get(aDocumentName);
+            if (doc == null) {
+                return emptyList();
+            }
+
+            IntArrayList slots = doc.byLayer.get(aLayer.getId());
+            if (slots == null) {
+                return emptyList();
+            }
+
+            List<AnnotationSuggestion> result = new ArrayList<>();
+            for (int i = firstStartingAtOrAfter(slots, aBegin); i < slots.size(); i++) {
+                int slot = slots.getInt(i);
+                if (store.getBegin(slot) != aBegin) {
+                    break;
+                }
+                if (store.getEnd(slot) == aEnd && aFeature.equals(store.getFeature(slot))) {
+                    result.add(view(slot));
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private AnnotationSuggestion view(int aSlot)
+    {
+        return new StoredAnnotationSuggestion(store, lock.readLock(), aSlot);
+    }
+    
+    /**
+     * @return a copy of the suggestion in the given slot including its hiding flags which does not
+     *         refer to the store.
+     */
+    private AnnotationSuggestion detach(int aSlot)
+    {
+        AnnotationSuggestion suggestion = new AnnotationSuggestion(store.getId(aSlot),
+                store.getRecommenderId(aSlot), store.getRecommenderName(aSlot),
+                store.getLayerId(aSlot), store.getFeature(aSlot), store.getDocumentName(aSlot),
+                store.getBegin(aSlot), store.getEnd(aSlot), store.getCoveredText(aSlot),
+                store.getLabel(aSlot), store.getUiLabel(aSlot), store.getConfidence(aSlot),
+                store.getConfidenceExplanation(aSlot));
+        suggestion.setHidingFlags(store.getHidingFlags(aSlot));
+        return suggestion;
+    }
+    
+    private boolean labelEquals(int aSlot, String aLabel)
+    {
+        String label = store.getLabel(aSlot);
+        return (aLabel == null && label == null) || (label != null && label.equals(aLabel));
+    }
+    
+    /**
+     * @return the index of the first slot in the list (which is sorted by begin offset) starting
+     *         at or after the given offset.
+     */
+    private int firstStartingAtOrAfter(IntArrayList aSlots, int aBegin)
+    {
+        int low = 0;
+        int high = aSlots.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (store.getBegin(aSlots.getInt(mid)) < aBegin) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private void unindex(IntArrayList aSlots, int aSlot)
+    {
+        int begin = store.getBegin(aSlot);
+        for (int i = firstStartingAtOrAfter(aSlots, begin); i < aSlots.size(); i++) {
+            int slot = aSlots.getInt(i);
+            if (slot == aSlot) {
+                aSlots.removeInt(i);
+                return;
+            }
+            if (store.getBegin(slot) != begin) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Sorts the added slots by begin offset and merges them into the existing sorted slots. On
+     * equal offsets, existing slots come first and added slots retain their order.
+     */
+    private IntArrayList merge(IntArrayList aExisting, IntArrayList aAdded)
+    {
+        // Stable sort by packing the begin offset and the position into a single key
+        long[] keys = new long[aAdded.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) store.getBegin(aAdded.getInt(i)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        IntArrayList sorted = new IntArrayList(keys.length);
+        for (long key : keys) {
+            sorted.add(aAdded.getInt((int) key));
+        }
+        
+        if (aExisting == null || aExisting.isEmpty()) {
+            return sorted;
+        }
+        
+        IntArrayList merged = new IntArrayList(aExisting.size() + sorted.size());
+        int i = 0;
+        int j = 0;
+        while (i < aExisting.size() && j < sorted.size()) {
+            if (store.getBegin(sorted.getInt(j)) < store.getBegin(aExisting.getInt(i))) {
+                merged.add(sorted.getInt(j++));
+            }
+            else {
+                merged.add(aExisting.getInt(i++));
+            }
+        }
+        while (i < aExisting.size()) {
+            merged.add(aExisting.getInt(i++));
+        }
+        while (j < sorted.size()) {
+            merged.add(sorted.getInt(j++));
+        }
+        return merged;
+    }
+    
+    private static class DocumentPredictions
+        implements Serializable
+    {
+        private static final long serialVersionUID = 2523408476066530618L;
+
+        /**
+         * Layer ID -> slots of the suggestions sorted by begin offset.
+         */
+        private final Map<Long, IntArrayList> byLayer = new HashMap<>();
 
+        /**
+         * Recommender ID -> suggestion ID -> slot of the suggestion.
+         */
+        private final Map<Long, Int2IntMap> byRecommender = new HashMap<>();
     }
 }
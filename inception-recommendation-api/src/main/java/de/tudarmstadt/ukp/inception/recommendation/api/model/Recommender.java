@@ -86,6 +86,11 @@ public class Recommender
     
     private int maxRecommendations;
 
+    /**
+     * Predictions scoring below this value are not turned into suggestions.
+     */
+    private double minScore;
+
     /**
      * Only documents that have an annotation state not contained in this list are
      * used for training.
@@ -222,6 +227,16 @@ public class Recommender
         maxRecommendations = aMaxRecommendations;
     }
 
+    public double getMinScore()
+    {
+        return minScore;
+    }
+
+    public void setMinScore(double aMinScore)
+    {
+        minScore = aMinScore;
+    }
+
     public Set<AnnotationDocumentState> getStatesIgnoredForTraining()
     {
         return statesIgnoredForTraining;
@@ -277,6 +292,7 @@ public class Recommender
         sb.append(", skipEvaluation=").append(skipEvaluation);
         sb.append(", enabled=").append(enabled);
         sb.append(", maxRecommendations=").append(maxRecommendations);
+        sb.append(", minScore=").append(minScore);
         sb.append(", statesIgnoredForTraining=").append(statesIgnoredForTraining);
         sb.append(", traits='").append(traits).append('\'');
         sb.append('}');
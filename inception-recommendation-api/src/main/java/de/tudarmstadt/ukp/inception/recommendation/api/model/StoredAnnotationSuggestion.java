@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * View on a suggestion kept in the {@link SuggestionStore} of a {@link Predictions} instance.
+ * The view only refers to the slot of the suggestion, so creating it is cheap. The properties
+ * are read from the store under the read lock of the predictions whenever they are accessed.
+ * Changes to the hiding flags are written through to the store, so they are visible to all views
+ * on the same suggestion.
+ */
+class StoredAnnotationSuggestion
+    extends AnnotationSuggestion
+{
+    private static final long serialVersionUID = 8160452950843402811L;
+
+    private final SuggestionStore store;
+    private final Lock lock;
+    private final int slot;
+
+    StoredAnnotationSuggestion(SuggestionStore aStore, Lock aReadLock, int aSlot)
+    {
+        store = aStore;
+        lock = aReadLock;
+        slot = aSlot;
+    }
+
+    @Override
+    public int getId()
+    {
+        lock.lock();
+        try {
+            return store.getId(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRecommenderId()
+    {
+        lock.lock();
+        try {
+            return store.getRecommenderId(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getRecommenderName()
+    {
+        lock.lock();
+        try {
+            return store.getRecommenderName(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getLayerId()
+    {
+        lock.lock();
+        try {
+            return store.getLayerId(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getFeature()
+    {
+        lock.lock();
+        try {
+            return store.getFeature(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getDocumentName()
+    {
+        lock.lock();
+        try {
+            return store.getDocumentName(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getBegin()
+    {
+        lock.lock();
+        try {
+            return store.getBegin(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getEnd()
+    {
+        lock.lock();
+        try {
+            return store.getEnd(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getCoveredText()
+    {
+        lock.lock();
+        try {
+            return store.getCoveredText(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getLabel()
+    {
+        lock.lock();
+        try {
+            return store.getLabel(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getUiLabel()
+    {
+        lock.lock();
+        try {
+            return store.getUiLabel(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getConfidence()
+    {
+        lock.lock();
+        try {
+            return store.getConfidence(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<String> getConfidenceExplanation()
+    {
+        lock.lock();
+        try {
+            return Optional.ofNullable(store.getConfidenceExplanation(slot));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected int getHidingFlags()
+    {
+        lock.lock();
+        try {
+            return store.getHidingFlags(slot);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the hiding flags of the suggestion. Only the read lock is required since the slot of
+     * a suggestion never moves and concurrent updates of the flags were not synchronized before
+     * either.
+     */
+    @Override
+    protected void setHidingFlags(int aFlags)
+    {
+        lock.lock();
+        try {
+            store.setHidingFlags(slot, aFlags);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Serialize a detached copy instead of the view - otherwise, the entire predictions would be
+     * serialized along with the view, e.g. when it is part of a Wicket model.
+     */
+    private Object writeReplace()
+    {
+        AnnotationSuggestion copy = new AnnotationSuggestion(this);
+        copy.setHidingFlags(getHidingFlags());
+        return copy;
+    }
+}
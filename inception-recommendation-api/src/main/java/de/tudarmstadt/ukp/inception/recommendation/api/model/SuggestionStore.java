@@ -0,0 +1,303 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Column-oriented storage for {@link AnnotationSuggestion suggestions}. Strings are
+ * dictionary-encoded and the remaining properties are kept in primitive columns, so storing a
+ * suggestion does not require any per-suggestion objects. Each suggestion occupies a slot. Slots
+ * are never reused since views may still refer to them, i.e. replaced suggestions remain in the
+ * store until it is discarded. {@link Predictions#inheritSuggestions} only copies the current
+ * suggestions into a new store, which compacts the suggestions of the next prediction run.
+ * <p>
+ * The columns are allocated in fixed-size chunks which are never moved once allocated.
+ * <p>
+ * This class is not thread-safe. Access is guarded by the owning {@link Predictions}.
+ */
+class SuggestionStore
+    implements Serializable
+{
+    private static final long serialVersionUID = 4129815591542395104L;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int ID = 0;
+    private static final int BEGIN = 1;
+    private static final int END = 2;
+    private static final int ORIGIN = 3;
+    private static final int DOCUMENT = 4;
+    private static final int COVERED_TEXT = 5;
+    private static final int LABEL = 6;
+    private static final int UI_LABEL = 7;
+    private static final int EXPLANATION = 8;
+    private static final int FLAGS = 9;
+    private static final int INT_COLUMNS = 10;
+
+    private static final int NONE = -1;
+    private static final int STRING_OVERHEAD_BYTES = 80;
+
+    private final Dictionary<String> strings = new Dictionary<>();
+    private final Dictionary<Origin> origins = new Dictionary<>();
+
+    private int[][][] ints = new int[INT_COLUMNS][0][];
+    private double[][] confidences = new double[0][];
+    private int size = 0;
+
+    /**
+     * Adds the suggestion including its hiding flags to the store.
+     *
+     * @return the slot of the suggestion.
+     */
+    public int add(AnnotationSuggestion aSuggestion)
+    {
+        int slot = size;
+        if ((slot >>> CHUNK_BITS) == confidences.length) {
+            grow();
+        }
+
+        set(ID, slot, aSuggestion.getId());
+        set(BEGIN, slot, aSuggestion.getBegin());
+        set(END, slot, aSuggestion.getEnd());
+        set(ORIGIN, slot, origins.encode(new Origin(aSuggestion.getRecommenderId(),
+                aSuggestion.getRecommenderName(), aSuggestion.getLayerId(),
+                aSuggestion.getFeature())));
+        set(DOCUMENT, slot, strings.encode(aSuggestion.getDocumentName()));
+        set(COVERED_TEXT, slot, strings.encode(aSuggestion.getCoveredText()));
+        set(LABEL, slot, strings.encode(aSuggestion.getLabel()));
+        set(UI_LABEL, slot, strings.encode(aSuggestion.getUiLabel()));
+        set(EXPLANATION, slot,
+                strings.encode(aSuggestion.getConfidenceExplanation().orElse(null)));
+        set(FLAGS, slot, aSuggestion.getHidingFlags());
+        confidences[slot >>> CHUNK_BITS][slot & CHUNK_MASK] = aSuggestion.getConfidence();
+
+        size++;
+
+        return slot;
+    }
+
+    /**
+     * @return the number of slots in the store, including those of replaced suggestions.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return a rough estimate of the heap memory occupied by the store in bytes.
+     */
+    public long estimateMemoryUsage()
+    {
+        long bytes = (long) confidences.length * CHUNK_SIZE
+                * (INT_COLUMNS * Integer.BYTES + Double.BYTES);
+        for (String string : strings.values) {
+            // Object headers, the backing array and the dictionary entries
+            bytes += STRING_OVERHEAD_BYTES + 2l * string.length();
+        }
+        bytes += (long) origins.values.size() * STRING_OVERHEAD_BYTES;
+        return bytes;
+    }
+
+    public int getId(int aSlot)
+    {
+        return get(ID, aSlot);
+    }
+
+    public int getBegin(int aSlot)
+    {
+        return get(BEGIN, aSlot);
+    }
+
+    public int getEnd(int aSlot)
+    {
+        return get(END, aSlot);
+    }
+
+    public long getRecommenderId(int aSlot)
+    {
+        return origins.decode(get(ORIGIN, aSlot)).recommenderId;
+    }
+
+    public String getRecommenderName(int aSlot)
+    {
+        return origins.decode(get(ORIGIN, aSlot)).recommenderName;
+    }
+
+    public long getLayerId(int aSlot)
+    {
+        return origins.decode(get(ORIGIN, aSlot)).layerId;
+    }
+
+    public String getFeature(int aSlot)
+    {
+        return origins.decode(get(ORIGIN, aSlot)).feature;
+    }
+
+    public String getDocumentName(int aSlot)
+    {
+        return strings.decode(get(DOCUMENT, aSlot));
+    }
+
+    public String getCoveredText(int aSlot)
+    {
+        return strings.decode(get(COVERED_TEXT, aSlot));
+    }
+
+    public String getLabel(int aSlot)
+    {
+        return strings.decode(get(LABEL, aSlot));
+    }
+
+    public String getUiLabel(int aSlot)
+    {
+        return strings.decode(get(UI_LABEL, aSlot));
+    }
+
+    public String getConfidenceExplanation(int aSlot)
+    {
+        return strings.decode(get(EXPLANATION, aSlot));
+    }
+
+    public double getConfidence(int aSlot)
+    {
+        return confidences[aSlot >>> CHUNK_BITS][aSlot & CHUNK_MASK];
+    }
+
+    public int getHidingFlags(int aSlot)
+    {
+        return get(FLAGS, aSlot);
+    }
+
+    public void setHidingFlags(int aSlot, int aFlags)
+    {
+        set(FLAGS, aSlot, aFlags);
+    }
+
+    private int get(int aColumn, int aSlot)
+    {
+        return ints[aColumn][aSlot >>> CHUNK_BITS][aSlot & CHUNK_MASK];
+    }
+
+    private void set(int aColumn, int aSlot, int aValue)
+    {
+        ints[aColumn][aSlot >>> CHUNK_BITS][aSlot & CHUNK_MASK] = aValue;
+    }
+
+    private void grow()
+    {
+        int chunks = confidences.length + 1;
+        for (int column = 0; column < INT_COLUMNS; column++) {
+            ints[column] = Arrays.copyOf(ints[column], chunks);
+            ints[column][chunks - 1] = new int[CHUNK_SIZE];
+        }
+        confidences = Arrays.copyOf(confidences, chunks);
+        confidences[chunks - 1] = new double[CHUNK_SIZE];
+    }
+
+    /**
+     * Maps values to dense integer codes. {@code null} is encoded as {@link #NONE}.
+     */
+    private static class Dictionary<T>
+        implements Serializable
+    {
+        private static final long serialVersionUID = -3581215474651960329L;
+
+        private final Object2IntMap<T> codes = new Object2IntOpenHashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        public Dictionary()
+        {
+            codes.defaultReturnValue(NONE);
+        }
+
+        public int encode(T aValue)
+        {
+            if (aValue == null) {
+                return NONE;
+            }
+
+            int code = codes.getInt(aValue);
+            if (code == NONE) {
+                code = values.size();
+                values.add(aValue);
+                codes.put(aValue, code);
+            }
+            return code;
+        }
+
+        public T decode(int aCode)
+        {
+            return aCode == NONE ? null : values.get(aCode);
+        }
+    }
+
+    /**
+     * The properties which all suggestions of a recommender share.
+     */
+    private static class Origin
+        implements Serializable
+    {
+        private static final long serialVersionUID = 6216591938658167325L;
+
+        private final long recommenderId;
+        private final String recommenderName;
+        private final long layerId;
+        private final String feature;
+
+        public Origin(long aRecommenderId, String aRecommenderName, long aLayerId,
+                String aFeature)
+        {
+            recommenderId = aRecommenderId;
+            recommenderName = aRecommenderName;
+            layerId = aLayerId;
+            feature = aFeature;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Origin)) {
+                return false;
+            }
+            Origin that = (Origin) o;
+            return recommenderId == that.recommenderId && layerId == that.layerId
+                    && Objects.equals(recommenderName, that.recommenderName)
+                    && Objects.equals(feature, that.feature);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(recommenderId, recommenderName, layerId, feature);
+        }
+    }
+}
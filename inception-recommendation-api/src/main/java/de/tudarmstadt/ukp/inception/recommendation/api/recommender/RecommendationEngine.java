@@ -22,7 +22,12 @@ import static de.tudarmstadt.ukp.inception.recommendation.api.RecommendationServ
 import static de.tudarmstadt.ukp.inception.recommendation.api.RecommendationService.FEATURE_NAME_SCORE_SUFFIX;
 import static org.apache.uima.fit.util.CasUtil.getType;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -31,6 +36,7 @@ import org.apache.uima.cas.Type;
 import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.DataSplitter;
 import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.EvaluationResult;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
+import de.tudarmstadt.ukp.inception.scheduling.CancellationToken;
 
 public abstract class RecommendationEngine
 {
@@ -39,6 +45,8 @@ public abstract class RecommendationEngine
     protected final String featureName;
     protected final int maxRecommendations;
 
+    private CancellationToken cancellationToken = CancellationToken.NONE;
+
     public RecommendationEngine(Recommender aRecommender)
     {
         recommender = aRecommender;
@@ -86,6 +94,115 @@ public abstract class RecommendationEngine
         throws RecommendationException;
 // end::methodDefinition[]
 
+    /**
+     * Given training data in {@code aCasses}, train a model. The CASes may be loaded only when the
+     * iteration reaches them and may be released once the iteration has moved on. Every call to
+     * {@link Iterable#iterator()} starts a new pass over the training data. Engines which can
+     * consume the training data one document at a time should override this method and
+     * {@link #isMultiPassTraining()}. By default, all CASes are collected into a list and passed
+     * to {@link #train(RecommenderContext, List)}.
+     * This method must not mutate {@code aCasses} in any way.
+     *
+     * @param aContext The context of the recommender
+     * @param aCasses The training data
+     */
+    public void train(RecommenderContext aContext, Iterable<CAS> aCasses)
+        throws RecommendationException
+    {
+        List<CAS> casses = new ArrayList<>();
+        for (CAS cas : aCasses) {
+            checkCancelled();
+            casses.add(cas);
+        }
+        train(aContext, casses);
+    }
+
+    /**
+     * Whether the engine needs to iterate over the training data more than once. If so, the
+     * caller keeps all training CASes in memory during the training such that they do not have to
+     * be loaded again for every pass. Otherwise, the caller may pass the training data to
+     * {@link #train(RecommenderContext, Iterable)} such that the CASes are loaded on demand.
+     *
+     * @return whether the engine needs multiple passes over the training data. By default, this
+     *         is assumed.
+     */
+    public boolean isMultiPassTraining()
+    {
+        return true;
+    }
+
+    /**
+     * Engines which can update a previously trained model with the documents which have changed
+     * since then should return {@code true} here and implement {@link #trainIncrementally}. The
+     * cost of the training then depends on the size of the change instead of the size of the
+     * training data.
+     * 
+     * @return whether the engine supports incremental training. By default, it does not.
+     */
+    public boolean isIncrementalTrainingSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Updates the model in {@code aPreviousContext} with the documents which have changed since
+     * it has been trained and stores the result in {@code aContext}. If there is no previous
+     * model, {@code aPreviousContext} is empty and all training documents are reported as changed,
+     * so an engine can keep track of the contribution of each document from the start.
+     * <p>
+     * The previous context and the model held by it must not be modified since they may still be
+     * in use, e.g. for prediction or by other users.
+     * 
+     * @param aContext
+     *            the context to store the updated model in.
+     * @param aPreviousContext
+     *            the context holding the previous model.
+     * @param aChanges
+     *            the documents which have changed since the previous model has been trained.
+     * @return whether the model could be updated. If not, {@code aContext} must not have been
+     *         modified and the caller trains on all documents via {@link #train} instead.
+     */
+    public boolean trainIncrementally(RecommenderContext aContext,
+            RecommenderContext aPreviousContext, TrainingDataChanges aChanges)
+        throws RecommendationException
+    {
+        return false;
+    }
+
+    /**
+     * Engines which train on data other than the annotations in the training documents, e.g. on
+     * gazeteers, must write a description of that data to the given stream, e.g. its identifiers
+     * and contents. The description becomes part of the fingerprint of the training data. Without
+     * it, a model would not be trained again after that data has changed as long as the training
+     * documents remain the same.
+     * 
+     * @param aOutput
+     *            the stream to write the description to. The stream is closed by the caller.
+     */
+    public void digestAdditionalTrainingData(OutputStream aOutput)
+        throws IOException
+    {
+        // By default, engines train only on the training documents
+    }
+
+    /**
+     * Given texts in {@code aCasses}, predict target annotations and write them into the
+     * respective CAS. Engines which can process several documents at once more efficiently than
+     * one after the other, e.g. by batching the inference, should override this method. By
+     * default, the CASes are processed one after the other.
+     * 
+     * @param aContext The context of the recommender
+     * @param aCasses The CASes to predict on
+     */
+    public void predict(RecommenderContext aContext, List<CAS> aCasses)
+        throws RecommendationException
+    {
+        for (CAS cas : aCasses) {
+            checkCancelled();
+            predict(aContext, cas);
+        }
+    }
+
     /**
      * This method should be called before attempting to call {@link #predict} to ensure that the
      * given context contains sufficient information to perform prediction. If this method returns
@@ -121,6 +238,65 @@ public abstract class RecommendationEngine
         return new RecommenderContext();
     }
 
+    /**
+     * Engines which can write the model held by a context to a stream and restore it from there
+     * should return {@code true} here and implement {@link #writeModel} and {@link #readModel}.
+     * This allows trained models to be kept on disk and to be restored e.g. after a restart
+     * instead of training them again.
+     * 
+     * @return whether the engine supports persisting its models. By default, it does not.
+     */
+    public boolean isModelPersistable()
+    {
+        return false;
+    }
+
+    /**
+     * Writes the model held by the given context to the given stream. The stream is closed by the
+     * caller.
+     */
+    public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Engine does not support persisting models");
+    }
+
+    /**
+     * Restores a model written by {@link #writeModel} into the given context. The stream is closed
+     * by the caller.
+     */
+    public void readModel(RecommenderContext aContext, InputStream aInput)
+        throws IOException
+    {
+        throw new UnsupportedOperationException("Engine does not support persisting models");
+    }
+
+    /**
+     * Sets the token via which the task using this engine requests the engine to stop
+     * training, prediction or evaluation.
+     */
+    public void setCancellationToken(CancellationToken aCancellationToken)
+    {
+        cancellationToken = aCancellationToken;
+    }
+
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Long-running engines should call this method regularly during {@link #train},
+     * {@link #predict} and {@link #evaluate}, e.g. once per epoch or batch.
+     * 
+     * @throws CancellationException
+     *             if the task using this engine has been cancelled.
+     */
+    protected void checkCancelled()
+    {
+        cancellationToken.throwIfCancelled();
+    }
+
     protected Type getPredictedType(CAS aCas)
     {
         return getType(aCas, layerName);
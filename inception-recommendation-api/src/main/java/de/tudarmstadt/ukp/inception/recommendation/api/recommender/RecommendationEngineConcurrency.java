@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.recommender;
+
+/**
+ * Describes how the {@link RecommendationEngine engines} built by a
+ * {@link RecommendationEngineFactory} may be used concurrently, e.g. when predictions are computed
+ * or recommenders are trained or evaluated by several threads.
+ */
+public enum RecommendationEngineConcurrency
+{
+    /**
+     * A single {@link RecommendationEngine} instance may be used by several threads at the same
+     * time. This is the case if the engine does not keep any mutable state and only reads the
+     * model held by the {@link RecommenderContext} during {@link RecommendationEngine#predict}.
+     */
+    THREAD_SAFE,
+
+    /**
+     * A {@link RecommendationEngine} instance must only be used by a single thread, but separate
+     * instances may be used by different threads at the same time. Each thread builds its own
+     * instance.
+     * <p>
+     * Separate instances may still use the same model since a {@link RecommenderContext} may be
+     * shared between users. If the model is not thread-safe, the engine must guard its use of the
+     * model itself, e.g. by synchronizing on the model.
+     */
+    PER_THREAD,
+
+    /**
+     * Only one thread at a time may use any {@link RecommendationEngine} built by the factory, e.g.
+     * because the engines share a resource which cannot be used concurrently. Calls to
+     * {@link RecommendationEngine#predict}, {@link RecommendationEngine#evaluate} and
+     * {@link RecommendationEngine#train} are serialized across all engines of the factory, i.e.
+     * also across users.
+     */
+    SERIAL
+}
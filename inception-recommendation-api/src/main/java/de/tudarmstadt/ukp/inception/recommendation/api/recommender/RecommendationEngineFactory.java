@@ -46,6 +46,15 @@ public interface RecommendationEngineFactory<T>
         return true;
     }
 
+    /**
+     * @return how the engines built by this factory may be used concurrently. By default, each
+     *         thread uses its own engine instance.
+     */
+    default RecommendationEngineConcurrency getConcurrency()
+    {
+        return RecommendationEngineConcurrency.PER_THREAD;
+    }
+
     RecommendationEngine build(Recommender aRecommender);
 
     boolean accepts(AnnotationLayer aLayer, AnnotationFeature aFeature);
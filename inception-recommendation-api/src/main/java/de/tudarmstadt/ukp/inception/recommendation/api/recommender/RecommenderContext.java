@@ -44,6 +44,8 @@ public class RecommenderContext
     private final Map<String, Object> store;
     private List<LogMessage> messages;
     private Optional<User> user;
+    private String trainingDataFingerprint;
+    private Map<String, String> trainingDocumentDigests;
     private boolean closed = false;
 
     public RecommenderContext()
@@ -129,6 +131,45 @@ public class RecommenderContext
         }
     }
     
+    /**
+     * @return the fingerprint of the training data from which the model in this context has been
+     *         created, if known.
+     */
+    synchronized public Optional<String> getTrainingDataFingerprint()
+    {
+        return Optional.ofNullable(trainingDataFingerprint);
+    }
+
+    synchronized public void setTrainingDataFingerprint(String aFingerprint)
+    {
+        if (closed) {
+            throw new IllegalStateException("Adding data to a closed context is not permitted.");
+        }
+        
+        trainingDataFingerprint = aFingerprint;
+    }
+    
+    /**
+     * @return the digests of the individual documents from which the model in this context has
+     *         been created by document name, if known. These allow determining which documents
+     *         have changed since the model has been trained.
+     */
+    synchronized public Optional<Map<String, String>> getTrainingDocumentDigests()
+    {
+        return Optional.ofNullable(trainingDocumentDigests);
+    }
+
+    synchronized public void setTrainingDocumentDigests(Map<String, String> aDigests)
+    {
+        if (closed) {
+            throw new IllegalStateException("Adding data to a closed context is not permitted.");
+        }
+        
+        trainingDocumentDigests = aDigests != null
+                ? Collections.unmodifiableMap(new HashMap<>(aDigests))
+                : null;
+    }
+    
     public Optional<User> getUser() {
         return user;
     }
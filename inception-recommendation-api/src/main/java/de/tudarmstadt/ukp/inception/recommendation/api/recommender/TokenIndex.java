@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.recommender;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static org.apache.uima.fit.util.CasUtil.select;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * The boundaries of the tokens of a document held in arrays such that the tokens covered by an
+ * offset range can be found by a binary search instead of scanning the annotation index. The
+ * index is built once per CAS and does not reflect later changes to the CAS.
+ * <p>
+ * The annotations must not overlap each other, which is the case for tokens and sentences. The
+ * index can e.g. also be built over sentences to find the sentences covered by a range.
+ */
+public class TokenIndex
+{
+    private final List<AnnotationFS> tokens;
+    private final int[] begins;
+    private final int[] ends;
+
+    /**
+     * @param aTokens
+     *            the tokens ordered by their offsets.
+     */
+    public TokenIndex(List<AnnotationFS> aTokens)
+    {
+        tokens = unmodifiableList(new ArrayList<>(aTokens));
+        begins = new int[tokens.size()];
+        ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            begins[i] = tokens.get(i).getBegin();
+            ends[i] = tokens.get(i).getEnd();
+        }
+    }
+
+    /**
+     * Builds the index over all annotations of the given type in the given CAS.
+     */
+    public static TokenIndex of(CAS aCas, Type aTokenType)
+    {
+        return new TokenIndex(select(aCas, aTokenType));
+    }
+
+    public int size()
+    {
+        return tokens.size();
+    }
+
+    public AnnotationFS get(int aIndex)
+    {
+        return tokens.get(aIndex);
+    }
+
+    /**
+     * @return the position of the first token which lies within the given range or {@code -1}
+     *         if there is none.
+     */
+    public int firstCovered(int aBegin, int aEnd)
+    {
+        // First token starting at or after the begin of the range
+        int i = lowerBound(begins, aBegin);
+        return i < ends.length && ends[i] <= aEnd ? i : -1;
+    }
+
+    /**
+     * @return the position of the last token which lies within the given range or {@code -1} if
+     *         there is none.
+     */
+    public int lastCovered(int aBegin, int aEnd)
+    {
+        // Last token ending at or before the end of the range
+        int i = lowerBound(ends, aEnd + 1) - 1;
+        return i >= 0 && begins[i] >= aBegin ? i : -1;
+    }
+
+    /**
+     * Equivalent to {@link org.apache.uima.fit.util.CasUtil#selectCovered} on the token type.
+     *
+     * @return the tokens which lie within the given range.
+     */
+    public List<AnnotationFS> selectCovered(int aBegin, int aEnd)
+    {
+        int first = firstCovered(aBegin, aEnd);
+        int last = lastCovered(aBegin, aEnd);
+        if (first == -1 || last < first) {
+            return emptyList();
+        }
+
+        return tokens.subList(first, last + 1);
+    }
+
+    /**
+     * @return the tokens which lie within the given annotation.
+     */
+    public List<AnnotationFS> selectCovered(AnnotationFS aCover)
+    {
+        return selectCovered(aCover.getBegin(), aCover.getEnd());
+    }
+
+    /**
+     * @return the position of the first value not less than the given key.
+     */
+    private static int lowerBound(int[] aValues, int aKey)
+    {
+        int low = 0;
+        int high = aValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aValues[mid] < aKey) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
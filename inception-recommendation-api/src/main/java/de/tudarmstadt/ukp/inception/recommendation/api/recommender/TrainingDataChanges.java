@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.recommender;
+
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.uima.cas.CAS;
+
+/**
+ * The training documents which have changed since a model has been trained, identified by their
+ * names. A document counts as changed if it has been added to the training data or if its
+ * annotations relevant to the recommender have been modified. A document counts as removed if it
+ * no longer contributes any training data. The CASes of the changed documents are only loaded
+ * when they are requested.
+ *
+ * @see RecommendationEngine#trainIncrementally
+ */
+public class TrainingDataChanges
+{
+    private final Map<String, Supplier<CAS>> changedDocuments;
+    private final Set<String> removedDocuments;
+
+    /**
+     * @param aChangedDocuments
+     *            suppliers loading the CASes of the changed documents by document name.
+     * @param aRemovedDocuments
+     *            the names of the removed documents.
+     */
+    public TrainingDataChanges(Map<String, Supplier<CAS>> aChangedDocuments,
+            Set<String> aRemovedDocuments)
+    {
+        changedDocuments = new LinkedHashMap<>(aChangedDocuments);
+        removedDocuments = unmodifiableSet(new LinkedHashSet<>(aRemovedDocuments));
+    }
+
+    /**
+     * @return the names of the documents which have been added or modified.
+     */
+    public Set<String> getChangedDocuments()
+    {
+        return unmodifiableSet(changedDocuments.keySet());
+    }
+
+    /**
+     * @return the names of the documents which no longer contribute training data.
+     */
+    public Set<String> getRemovedDocuments()
+    {
+        return removedDocuments;
+    }
+
+    /**
+     * Loads the CAS of a changed document. The CAS <b>must not be modified</b>.
+     */
+    public CAS getCas(String aDocumentName)
+    {
+        Supplier<CAS> supplier = changedDocuments.get(aDocumentName);
+        if (supplier == null) {
+            throw new IllegalArgumentException(
+                    "Document [" + aDocumentName + "] has not changed");
+        }
+        return supplier.get();
+    }
+
+    public boolean isEmpty()
+    {
+        return changedDocuments.isEmpty() && removedDocuments.isEmpty();
+    }
+}
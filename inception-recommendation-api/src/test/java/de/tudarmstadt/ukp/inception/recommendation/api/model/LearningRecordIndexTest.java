@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType.ACCEPTED;
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType.REJECTED;
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType.SHOWN;
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType.SKIPPED;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class LearningRecordIndexTest
+{
+    @Test
+    public void thatRecordsAreFoundByPositionAndLabel()
+    {
+        LearningRecord r1 = record("doc1", 0, 5, "PER", REJECTED);
+        LearningRecord r2 = record("doc2", 0, 5, "PER", SKIPPED);
+        LearningRecord r3 = record("doc1", 0, 5, "LOC", ACCEPTED);
+        LearningRecord r4 = record("doc1", 0, 5, "PER", SHOWN);
+
+        LearningRecordIndex sut = new LearningRecordIndex(asList(r1, r2, r3, r4));
+
+        assertThat(sut.size()).isEqualTo(3);
+        assertThat(sut.get("doc1", 0, 5, "PER")).containsExactly(r1);
+        assertThat(sut.get("doc2", 0, 5, "PER")).containsExactly(r2);
+        assertThat(sut.get("doc1", 0, 5, "LOC")).containsExactly(r3);
+        assertThat(sut.get("doc1", 0, 6, "PER")).isEmpty();
+    }
+
+    @Test
+    public void thatAddedRecordsComeFirst()
+    {
+        LearningRecord r1 = record("doc1", 0, 5, "PER", SKIPPED);
+        LearningRecord r2 = record("doc1", 0, 5, "PER", REJECTED);
+
+        LearningRecordIndex sut = new LearningRecordIndex(asList(r1));
+        sut.add(r2);
+
+        assertThat(sut.get("doc1", 0, 5, "PER")).containsExactly(r2, r1);
+    }
+
+    @Test
+    public void thatRecordsCanBeRemoved()
+    {
+        LearningRecord r1 = record("doc1", 0, 5, "PER", SKIPPED);
+        LearningRecord r2 = record("doc1", 6, 9, null, REJECTED);
+
+        LearningRecordIndex sut = new LearningRecordIndex(asList(r1, r2));
+        sut.removeIf(r -> r.getUserAction() == SKIPPED);
+
+        assertThat(sut.size()).isEqualTo(1);
+        assertThat(sut.get("doc1", 0, 5, "PER")).isEmpty();
+        assertThat(sut.get("doc1", 6, 9, null)).containsExactly(r2);
+    }
+
+    private LearningRecord record(String aDocumentName, int aBegin, int aEnd, String aLabel,
+            LearningRecordType aAction)
+    {
+        SourceDocument document = new SourceDocument();
+        document.setName(aDocumentName);
+
+        LearningRecord record = new LearningRecord();
+        record.setSourceDocument(document);
+        record.setOffsetCharacterBegin(aBegin);
+        record.setOffsetCharacterEnd(aEnd);
+        record.setAnnotation(aLabel);
+        record.setUserAction(aAction);
+        return record;
+    }
+}
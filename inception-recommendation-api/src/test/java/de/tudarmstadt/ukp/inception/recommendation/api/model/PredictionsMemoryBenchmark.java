@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+/**
+ * Compares storing suggestions as individual objects keyed by {@link ExtendedId} (the former
+ * layout of {@link Predictions}) to the compact {@link SuggestionStore} now used by
+ * {@link Predictions}, and measures reading suggestions back from the store.
+ * <p>
+ * The suggestions are generated like the prediction task would: the covered text and the label
+ * are fresh strings for every suggestion while document, recommender and feature names are shared.
+ * The {@link GCProfiler} reports the bytes allocated per operation as {@code gc.alloc.rate.norm}.
+ * For the {@code store} benchmarks, this includes generating the suggestions, which costs the same
+ * in both cases. For the {@code read} benchmark, it is the cost of the views which
+ * {@link Predictions} creates on every access - one {@link StoredAnnotationSuggestion} per
+ * returned suggestion which only refers to its slot in the store.
+ * <p>
+ * Run via the {@link #main} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PredictionsMemoryBenchmark
+{
+    private static final int DOCUMENTS = 100;
+    private static final int RECOMMENDERS = 4;
+    private static final int SUGGESTIONS_PER_DOCUMENT_AND_RECOMMENDER = 2_500;
+    private static final String[] LABELS = { "PER", "LOC", "ORG", "OTH" };
+
+    private static final long LAYER_ID = 1l;
+
+    private Project project;
+    private User user;
+    private Predictions predictions;
+
+    @Setup
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1l);
+        user = new User("user");
+
+        predictions = storeCompact();
+    }
+
+    @Benchmark
+    public Map<ExtendedId, AnnotationSuggestion> storeObjectMap()
+    {
+        Map<ExtendedId, AnnotationSuggestion> map = new ConcurrentHashMap<>();
+        for (int batch = 0; batch < DOCUMENTS * RECOMMENDERS; batch++) {
+            for (AnnotationSuggestion s : generate(batch)) {
+                map.put(new ExtendedId(user.getUsername(), project.getId(), s.getDocumentName(),
+                        LAYER_ID, s.getOffset(), s.getRecommenderId(), s.getId(), -1), s);
+            }
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Predictions storeCompact()
+    {
+        Predictions result = new Predictions(user, project);
+        for (int batch = 0; batch < DOCUMENTS * RECOMMENDERS; batch++) {
+            result.putPredictions(LAYER_ID, generate(batch));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<AnnotationSuggestion> read()
+    {
+        return predictions.getPredictionsByRecommender("document-0.txt", 0l);
+    }
+
+    /**
+     * Generates the suggestions of one document and recommender, like the prediction task hands
+     * them to {@link Predictions#putPredictions}.
+     */
+    private static List<AnnotationSuggestion> generate(int aBatch)
+    {
+        String documentName = "document-" + (aBatch / RECOMMENDERS) + ".txt";
+        long recommenderId = aBatch % RECOMMENDERS;
+        String recommenderName = "recommender-" + recommenderId;
+
+        List<AnnotationSuggestion> suggestions = new ArrayList<>();
+        for (int i = 0; i < SUGGESTIONS_PER_DOCUMENT_AND_RECOMMENDER; i++) {
+            int begin = i * 10;
+            String label = new String(LABELS[i % LABELS.length]);
+            suggestions.add(new AnnotationSuggestion(i, recommenderId, recommenderName,
+                    LAYER_ID, "value", documentName, begin, begin + 8, new String("token" + i),
+                    label, label, 0.5 + (i % 50) / 100.0, null));
+        }
+        return suggestions;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(PredictionsMemoryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.model;
+
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion.FLAG_OVERLAP;
+import static de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion.FLAG_REJECTED;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+public class PredictionsTest
+{
+    private Project project;
+    private AnnotationLayer layer;
+    private SourceDocument document;
+    private Predictions sut;
+
+    @Before
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1l);
+
+        layer = new AnnotationLayer();
+        layer.setId(1l);
+
+        document = new SourceDocument();
+        document.setName("doc1");
+
+        sut = new Predictions(new User("user"), project);
+    }
+
+    @Test
+    public void thatWindowQueryReturnsContainedSuggestionsSortedByBegin()
+    {
+        AnnotationSuggestion s1 = suggestion(1, 1, "doc1", 10, 15, "A");
+        AnnotationSuggestion s2 = suggestion(2, 1, "doc1", 0, 5, "B");
+        AnnotationSuggestion s3 = suggestion(3, 1, "doc1", 18, 25, "C");
+        AnnotationSuggestion s4 = suggestion(1, 1, "doc2", 10, 15, "D");
+        sut.putPredictions(layer.getId(), asList(s1, s2, s3, s4));
+
+        assertThat(flatten(sut.getPredictions("doc1", layer, 0, 20)))
+                .containsExactly(s2, s1);
+        assertThat(flatten(sut.getPredictions("doc1", layer, -1, -1)))
+                .containsExactly(s2, s1, s3);
+        assertThat(flatten(sut.getPredictions("doc1", layer, 6, -1)))
+                .containsExactly(s1, s3);
+        assertThat(flatten(sut.getPredictions("doc3", layer, -1, -1)))
+                .isEmpty();
+    }
+
+    @Test
+    public void thatLookupByVidWorks()
+    {
+        AnnotationSuggestion s1 = suggestion(1, 1, "doc1", 10, 15, "A");
+        AnnotationSuggestion s2 = suggestion(1, 2, "doc1", 10, 15, "B");
+        AnnotationSuggestion s3 = suggestion(1, 1, "doc2", 10, 15, "C");
+        sut.putPredictions(layer.getId(), asList(s1, s2, s3));
+
+        assertThat(sut.getPredictionByVID(document, s1.getVID())).contains(s1);
+        assertThat(sut.getPredictionByVID(document, s2.getVID())).contains(s2);
+        AnnotationSuggestion unknown = suggestion(2, 2, "doc1", 0, 1, "X");
+        assertThat(sut.getPredictionByVID(document, unknown.getVID())).isEmpty();
+    }
+
+    @Test
+    public void thatReplacedSuggestionIsRemovedFromWindowIndex()
+    {
+        AnnotationSuggestion s1 = suggestion(1, 1, "doc1", 10, 15, "A");
+        AnnotationSuggestion s1b = suggestion(1, 1, "doc1", 10, 15, "B");
+        sut.putPredictions(layer.getId(), asList(s1));
+        sut.putPredictions(layer.getId(), asList(s1b));
+
+        assertThat(flatten(sut.getPredictions("doc1", layer, -1, -1)))
+                .extracting(AnnotationSuggestion::getLabel)
+                .containsExactly("B");
+        assertThat(sut.getPrediction(document, 10, 15, "B")).contains(s1b);
+        assertThat(sut.getPrediction(document, 10, 15, "A")).isEmpty();
+    }
+
+    @Test
+    public void thatRemovingRecommenderRemovesItsSuggestions()
+    {
+        AnnotationSuggestion s1 = suggestion(1, 1, "doc1", 10, 15, "A");
+        AnnotationSuggestion s2 = suggestion(1, 2, "doc1", 10, 15, "B");
+        sut.putPredictions(layer.getId(), asList(s1, s2));
+
+        sut.removePredictions(1l);
+
+        assertThat(flatten(sut.getPredictions("doc1", layer, -1, -1))).containsExactly(s2);
+        assertThat(sut.getPredictionsByRecommender("doc1", 1l)).isEmpty();
+        assertThat(sut.getPredictionsByTokenAndFeature("doc1", layer, 10, 15, "value"))
+                .containsExactly(s2);
+
+        sut.removePredictions(2l);
+
+        assertThat(sut.hasPredictions()).isFalse();
+    }
+
+    @Test
+    public void thatHidingFlagsAreStoredAndInherited()
+    {
+        AnnotationSuggestion s1 = suggestion(1, 1, "doc1", 10, 15, "A");
+        AnnotationSuggestion s2 = suggestion(2, 1, "doc1", 20, 25, "B");
+        s1.hide(FLAG_REJECTED);
+        sut.putPredictions(layer.getId(), asList(s1, s2));
+
+        assertThat(sut.getPredictionByVID(document, s1.getVID()).get().isVisible()).isFalse();
+
+        // Changing the flags through one view must be visible through the other views
+        sut.getPredictionByVID(document, s2.getVID()).get().hide(FLAG_OVERLAP);
+        assertThat(sut.getPredictionByVID(document, s2.getVID()).get().getReasonForHiding())
+                .isEqualTo("overlapping ");
+
+        Predictions inherited = new Predictions(new User("user"), project);
+        inherited.inheritSuggestions(sut, s -> s.getId() == 1);
+
+        assertThat(flatten(inherited.getPredictions("doc1", layer, -1, -1)))
+                .containsExactly(s1)
+                .allMatch(s -> !s.isVisible());
+    }
+
+    private List<AnnotationSuggestion> flatten(SuggestionDocumentGroup aGroups)
+    {
+        return aGroups.stream().flatMap(SuggestionGroup::stream).collect(toList());
+    }
+
+    private AnnotationSuggestion suggestion(int aId, long aRecommenderId, String aDocumentName,
+            int aBegin, int aEnd, String aLabel)
+    {
+        return new AnnotationSuggestion(aId, aRecommenderId, "rec" + aRecommenderId,
+                layer.getId(), "value", aDocumentName, aBegin, aEnd, "x", aLabel, aLabel, 0.5,
+                null);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.api.recommender;
+
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenIndexTest
+{
+    private CAS cas;
+    private Type tokenType;
+    private TokenIndex sut;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        tsd.addType("Token", "", CAS.TYPE_NAME_ANNOTATION);
+        cas = CasCreationUtils.createCas(tsd, null, null);
+        cas.setDocumentText("John Smith lives in Berlin .");
+        tokenType = cas.getTypeSystem().getType("Token");
+        for (int[] offsets : new int[][] { { 0, 4 }, { 5, 10 }, { 11, 16 }, { 17, 19 },
+                { 20, 26 }, { 27, 28 } }) {
+            cas.addFsToIndexes(cas.createAnnotation(tokenType, offsets[0], offsets[1]));
+        }
+
+        sut = TokenIndex.of(cas, tokenType);
+    }
+
+    @Test
+    public void thatCoveredTokensAreFound()
+    {
+        assertThat(sut.size()).isEqualTo(6);
+        assertThat(sut.firstCovered(0, 10)).isEqualTo(0);
+        assertThat(sut.lastCovered(0, 10)).isEqualTo(1);
+        assertThat(sut.firstCovered(17, 28)).isEqualTo(3);
+        assertThat(sut.lastCovered(17, 28)).isEqualTo(5);
+    }
+
+    @Test
+    public void thatPartiallyCoveredTokensAreIgnored()
+    {
+        // "ohn Smith liv"
+        assertThat(sut.firstCovered(1, 14)).isEqualTo(1);
+        assertThat(sut.lastCovered(1, 14)).isEqualTo(1);
+
+        // "ohn Sm"
+        assertThat(sut.firstCovered(1, 7)).isEqualTo(-1);
+        assertThat(sut.selectCovered(1, 7)).isEmpty();
+
+        // Beyond the last token
+        assertThat(sut.firstCovered(29, 30)).isEqualTo(-1);
+        assertThat(sut.lastCovered(-2, -1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void thatSelectCoveredMatchesCasUtil()
+    {
+        for (int begin = 0; begin <= 28; begin++) {
+            for (int end = begin; end <= 28; end++) {
+                assertThat(sut.selectCovered(begin, end))
+                        .as("[%d-%d]", begin, end)
+                        .containsExactlyElementsOf(
+                                selectCovered(cas, tokenType, begin, end));
+            }
+        }
+    }
+}
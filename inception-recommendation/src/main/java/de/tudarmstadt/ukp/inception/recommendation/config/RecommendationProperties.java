@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("inception.recommendation")
+public class RecommendationProperties
+{
+    /**
+     * Number of documents which a recommender predicts on at once. Engines which support it can
+     * batch their inference across these documents. Each prediction worker keeps one CAS per
+     * document of a batch, so memory usage grows with the batch size.
+     */
+    private int predictionBatchSize = 4;
+
+    /**
+     * Maximum number of annotation CASes kept in the snapshot cache shared by the selection,
+     * training and prediction tasks. The cached CASes are softly referenced and may be discarded
+     * earlier if memory runs low. A value of {@code 0} disables the cache.
+     */
+    private int casSnapshotCacheSize = 500;
+
+    /**
+     * Whether trained models are stored in the repository such that they can be restored after
+     * a restart instead of being trained again. Only applies to recommenders which support it.
+     */
+    private boolean persistModels = false;
+
+    /**
+     * Whether learning records are written to the database in batches by a background thread
+     * instead of as part of the request in which they are logged. The records are visible to
+     * the recommenders right away in either case.
+     */
+    private boolean learningRecordWriteBehind = false;
+
+    /**
+     * Maximum number of learning records waiting to be written in write-behind mode. If the queue
+     * is full, logging a record waits until there is space again.
+     */
+    private int learningRecordQueueSize = 1000;
+
+    /**
+     * Number of minutes after which the predictions and trained models of a user who has not
+     * accessed the recommendations of a project are moved from memory to disk. They are loaded
+     * again on the next access. Only applies to models of recommenders which support persisting
+     * them. A value of {@code 0} keeps everything in memory.
+     */
+    private int stateEvictionIdleMinutes = 0;
+
+    public int getPredictionBatchSize()
+    {
+        return predictionBatchSize;
+    }
+
+    public void setPredictionBatchSize(int aPredictionBatchSize)
+    {
+        predictionBatchSize = aPredictionBatchSize;
+    }
+
+    public int getCasSnapshotCacheSize()
+    {
+        return casSnapshotCacheSize;
+    }
+
+    public void setCasSnapshotCacheSize(int aCasSnapshotCacheSize)
+    {
+        casSnapshotCacheSize = aCasSnapshotCacheSize;
+    }
+
+    public boolean isPersistModels()
+    {
+        return persistModels;
+    }
+
+    public void setPersistModels(boolean aPersistModels)
+    {
+        persistModels = aPersistModels;
+    }
+
+    public boolean isLearningRecordWriteBehind()
+    {
+        return learningRecordWriteBehind;
+    }
+
+    public void setLearningRecordWriteBehind(boolean aLearningRecordWriteBehind)
+    {
+        learningRecordWriteBehind = aLearningRecordWriteBehind;
+    }
+
+    public int getLearningRecordQueueSize()
+    {
+        return learningRecordQueueSize;
+    }
+
+    public void setLearningRecordQueueSize(int aLearningRecordQueueSize)
+    {
+        learningRecordQueueSize = aLearningRecordQueueSize;
+    }
+
+    public int getStateEvictionIdleMinutes()
+    {
+        return stateEvictionIdleMinutes;
+    }
+
+    public void setStateEvictionIdleMinutes(int aStateEvictionIdleMinutes)
+    {
+        stateEvictionIdleMinutes = aStateEvictionIdleMinutes;
+    }
+}
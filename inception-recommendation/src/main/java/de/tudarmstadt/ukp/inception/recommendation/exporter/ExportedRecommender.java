@@ -56,6 +56,9 @@ public class ExportedRecommender
     @JsonProperty("maxRecommendations")
     private int maxRecommendations;
 
+    @JsonProperty("minScore")
+    private double minScore;
+
     @JsonProperty("statesIgnoredForTraining")
     private Set<AnnotationDocumentState> statesIgnoredForTraining;
 
@@ -152,6 +155,16 @@ public class ExportedRecommender
         maxRecommendations = aMaxRecommendations;
     }
 
+    public double getMinScore()
+    {
+        return minScore;
+    }
+
+    public void setMinScore(double aMinScore)
+    {
+        minScore = aMinScore;
+    }
+
     public Set<AnnotationDocumentState> getStatesIgnoredForTraining()
     {
         return statesIgnoredForTraining;
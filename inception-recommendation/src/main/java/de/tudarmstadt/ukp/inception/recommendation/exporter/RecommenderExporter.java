@@ -89,6 +89,7 @@ public class RecommenderExporter implements ProjectExporter {
             exportedRecommender.setTool(recommender.getTool());
             exportedRecommender.setSkipEvaluation(recommender.isSkipEvaluation());
             exportedRecommender.setMaxRecommendations(recommender.getMaxRecommendations());
+            exportedRecommender.setMinScore(recommender.getMinScore());
             exportedRecommender.setStatesIgnoredForTraining(
                     recommender.getStatesIgnoredForTraining());
             exportedRecommender.setTraits(recommender.getTraits());
@@ -115,6 +116,7 @@ public class RecommenderExporter implements ProjectExporter {
             recommender.setTool(exportedRecommender.getTool());
             recommender.setSkipEvaluation(exportedRecommender.isSkipEvaluation());
             recommender.setMaxRecommendations(exportedRecommender.getMaxRecommendations());
+            recommender.setMinScore(exportedRecommender.getMinScore());
             recommender.setStatesIgnoredForTraining(
                     exportedRecommender.getStatesIgnoredForTraining());
             recommender.setTraits(exportedRecommender.getTraits());
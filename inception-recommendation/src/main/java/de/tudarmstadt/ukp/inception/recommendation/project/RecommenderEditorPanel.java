@@ -89,6 +89,7 @@ public class RecommenderEditorPanel
     private static final String MID_SAVE = "save";
     private static final String MID_MAX_RECOMMENDATIONS = "maxRecommendations";
     private static final String MID_THRESHOLD = "threshold";
+    private static final String MID_MIN_SCORE = "minScore";
     private static final String MID_TRAITS_CONTAINER = "traitsContainer";
     private static final String MID_TRAITS = "traits";
     private static final String MID_FORM = "form";
@@ -261,6 +262,10 @@ public class RecommenderEditorPanel
                                         .isMultipleRecommendationProvider())
                                 .orElse(false).getObject())));
 
+        form.add(new NumberTextField<>(MID_MIN_SCORE, Double.class)
+                .setMinimum(0.0d)
+                .setStep(0.01d));
+
         // Cannot use LambdaAjaxButton because it does not support onAfterSubmit.
         form.add(new AjaxButton(MID_SAVE)
         {
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
+
+/**
+ * Keeps read-only snapshots of annotation CASes such that the selection, training and prediction
+ * tasks triggered by the same user action do not each load every CAS of the project again. The
+ * snapshots are keyed by document, user and the timestamp of the CAS on disk, so a snapshot is
+ * never used once the CAS has been written. Snapshots are upgraded to the current type system of
+ * the project when they are loaded.
+ * <p>
+ * The CASes returned by this cache are shared and <b>must not be modified</b>.
+ * <p>
+ * At most {@link RecommendationProperties#getCasSnapshotCacheSize()} snapshots are kept, the
+ * least recently used ones are evicted first. Since the snapshots are softly referenced, they may
+ * additionally be discarded by the garbage collector when memory runs low. If several threads
+ * request the same snapshot while it is being loaded, they wait for that load instead of loading
+ * the CAS again.
+ */
+@Component
+public class CasSnapshotCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final AnnotationSchemaService annoService;
+    private final int maxSize;
+
+    private final Map<SnapshotKey, SoftReference<CAS>> snapshots;
+    private final ConcurrentMap<SnapshotKey, CompletableFuture<CAS>> pendingLoads =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    @Autowired
+    public CasSnapshotCache(DocumentService aDocumentService, AnnotationSchemaService aAnnoService,
+            RecommendationProperties aProperties)
+    {
+        documentService = aDocumentService;
+        annoService = aAnnoService;
+        maxSize = aProperties.getCasSnapshotCacheSize();
+        snapshots = new LinkedHashMap<SnapshotKey, SoftReference<CAS>>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = -6212432432616339787L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SnapshotKey, SoftReference<CAS>> aEldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a snapshot of the annotation CAS of the given user for the given document. If there
+     * is no up-to-date snapshot, the CAS is loaded via the {@link DocumentService}.
+     *
+     * @return a CAS which <b>must not be modified</b>.
+     */
+    public CAS read(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        // Documents for which the user has no annotation CAS yet are cached under a timestamp of
+        // 0. Once the CAS is written for the first time, the timestamp changes.
+        long timestamp = documentService.getAnnotationCasTimestamp(aDocument, aUsername)
+                .orElse(0l);
+        SnapshotKey key = new SnapshotKey(aDocument.getProject().getId(), aDocument.getId(),
+                aUsername, timestamp);
+
+        CAS cached = getSnapshot(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        if (maxSize <= 0) {
+            return load(aDocument, aUsername);
+        }
+
+        // If another thread is already loading the snapshot, we wait for it instead of loading
+        // the CAS a second time
+        CompletableFuture<CAS> pendingLoad = new CompletableFuture<>();
+        CompletableFuture<CAS> existingLoad = pendingLoads.computeIfAbsent(key,
+            _key -> pendingLoad);
+        if (existingLoad != pendingLoad) {
+            CAS cas = await(existingLoad, aDocument, aUsername);
+            hits.incrementAndGet();
+            return cas;
+        }
+
+        try {
+            // The snapshot may have been added after we last looked and before we started the
+            // load
+            CAS cas = getSnapshot(key);
+            if (cas != null) {
+                hits.incrementAndGet();
+            }
+            else {
+                // Load outside the lock such that other snapshots can be served in the meantime
+                cas = load(aDocument, aUsername);
+            }
+
+            // If the snapshots have been invalidated during the load, the load is no longer
+            // pending and the CAS is not cached. Ending the load and caching the CAS happens
+            // under the lock, so a thread starting a new load afterwards finds the snapshot.
+            synchronized (snapshots) {
+                if (pendingLoads.remove(key, pendingLoad)) {
+                    snapshots.put(key, new SoftReference<>(cas));
+                }
+            }
+
+            pendingLoad.complete(cas);
+            return cas;
+        }
+        catch (IOException | RuntimeException e) {
+            pendingLoads.remove(key, pendingLoad);
+            pendingLoad.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private CAS getSnapshot(SnapshotKey aKey)
+    {
+        synchronized (snapshots) {
+            SoftReference<CAS> ref = snapshots.get(aKey);
+            return ref != null ? ref.get() : null;
+        }
+    }
+
+    private CAS load(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        CAS cas = documentService.readAnnotationCas(aDocument, aUsername);
+        try {
+            annoService.upgradeCasIfRequired(cas, aDocument, aUsername);
+        }
+        catch (UIMAException e) {
+            throw new IOException("Unable to upgrade CAS of document [" + aDocument.getName()
+                    + "] for user [" + aUsername + "]", e);
+        }
+        long loadCount = loads.incrementAndGet();
+
+        log.trace("[{}][{}]: Loaded CAS snapshot (load #{})", aUsername, aDocument.getName(),
+                loadCount);
+
+        return cas;
+    }
+
+    private CAS await(CompletableFuture<CAS> aLoad, SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        try {
+            return aLoad.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for CAS of document ["
+                    + aDocument.getName() + "] for user [" + aUsername + "]");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Unable to load CAS of document [" + aDocument.getName()
+                    + "] for user [" + aUsername + "]", e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of snapshots served from the cache.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of CASes which had to be loaded.
+     */
+    public long getLoadCount()
+    {
+        return loads.get();
+    }
+
+    /**
+     * @return the fraction of requests served from the cache.
+     */
+    public double getHitRate()
+    {
+        long hitCount = hits.get();
+        long total = hitCount + loads.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @EventListener
+    public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        // The timestamp in the key already prevents outdated snapshots from being used, but we
+        // do not want to keep them around until they are evicted.
+        long documentId = aEvent.getDocument().getDocument().getId();
+        String username = aEvent.getDocument().getUser();
+        synchronized (snapshots) {
+            snapshots.keySet().removeIf(key -> key.documentId == documentId
+                    && key.username.equals(username));
+            pendingLoads.keySet().removeIf(key -> key.documentId == documentId
+                    && key.username.equals(username));
+        }
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        // Snapshots have been upgraded to the previous type system of the project
+        invalidate(aEvent.getProject().getId());
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidate(aEvent.getProject().getId());
+    }
+
+    private void invalidate(long aProjectId)
+    {
+        synchronized (snapshots) {
+            snapshots.keySet().removeIf(key -> key.projectId == aProjectId);
+            pendingLoads.keySet().removeIf(key -> key.projectId == aProjectId);
+        }
+    }
+
+    private static final class SnapshotKey
+    {
+        private final long projectId;
+        private final long documentId;
+        private final String username;
+        private final long timestamp;
+
+        public SnapshotKey(long aProjectId, long aDocumentId, String aUsername, long aTimestamp)
+        {
+            projectId = aProjectId;
+            documentId = aDocumentId;
+            username = aUsername;
+            timestamp = aTimestamp;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SnapshotKey)) {
+                return false;
+            }
+            SnapshotKey that = (SnapshotKey) o;
+            return projectId == that.projectId && documentId == that.documentId
+                    && timestamp == that.timestamp && username.equals(that.username);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, documentId, username, timestamp);
+        }
+    }
+}
@@ -17,33 +17,102 @@
  */
 package de.tudarmstadt.ukp.inception.recommendation.service;
 
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
+import org.springframework.security.core.session.SessionDestroyedEvent;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.inception.recommendation.api.LearningRecordService;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecord;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordChangeLocation;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordIndex;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordType;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
 
 @Component(LearningRecordService.SERVICE_NAME)
 public class LearningRecordServiceImpl
-    implements LearningRecordService
+    implements LearningRecordService, InitializingBean, DisposableBean
 {
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long WRITE_RETRY_DELAY = 1_000;
+    
+    /**
+     * Maximum time to wait for pending records to be written. The waiting thread may already be
+     * inside a transaction holding locks which the writer is waiting for. Giving up causes that
+     * transaction to be rolled back which releases these locks.
+     */
+    private static final long FLUSH_TIMEOUT = 30_000;
+    
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    
     @PersistenceContext
     private EntityManager entityManager;
+    
+    private @Autowired RecommendationProperties properties;
+    private @Autowired PlatformTransactionManager transactionManager;
+    private @Autowired SessionRegistry sessionRegistry;
+
+    private final ConcurrentMap<RecordIndexKey, RecordIndexHolder> recordIndexes = 
+            new ConcurrentHashMap<>();
+    
+    /**
+     * Writes logged records to the database in the background - only used in write-behind mode.
+     */
+    private RecordWriter writer;
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (properties.isLearningRecordWriteBehind()) {
+            writer = new RecordWriter(properties.getLearningRecordQueueSize());
+            log.info("Learning records are written to the database in the background");
+        }
+    }
+    
+    @Override
+    public void destroy()
+    {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
 
     @Transactional
     @EventListener
@@ -53,6 +122,49 @@ public class LearningRecordServiceImpl
         deleteRecords(currentDocument, currentUser);
     }
     
+    /**
+     * The indexes of a user are only needed while the user is working. They are dropped when the
+     * session of the user ends and rebuilt from the database when they are accessed again.
+     */
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent aEvent)
+    {
+        SessionInformation info = sessionRegistry.getSessionInformation(aEvent.getId());
+        // Could be an anonymous session without information.
+        if (info != null) {
+            String username = (String) info.getPrincipal();
+            recordIndexes.keySet().removeIf(key -> username.equals(key.user));
+        }
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        dropRecordIndexes(aEvent.getProject());
+    }
+
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        dropRecordIndexes(aEvent.getDocument().getProject());
+    }
+
+    /**
+     * Layers may have been removed, so the indexes of the project are rebuilt when they are
+     * accessed again.
+     */
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        dropRecordIndexes(aEvent.getProject());
+    }
+
+    private void dropRecordIndexes(Project aProject)
+    {
+        recordIndexes.keySet()
+                .removeIf(key -> Objects.equals(aProject.getId(), key.projectId));
+    }
+    
     @Transactional
     @Override
     public void logRecord(SourceDocument aDocument, String aUsername,
@@ -70,30 +182,6 @@ public class LearningRecordServiceImpl
             AnnotationFeature aFeature, LearningRecordType aUserAction, 
             LearningRecordChangeLocation aLocation)
     {
-        // It doesn't make any sense at all to have duplicate entries in the learning history,
-        // so when adding a new entry, we dump any existing entries which basically are the
-        // same as the one added. Mind that the actual action performed by the user does not 
-        // matter since there should basically be only one action in the log for any suggestion,
-        // irrespective of what that action is.
-        String query = String.join("\n",
-                "DELETE FROM LearningRecord WHERE",
-                "user = :user AND",
-                "sourceDocument = :sourceDocument AND",
-                "offsetCharacterBegin = :offsetCharacterBegin AND",
-                "offsetCharacterEnd = :offsetCharacterEnd AND",
-                "layer = :layer AND",
-                "annotationFeature = :annotationFeature AND",
-                "annotation = :annotation");
-        entityManager.createQuery(query)
-                .setParameter("user", aUsername)
-                .setParameter("sourceDocument", aDocument)
-                .setParameter("offsetCharacterBegin", aSuggestion.getBegin())
-                .setParameter("offsetCharacterEnd", aSuggestion.getEnd())
-                .setParameter("layer", aLayer)
-                .setParameter("annotationFeature", aFeature)
-                .setParameter("annotation", aAlternativeLabel)
-                .executeUpdate();
-        
         LearningRecord record = new LearningRecord();
         record.setUser(aUsername);
         record.setSourceDocument(aDocument);
@@ -108,14 +196,91 @@ public class LearningRecordServiceImpl
         record.setChangeLocation(aLocation);
         record.setAnnotationFeature(aFeature);
 
+        if (writer != null) {
+            // Make the record visible via the index right away and write it to the database
+            // later. Records are written in the order in which they have been logged. The record
+            // is queued while holding the lock on the index, so an index which is being built
+            // concurrently either reads the record from the database or receives it here.
+            RecordIndexHolder holder = recordIndexes.computeIfAbsent(
+                    new RecordIndexKey(aUsername, aLayer), key -> new RecordIndexHolder());
+            synchronized (holder) {
+                if (holder.index != null) {
+                    holder.index.removeIf(r -> isDuplicate(r, record));
+                    holder.index.add(record);
+                }
+                writer.enqueue(record);
+            }
+            return;
+        }
+        
+        getRecordIndexIfPresent(aUsername, aLayer)
+                .ifPresent(index -> index.removeIf(r -> isDuplicate(r, record)));
+        deleteDuplicates(record);
         create(record);
     }
+    
+    /**
+     * It doesn't make any sense at all to have duplicate entries in the learning history, so when
+     * adding a new entry, we dump any existing entries which basically are the same as the one
+     * added. Mind that the actual action performed by the user does not matter since there should
+     * basically be only one action in the log for any suggestion, irrespective of what that action
+     * is.
+     */
+    private void deleteDuplicates(LearningRecord aRecord)
+    {
+        String query = String.join("\n",
+                "DELETE FROM LearningRecord WHERE",
+                "user = :user AND",
+                "sourceDocument = :sourceDocument AND",
+                "offsetCharacterBegin = :offsetCharacterBegin AND",
+                "offsetCharacterEnd = :offsetCharacterEnd AND",
+                "layer = :layer AND",
+                "annotationFeature = :annotationFeature AND",
+                "annotation = :annotation");
+        entityManager.createQuery(query)
+                .setParameter("user", aRecord.getUser())
+                .setParameter("sourceDocument", aRecord.getSourceDocument())
+                .setParameter("offsetCharacterBegin", aRecord.getOffsetCharacterBegin())
+                .setParameter("offsetCharacterEnd", aRecord.getOffsetCharacterEnd())
+                .setParameter("layer", aRecord.getLayer())
+                .setParameter("annotationFeature", aRecord.getAnnotationFeature())
+                .setParameter("annotation", aRecord.getAnnotation())
+                .executeUpdate();
+    }
+    
+    private static boolean isDuplicate(LearningRecord aRecord, LearningRecord aOther)
+    {
+        return Objects.equals(aRecord.getSourceDocument().getId(),
+                aOther.getSourceDocument().getId())
+                && aRecord.getOffsetCharacterBegin() == aOther.getOffsetCharacterBegin()
+                && aRecord.getOffsetCharacterEnd() == aOther.getOffsetCharacterEnd()
+                && Objects.equals(aRecord.getAnnotationFeature(), aOther.getAnnotationFeature())
+                && Objects.equals(aRecord.getAnnotation(), aOther.getAnnotation());
+    }
+    
+    /**
+     * Waits until all records logged so far in write-behind mode have been written to the
+     * database. Must be called before reading from or modifying the learning history in the
+     * database.
+     * 
+     * @throws IllegalStateException
+     *             if the pending records could not be written in time. Failing is preferred over
+     *             working on an incomplete learning history.
+     */
+    private void flushPendingRecords()
+    {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
 
     @Transactional
     @Override
     public List<LearningRecord> listRecords(
             String aUsername, AnnotationLayer aLayer, int aLimit)
     {
+        flushPendingRecords();
+        
         String sql = String.join("\n",
                 "FROM LearningRecord l WHERE",
                 "l.user = :user AND",
@@ -140,9 +305,33 @@ public class LearningRecordServiceImpl
         return listRecords(aUsername, aLayer, 0);
     }
 
+    @Override
+    public LearningRecordIndex getRecordIndex(String aUsername, AnnotationLayer aLayer)
+    {
+        // The index is built outside of the map such that records logged in the meantime can
+        // wait for the index instead of being lost (see logRecord)
+        RecordIndexHolder holder = recordIndexes.computeIfAbsent(
+                new RecordIndexKey(aUsername, aLayer), key -> new RecordIndexHolder());
+        synchronized (holder) {
+            if (holder.index == null) {
+                holder.index = new LearningRecordIndex(listRecords(aUsername, aLayer));
+            }
+            return holder.index;
+        }
+    }
+
+    private Optional<LearningRecordIndex> getRecordIndexIfPresent(String aUsername,
+            AnnotationLayer aLayer)
+    {
+        return Optional.ofNullable(recordIndexes.get(new RecordIndexKey(aUsername, aLayer)))
+                .map(holder -> holder.index);
+    }
+
     @Transactional
     @Override
     public LearningRecord getRecordById(long recordId) {
+        flushPendingRecords();
+        
         String sql = "FROM LearningRecord l where l.id = :id";
         LearningRecord learningRecord = entityManager.createQuery(sql, LearningRecord.class)
                 .setParameter("id",recordId)
@@ -153,33 +342,56 @@ public class LearningRecordServiceImpl
     @Transactional
     @Override
     public void deleteRecords(SourceDocument document, String user) {
+        flushPendingRecords();
+        
         String sql = "DELETE FROM LearningRecord l where l.sourceDocument = :document and l.user " +
             "= :user";
         entityManager.createQuery(sql)
             .setParameter("document", document)
             .setParameter("user",user)
             .executeUpdate();
+        recordIndexes.forEach((key, holder) -> {
+            LearningRecordIndex index = holder.index;
+            if (key.user.equals(user) && index != null) {
+                index.removeIf(r -> Objects.equals(r.getSourceDocument().getId(),
+                        document.getId()));
+            }
+        });
     }
 
     @Override
     @Transactional
     public void create(LearningRecord learningRecord) {
+        flushPendingRecords();
+        
         entityManager.persist(learningRecord);
         entityManager.flush();
+        getRecordIndexIfPresent(learningRecord.getUser(), learningRecord.getLayer())
+                .ifPresent(index -> index.add(learningRecord));
     }
 
     @Override
     @Transactional
     public void update(LearningRecord learningRecord) {
+        flushPendingRecords();
+        
         entityManager.merge(learningRecord);
         entityManager.flush();
+        // The position or label may have changed, so the index needs to be rebuilt
+        recordIndexes.remove(
+                new RecordIndexKey(learningRecord.getUser(), learningRecord.getLayer()));
     }
 
     @Override
     @Transactional
     public void delete(LearningRecord learningRecord) {
+        flushPendingRecords();
+        
         entityManager.remove(entityManager.contains(learningRecord) ? learningRecord :
             entityManager.merge(learningRecord));
+        getRecordIndexIfPresent(learningRecord.getUser(), learningRecord.getLayer())
+                .ifPresent(index -> index.removeIf(r -> 
+                        Objects.equals(r.getId(), learningRecord.getId())));
     }
 
     @Override
@@ -195,6 +407,8 @@ public class LearningRecordServiceImpl
     @Transactional
     public boolean hasSkippedSuggestions(User aUser, AnnotationLayer aLayer)
     {
+        flushPendingRecords();
+        
         String sql = String.join("\n",
                 "SELECT COUNT(*) FROM LearningRecord WHERE",
                 "user = :user AND",
@@ -212,6 +426,8 @@ public class LearningRecordServiceImpl
     @Transactional
     public void deleteSkippedSuggestions(User aUser, AnnotationLayer aLayer)
     {
+        flushPendingRecords();
+        
         String sql = String.join("\n",
                 "DELETE FROM LearningRecord WHERE",
                 "user = :user AND",
@@ -222,5 +438,223 @@ public class LearningRecordServiceImpl
                 .setParameter("layer", aLayer)
                 .setParameter("action", LearningRecordType.SKIPPED)
                 .executeUpdate();
+        getRecordIndexIfPresent(aUser.getUsername(), aLayer).ifPresent(index -> 
+                index.removeIf(r -> r.getUserAction() == LearningRecordType.SKIPPED));
+    }
+    
+    private class RecordWriter
+        implements Runnable
+    {
+        private final BlockingQueue<LearningRecord> queue;
+        private final TransactionTemplate transactionTemplate;
+        private final Thread thread;
+        
+        // Both guarded by "this"
+        private long enqueuedCount = 0;
+        private long writtenCount = 0;
+        
+        public RecordWriter(int aQueueSize)
+        {
+            queue = new ArrayBlockingQueue<>(aQueueSize);
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            thread = new Thread(this, "Learning record writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        /**
+         * Queues the given record for writing. If the queue is full, this blocks until there is
+         * space again.
+         */
+        public void enqueue(LearningRecord aRecord)
+        {
+            synchronized (this) {
+                enqueuedCount++;
+            }
+            
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(aRecord);
+                    break;
+                }
+                catch (InterruptedException e) {
+                    // Dropping the record would break the flush bookkeeping, so keep trying
+                    interrupted = true;
+                }
+            }
+            
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Waits until all records queued so far have been written.
+         * 
+         * @throws IllegalStateException
+         *             if the records have not been written within the flush timeout or if the
+         *             calling thread is interrupted while waiting. Reading the learning history
+         *             from the database would then miss these records.
+         */
+        public synchronized void flush()
+        {
+            long target = enqueuedCount;
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+            while (writtenCount < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Timed out waiting for ["
+                            + (target - writtenCount) + "] learning records to be written");
+                }
+                
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(
+                            "Interrupted while waiting for learning records to be written", e);
+                }
+            }
+        }
+        
+        public void shutdown()
+        {
+            try {
+                flush();
+            }
+            catch (IllegalStateException e) {
+                log.warn("Not all learning records have been written: {}", e.getMessage());
+            }
+            thread.interrupt();
+        }
+        
+        @Override
+        public void run()
+        {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<LearningRecord> batch = new ArrayList<>();
+                try {
+                    batch.add(queue.take());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                write(batch);
+            }
+        }
+        
+        private void write(List<LearningRecord> aBatch)
+        {
+            try {
+                if (tryWrite(aBatch, MAX_WRITE_ATTEMPTS)) {
+                    log.trace("Wrote [{}] learning records", aBatch.size());
+                    return;
+                }
+                
+                // Write the records one by one such that a single record which cannot be written
+                // does not cause the whole batch to be lost
+                for (LearningRecord record : aBatch) {
+                    if (!tryWrite(singletonList(record), 1)) {
+                        // The record is visible via the index but not in the database. Drop the
+                        // index, so it is rebuilt from the database when it is accessed again.
+                        log.error("Dropping learning record of user [{}] on layer [{}]",
+                                record.getUser(), record.getLayer().getUiName());
+                        recordIndexes.remove(
+                                new RecordIndexKey(record.getUser(), record.getLayer()));
+                    }
+                }
+            }
+            finally {
+                synchronized (this) {
+                    writtenCount += aBatch.size();
+                    notifyAll();
+                }
+            }
+        }
+        
+        /**
+         * @return whether the records have been written.
+         */
+        private boolean tryWrite(List<LearningRecord> aRecords, int aAttempts)
+        {
+            for (int attempt = 1; attempt <= aAttempts; attempt++) {
+                try {
+                    transactionTemplate.execute(status -> {
+                        // Duplicates within the batch are handled as well since the bulk delete
+                        // causes the records persisted before to be flushed first
+                        for (LearningRecord record : aRecords) {
+                            deleteDuplicates(record);
+                            entityManager.persist(record);
+                        }
+                        entityManager.flush();
+                        return null;
+                    });
+                    return true;
+                }
+                catch (RuntimeException e) {
+                    log.error("Unable to write [{}] learning records (attempt {} of {})",
+                            aRecords.size(), attempt, aAttempts, e);
+                    
+                    // The IDs assigned in the rolled back transaction are not valid
+                    aRecords.forEach(record -> record.setId(null));
+                }
+                
+                if (attempt < aAttempts) {
+                    try {
+                        Thread.sleep(WRITE_RETRY_DELAY * attempt);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Holds the index of a user and layer once it has been built. Building the index and adding
+     * records to it happens while holding the lock on the holder.
+     */
+    private static class RecordIndexHolder
+    {
+        private volatile LearningRecordIndex index;
+    }
+    
+    private static class RecordIndexKey
+    {
+        private final String user;
+        private final long layerId;
+        // Not part of the identity of the key - the layer implies the project
+        private final Long projectId;
+        
+        public RecordIndexKey(String aUser, AnnotationLayer aLayer)
+        {
+            user = aUser;
+            layerId = aLayer.getId();
+            projectId = aLayer.getProject() != null ? aLayer.getProject().getId() : null;
+        }
+        
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof RecordIndexKey)) {
+                return false;
+            }
+            RecordIndexKey castOther = (RecordIndexKey) other;
+            return new EqualsBuilder().append(user, castOther.user)
+                    .append(layerId, castOther.layerId).isEquals();
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return new HashCodeBuilder().append(user).append(layerId).toHashCode();
+        }
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static de.tudarmstadt.ukp.inception.recommendation.api.RecommendationService.FEATURE_NAME_IS_PREDICTION;
+import static de.tudarmstadt.ukp.inception.recommendation.api.RecommendationService.FEATURE_NAME_SCORE_EXPLANATION_SUFFIX;
+import static de.tudarmstadt.ukp.inception.recommendation.api.RecommendationService.FEATURE_NAME_SCORE_SUFFIX;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.FeatureDescription;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.CasIOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Caches the prediction type system of a project, i.e. the full project type system extended with
+ * the score, score explanation and is-prediction features. Additionally, a small pool of CASes
+ * using this type system is kept so that predicting on a document only requires resetting a pooled
+ * CAS and copying the document into it instead of committing a new type system.
+ * <p>
+ * The cached data must be {@link #invalidate invalidated} whenever the layer configuration of the
+ * project changes.
+ */
+class PredictionTypeSystemCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AnnotationSchemaService annoService;
+    private final int poolSize;
+    private final ConcurrentMap<Long, PredictionTypeSystem> typeSystems;
+
+    public PredictionTypeSystemCache(AnnotationSchemaService aAnnoService, int aPoolSize)
+    {
+        annoService = aAnnoService;
+        poolSize = aPoolSize;
+        typeSystems = new ConcurrentHashMap<>();
+    }
+
+    public TypeSystemDescription getTypeSystemDescription(Project aProject)
+        throws ResourceInitializationException
+    {
+        return get(aProject).typeSystemDescription;
+    }
+
+    /**
+     * @return whether the given CAS already uses the current prediction type system of the project.
+     */
+    public boolean isPredictionCas(Project aProject, CAS aCas)
+        throws ResourceInitializationException
+    {
+        return get(aProject).typeSystem == aCas.getTypeSystem();
+    }
+
+    /**
+     * Takes an empty CAS using the prediction type system from the pool or creates a new one if
+     * the pool is empty.
+     */
+    public CAS borrowCas(Project aProject) throws ResourceInitializationException
+    {
+        PredictionTypeSystem pts = get(aProject);
+        CAS cas = pts.pool.poll();
+        if (cas == null) {
+            cas = CasCreationUtils.createCas(pts.typeSystem, null, null, null);
+        }
+        return cas;
+    }
+
+    /**
+     * Returns a CAS to the pool. If the CAS does not use the current prediction type system (e.g.
+     * because the layer configuration changed in the meantime) or if the pool is full, the CAS is
+     * dropped.
+     */
+    public void returnCas(Project aProject, CAS aCas)
+    {
+        PredictionTypeSystem pts = typeSystems.get(aProject.getId());
+        if (pts != null && pts.typeSystem == aCas.getTypeSystem() && pts.pool.size() < poolSize) {
+            aCas.reset();
+            pts.pool.add(aCas);
+        }
+    }
+
+    public synchronized void invalidate(Project aProject)
+    {
+        if (typeSystems.remove(aProject.getId()) != null) {
+            log.debug("Invalidated prediction type system of project [{}]({})",
+                    aProject.getName(), aProject.getId());
+        }
+    }
+
+    private PredictionTypeSystem get(Project aProject) throws ResourceInitializationException
+    {
+        PredictionTypeSystem pts = typeSystems.get(aProject.getId());
+        if (pts != null) {
+            return pts;
+        }
+
+        // Building is synchronized with the invalidation so that a type system built from an
+        // outdated layer configuration cannot end up in the cache
+        synchronized (this) {
+            pts = typeSystems.get(aProject.getId());
+            if (pts == null) {
+                TypeSystemDescription tsd = createPredictionTypeSystem(
+                        annoService.getFullProjectTypeSystem(aProject),
+                        annoService.listAnnotationLayer(aProject));
+                pts = new PredictionTypeSystem(tsd);
+                typeSystems.put(aProject.getId(), pts);
+                log.debug("Built prediction type system of project [{}]({})", aProject.getName(),
+                        aProject.getId());
+            }
+            return pts;
+        }
+    }
+
+    /**
+     * Adds the score, score explanation and is-prediction features to the types of the given
+     * layers.
+     */
+    public static TypeSystemDescription createPredictionTypeSystem(TypeSystemDescription aTsd,
+            List<AnnotationLayer> aLayers)
+    {
+        for (AnnotationLayer layer : aLayers) {
+            TypeDescription td = aTsd.getType(layer.getName());
+
+            if (td == null) {
+                continue;
+            }
+
+            for (FeatureDescription feature : td.getFeatures()) {
+                String scoreFeatureName = feature.getName() + FEATURE_NAME_SCORE_SUFFIX;
+                td.addFeature(scoreFeatureName, "Score feature", CAS.TYPE_NAME_DOUBLE);
+
+                String scoreExplanationFeatureName = feature.getName() +
+                        FEATURE_NAME_SCORE_EXPLANATION_SUFFIX;
+                td.addFeature(scoreExplanationFeatureName, "Score explanation feature",
+                        CAS.TYPE_NAME_STRING);
+            }
+
+            td.addFeature(FEATURE_NAME_IS_PREDICTION, "Is Prediction", CAS.TYPE_NAME_BOOLEAN);
+        }
+
+        return aTsd;
+    }
+
+    /**
+     * Resets the target CAS and leniently copies the contents of the source CAS into it. The
+     * target CAS keeps its type system.
+     */
+    public static void copy(CAS aSourceCas, CAS aTargetCas) throws IOException
+    {
+        TypeSystem sourceTypeSystem = aSourceCas.getTypeSystem();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        serializeWithCompression(aSourceCas, buffer, sourceTypeSystem);
+
+        aTargetCas.reset();
+        CasIOUtils.load(new ByteArrayInputStream(buffer.toByteArray()), aTargetCas,
+                sourceTypeSystem);
+    }
+
+    private static class PredictionTypeSystem
+    {
+        private final TypeSystemDescription typeSystemDescription;
+        private final TypeSystem typeSystem;
+        private final Queue<CAS> pool;
+
+        public PredictionTypeSystem(TypeSystemDescription aTypeSystemDescription)
+            throws ResourceInitializationException
+        {
+            typeSystemDescription = aTypeSystemDescription;
+            pool = new ConcurrentLinkedQueue<>();
+
+            // Creating the first CAS commits the type system - all further CASes share it
+            CAS cas = CasCreationUtils.createCas(aTypeSystemDescription, null, null);
+            typeSystem = cas.getTypeSystem();
+            pool.add(cas);
+        }
+    }
+}
@@ -21,25 +21,50 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion.FLAG_OVERLAP;
 import static de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion.FLAG_REJECTED;
 import static de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion.FLAG_SKIPPED;
+import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency.SERIAL;
+import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency.THREAD_SAFE;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
 import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectAt;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -52,6 +77,7 @@ import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -59,15 +85,13 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.resource.metadata.FeatureDescription;
-import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.apache.wicket.MetaDataKey;
 import org.apache.wicket.request.cycle.IRequestCycleListener;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
@@ -89,6 +113,8 @@ import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -103,31 +129,41 @@ import de.tudarmstadt.ukp.inception.recommendation.api.RecommenderFactoryRegistr
 import de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.EvaluatedRecommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecord;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.LearningRecordIndex;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Offset;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Predictions;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Preferences;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.SuggestionGroup;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactory;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TokenIndex;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
 import de.tudarmstadt.ukp.inception.recommendation.event.RecommenderDeletedEvent;
 import de.tudarmstadt.ukp.inception.recommendation.tasks.SelectionTask;
 import de.tudarmstadt.ukp.inception.recommendation.tasks.TrainingTask;
 import de.tudarmstadt.ukp.inception.recommendation.util.OverlapIterator;
+import de.tudarmstadt.ukp.inception.recommendation.util.SuggestionPruning;
+import de.tudarmstadt.ukp.inception.scheduling.CancellationToken;
 import de.tudarmstadt.ukp.inception.scheduling.SchedulingService;
 import de.tudarmstadt.ukp.inception.scheduling.Task;
+import de.tudarmstadt.ukp.inception.scheduling.config.SchedulingProperties;
 
 /**
  * The implementation of the RecommendationService.
  */
 @Component(RecommendationService.SERVICE_NAME)
 public class RecommendationServiceImpl
-    implements RecommendationService
+    implements RecommendationService, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private static final int TRAININGS_PER_SELECTION = 5;
+    
+    private static final String ACTIVE_PREDICTIONS = "active";
+    private static final String INCOMING_PREDICTIONS = "incoming";
 
     private @PersistenceContext EntityManager entityManager;
     
@@ -139,9 +175,28 @@ public class RecommendationServiceImpl
     private final DocumentService documentService;
     private final LearningRecordService learningRecordService;
     private final ProjectService projectService;
+    private final RecommendationProperties properties;
+    private final CasSnapshotCache casSnapshotCache;
+    private final RecommenderModelStore modelStore;
+    private final RecommendationStateStore stateStore;
     
     private final ConcurrentMap<RecommendationStateKey, AtomicInteger> trainingTaskCounter;
     private final ConcurrentMap<RecommendationStateKey, RecommendationState> states;
+    private final ConcurrentMap<SharedContextKey, WeakReference<RecommenderContext>> sharedContexts;
+    private final PredictionTypeSystemCache predictionTypeSystems;
+    
+    /**
+     * Computes the predictions for several documents at the same time - shared by the prediction
+     * runs of all users and only used if more than one prediction thread is configured.
+     */
+    private final int predictionThreads;
+    private final int predictionBatchSize;
+    private ExecutorService predictionExecutor;
+    
+    /**
+     * Moves the states of idle users to disk - only used if state eviction is enabled.
+     */
+    private ScheduledExecutorService stateEvictor;
     
     private IRequestCycleListener triggerTraingRunListener;
 
@@ -165,7 +220,9 @@ public class RecommendationServiceImpl
             RecommenderFactoryRegistry aRecommenderFactoryRegistry,
             SchedulingService aSchedulingService, AnnotationSchemaService aAnnoService,
             DocumentService aDocumentService, LearningRecordService aLearningRecordService,
-            ProjectService aProjectService)
+            ProjectService aProjectService, RecommendationProperties aProperties,
+            SchedulingProperties aSchedulingProperties, CasSnapshotCache aCasSnapshotCache,
+            RecommenderModelStore aModelStore, RecommendationStateStore aStateStore)
     {
         sessionRegistry = aSessionRegistry;
         userRepository = aUserRepository;
@@ -175,9 +232,35 @@ public class RecommendationServiceImpl
         documentService = aDocumentService;
         learningRecordService = aLearningRecordService;
         projectService = aProjectService;
+        properties = aProperties;
+        casSnapshotCache = aCasSnapshotCache;
+        modelStore = aModelStore;
+        stateStore = aStateStore;
         
         trainingTaskCounter = new ConcurrentHashMap<>();
         states = new ConcurrentHashMap<>();
+        sharedContexts = new ConcurrentHashMap<>();
+        predictionThreads = Math.max(1, aSchedulingProperties.getPredictionThreads());
+        predictionBatchSize = Math.max(1, aProperties.getPredictionBatchSize());
+        predictionTypeSystems = new PredictionTypeSystemCache(aAnnoService,
+                predictionThreads * predictionBatchSize);
+        
+        if (predictionThreads > 1) {
+            predictionExecutor = Executors.newFixedThreadPool(predictionThreads,
+                    new BasicThreadFactory.Builder()
+                            .namingPattern("prediction-worker-%d")
+                            .daemon(true)
+                            .build());
+        }
+        
+        if (stateStore != null && aProperties.getStateEvictionIdleMinutes() > 0) {
+            stateEvictor = Executors.newSingleThreadScheduledExecutor(
+                    new BasicThreadFactory.Builder()
+                            .namingPattern("recommendation-state-evictor")
+                            .daemon(true)
+                            .build());
+            stateEvictor.scheduleWithFixedDelay(this::evictIdleStates, 1, 1, MINUTES);
+        }
     }
 
     public RecommendationServiceImpl(SessionRegistry aSessionRegistry, UserDao aUserRepository,
@@ -187,39 +270,69 @@ public class RecommendationServiceImpl
             EntityManager aEntityManager)
     {
         this(aSessionRegistry, aUserRepository, aRecommenderFactoryRegistry, aSchedulingService,
-                aAnnoService, aDocumentService, aLearningRecordService, (ProjectService) null);
+                aAnnoService, aDocumentService, aLearningRecordService, (ProjectService) null,
+                new RecommendationProperties(), new SchedulingProperties(),
+                new CasSnapshotCache(aDocumentService, aAnnoService,
+                        new RecommendationProperties()), null, null);
         
         entityManager = aEntityManager;
     }
 
     public RecommendationServiceImpl(EntityManager aEntityManager)
     {
-        this(null, null, null, null, null, null, null, (ProjectService) null);
+        this(null, null, null, null, null, null, null, (ProjectService) null,
+                new RecommendationProperties(), new SchedulingProperties(), null, null, null);
 
         entityManager = aEntityManager;
     }
 
+    @Override
+    public void destroy()
+    {
+        if (stateEvictor != null) {
+            stateEvictor.shutdownNow();
+        }
+        
+        if (predictionExecutor != null) {
+            predictionExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public Predictions getPredictions(User aUser, Project aProject)
     {
-        RecommendationState state = getState(aUser.getUsername(), aProject);
-        return state.getActivePredictions();
+        return getPredictionsSnapshot(aUser.getUsername(), aProject).getActive();
     }
     
     @Override
     public Predictions getIncomingPredictions(User aUser, Project aProject)
     {
-        RecommendationState state = getState(aUser.getUsername(), aProject);
-        return state.getIncomingPredictions();
+        return getPredictionsSnapshot(aUser.getUsername(), aProject).getIncoming();
     }
     
     @Override
     public void putIncomingPredictions(User aUser, Project aProject, Predictions aPredictions)
     {
         RecommendationState state = getState(aUser.getUsername(), aProject);
-        synchronized (state) {
-            state.setIncomingPredictions(aPredictions);
-        }
+        state.setIncomingPredictions(aPredictions);
+    }
+    
+    @Override
+    public Lock getPredictionLock(User aUser, Project aProject)
+    {
+        return getState(aUser.getUsername(), aProject).getPredictionLock();
+    }
+    
+    @Override
+    public void requestPrediction(User aUser, Project aProject)
+    {
+        getState(aUser.getUsername(), aProject).getPredictionRequested().set(true);
+    }
+    
+    @Override
+    public boolean consumePredictionRequest(User aUser, Project aProject)
+    {
+        return getState(aUser.getUsername(), aProject).getPredictionRequested().getAndSet(false);
     }
     
     @Override
@@ -410,7 +523,15 @@ public class RecommendationServiceImpl
 
         // If there already is a state, we just re-use it. We only trigger a new training if there
         // is no state yet.
-        if (!states.containsKey(new RecommendationStateKey(user, project))) {
+        boolean hasState = states.containsKey(new RecommendationStateKey(user, project));
+
+        // Remember the document so that the next prediction run predicts it first
+        RecommendationState state = getState(user, project);
+        synchronized (state) {
+            state.setOpenedDocument(aEvent.getDocument().getName());
+        }
+
+        if (!hasState) {
             triggerTrainingAndClassification(user, project, "DocumentOpenedEvent");
         }
     }
@@ -447,6 +568,16 @@ public class RecommendationServiceImpl
     @EventListener
     public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
     {
+        // Remember which documents have changed so that the next prediction run only needs to
+        // re-predict these. If there is no state yet, the next run is a full run anyway.
+        RecommendationState state = states.get(new RecommendationStateKey(
+                aEvent.getDocument().getUser(), aEvent.getDocument().getProject()));
+        if (state != null) {
+            synchronized (state) {
+                state.markDocumentChanged(aEvent.getDocument().getName());
+            }
+        }
+        
         RequestCycle requestCycle = RequestCycle.get();
         
         if (requestCycle == null) {
@@ -473,8 +604,29 @@ public class RecommendationServiceImpl
         // trigger a training rung.
         RecommendationState state = getState(aEvent.getUser(), aEvent.getProject());
         synchronized (state) {
+            restorePredictionsIfEvicted(aEvent.getUser(), aEvent.getProject(), state);
             state.removePredictions(aEvent.getRecommender());
         }
+        
+        if (modelStore != null) {
+            modelStore.delete(aEvent.getRecommender());
+        }
+        
+        long recommenderId = aEvent.getRecommender().getId();
+        sharedContexts.keySet().removeIf(key -> key.recommenderId == recommenderId);
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        predictionTypeSystems.invalidate(aEvent.getProject());
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        schedulingService.stopAllTasksForProject(aEvent.getProject());
+        predictionTypeSystems.invalidate(aEvent.getProject());
     }
 
     @EventListener
@@ -553,12 +705,228 @@ public class RecommendationServiceImpl
         return recommenderFactoryRegistry.getFactory(aRecommender.getTool());
     }
     
+    /**
+     * Returns the state of the given user and project. No lock is taken, so looking up the states
+     * of different users never contends.
+     */
     private RecommendationState getState(String aUsername, Project aProject)
     {
-        synchronized (states) {
-            return states.computeIfAbsent(new RecommendationStateKey(aUsername, aProject), (v) -> 
-                    new RecommendationState());
+        RecommendationState state = states.computeIfAbsent(
+                new RecommendationStateKey(aUsername, aProject), (v) -> new RecommendationState());
+        state.touch();
+        return state;
+    }
+    
+    /**
+     * Returns the current predictions of the given user and project. If they have been evicted to
+     * disk, they are restored first - only this takes the lock on the state.
+     */
+    private PredictionsSnapshot getPredictionsSnapshot(String aUsername, Project aProject)
+    {
+        RecommendationState state = getState(aUsername, aProject);
+        PredictionsSnapshot snapshot = state.getPredictions();
+        if (snapshot.isEvicted()) {
+            synchronized (state) {
+                snapshot = restorePredictionsIfEvicted(aUsername, aProject, state);
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Must be called while holding the lock on the state.
+     */
+    private PredictionsSnapshot restorePredictionsIfEvicted(String aUsername, Project aProject,
+            RecommendationState aState)
+    {
+        if (aState.getPredictions().isEvicted()) {
+            restorePredictions(aUsername, aProject.getId(), aState);
+        }
+        return aState.getPredictions();
+    }
+    
+    /**
+     * Moves the predictions and the trained models of users who have not accessed their state for
+     * a while to disk. Models of engines which do not support persisting them stay in memory.
+     * The evicted data is restored when it is accessed the next time.
+     */
+    private void evictIdleStates()
+    {
+        long timeout = MINUTES.toMillis(properties.getStateEvictionIdleMinutes());
+        
+        for (Map.Entry<RecommendationStateKey, RecommendationState> entry : states.entrySet()) {
+            RecommendationStateKey key = entry.getKey();
+            RecommendationState state = entry.getValue();
+            try {
+                synchronized (state) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}]: State of project [{}] occupies about [{}] bytes in "
+                                + "memory, idle for [{}] s", key.getUser(), key.getProjectId(),
+                                estimateMemoryUsage(key.getUser(), state),
+                                state.getIdleTime() / 1000);
+                    }
+                    
+                    if (state.getIdleTime() >= timeout) {
+                        evictState(key, state);
+                    }
+                }
+            }
+            catch (Exception e) {
+                log.error("[{}]: Unable to evict state of project [{}]", key.getUser(),
+                        key.getProjectId(), e);
+            }
+        }
+    }
+    
+    /**
+     * Estimates the memory occupied by the predictions and models of the given state. The size of
+     * a model is estimated by the size of its stored form, so only models which are in the
+     * {@link RecommenderModelStore} are counted. Must be called while holding the lock on the
+     * state.
+     */
+    private long estimateMemoryUsage(String aUsername, RecommendationState aState)
+    {
+        PredictionsSnapshot snapshot = aState.getPredictions();
+        long bytes = 0;
+        if (snapshot.getActive() != null) {
+            bytes += snapshot.getActive().estimateMemoryUsage();
+        }
+        if (snapshot.getIncoming() != null) {
+            bytes += snapshot.getIncoming().estimateMemoryUsage();
+        }
+        
+        if (modelStore != null) {
+            for (Map.Entry<Recommender, RecommenderContext> e : aState.getContexts()
+                    .entrySet()) {
+                Optional<String> fingerprint = e.getValue().getTrainingDataFingerprint();
+                if (fingerprint.isPresent()) {
+                    bytes += Math.max(0,
+                            modelStore.getSize(aUsername, e.getKey(), fingerprint.get()));
+                }
+            }
         }
+        
+        return bytes;
+    }
+    
+    /**
+     * Moves the predictions and models of the given state to disk. Must be called while holding
+     * the lock on the state.
+     */
+    private void evictState(RecommendationStateKey aKey, RecommendationState aState)
+        throws IOException
+    {
+        String username = aKey.getUser();
+        long projectId = aKey.getProjectId();
+        long bytes = 0;
+        int suggestions = 0;
+        int models = 0;
+        
+        PredictionsSnapshot snapshot = aState.getPredictions();
+        if (!snapshot.isEvicted()) {
+            bytes += savePredictions(username, projectId, ACTIVE_PREDICTIONS,
+                    snapshot.getActive());
+            bytes += savePredictions(username, projectId, INCOMING_PREDICTIONS,
+                    snapshot.getIncoming());
+            
+            // New predictions may have been published in the meantime without holding the lock
+            // on the state - then they are not evicted
+            if (aState.evictPredictions(snapshot)) {
+                suggestions = snapshot.size();
+            }
+            else {
+                stateStore.deletePredictions(username, projectId, ACTIVE_PREDICTIONS);
+                stateStore.deletePredictions(username, projectId, INCOMING_PREDICTIONS);
+                bytes = 0;
+            }
+        }
+        
+        for (Map.Entry<Recommender, RecommenderContext> e : aState.getContexts().entrySet()) {
+            Recommender recommender = e.getKey();
+            RecommenderContext context = e.getValue();
+            RecommendationEngineFactory<?> factory = getRecommenderFactory(recommender);
+            Optional<String> fingerprint = context.getTrainingDataFingerprint();
+            if (modelStore == null || factory == null || !context.isClosed()
+                    || !fingerprint.isPresent()) {
+                continue;
+            }
+            
+            RecommendationEngine engine = factory.build(recommender);
+            if (!engine.isModelPersistable()) {
+                continue;
+            }
+            
+            bytes += modelStore.write(username, recommender, engine, context);
+            aState.evictContext(recommender, fingerprint.get());
+            models++;
+        }
+        
+        if (suggestions > 0 || models > 0) {
+            log.info("[{}]: Evicted idle state of project [{}] to disk ([{}] suggestions, [{}] "
+                    + "models, [{}] bytes)", username, projectId, suggestions, models, bytes);
+        }
+    }
+    
+    private long savePredictions(String aUsername, long aProjectId, String aName,
+            Predictions aPredictions)
+        throws IOException
+    {
+        if (aPredictions == null) {
+            stateStore.deletePredictions(aUsername, aProjectId, aName);
+            return 0;
+        }
+        
+        return stateStore.savePredictions(aUsername, aProjectId, aName, aPredictions);
+    }
+    
+    /**
+     * Restores the predictions of the given state from disk. Must be called while holding the
+     * lock on the state.
+     */
+    private void restorePredictions(String aUsername, long aProjectId,
+            RecommendationState aState)
+    {
+        long start = System.currentTimeMillis();
+        Predictions active = stateStore
+                .loadPredictions(aUsername, aProjectId, ACTIVE_PREDICTIONS).orElse(null);
+        Predictions incoming = stateStore
+                .loadPredictions(aUsername, aProjectId, INCOMING_PREDICTIONS).orElse(null);
+        aState.restorePredictions(active, incoming);
+        
+        log.info("[{}]: Restored predictions of project [{}] from disk ([{}] suggestions, {} ms)",
+                aUsername, aProjectId, aState.getPredictions().size(),
+                System.currentTimeMillis() - start);
+    }
+    
+    /**
+     * Restores an evicted model of the given state from disk. Must be called while holding the
+     * lock on the state.
+     */
+    private Optional<RecommenderContext> restoreContext(String aUsername,
+            RecommendationState aState, Recommender aRecommender)
+    {
+        RecommendationEngineFactory<?> factory = getRecommenderFactory(aRecommender);
+        Optional<RecommenderContext> context = Optional.empty();
+        if (factory != null) {
+            long start = System.currentTimeMillis();
+            context = modelStore.restore(aUsername, aRecommender,
+                    aState.getEvictedFingerprint(aRecommender), factory.build(aRecommender));
+            
+            // If another user has a model trained on the same data in the meantime, reference
+            // that one instead of keeping an identical copy
+            Optional<String> fingerprint = context
+                    .flatMap(RecommenderContext::getTrainingDataFingerprint);
+            if (fingerprint.isPresent()) {
+                context = Optional.of(
+                        shareContext(aRecommender, fingerprint.get(), context.get()));
+            }
+            
+            log.debug("[{}][{}]: Restored model from disk ({} ms)", aUsername,
+                    aRecommender.getName(), System.currentTimeMillis() - start);
+        }
+        
+        aState.restoreContext(aRecommender, context.orElse(null));
+        return context;
     }
     
     @Override
@@ -566,21 +934,37 @@ public class RecommendationServiceImpl
     {
         Validate.notNull(aUsername, "Username must be specified");
         
-        synchronized (states) {
-            states.keySet().removeIf(key -> aUsername.equals(key.getUser()));
-            trainingTaskCounter.keySet()
-                    .removeIf(key -> aUsername.equals(key.getUser()));
-        }
+        removeStates(key -> aUsername.equals(key.getUser()));
+        trainingTaskCounter.keySet().removeIf(key -> aUsername.equals(key.getUser()));
     }
 
     private void clearState(Project aProject)
     {
         Validate.notNull(aProject, "Project must be specified");
         
-        synchronized (states) {
-            states.keySet().removeIf(key -> Objects.equals(aProject.getId(), key.getProjectId()));
-            trainingTaskCounter.keySet()
-                    .removeIf(key -> Objects.equals(aProject.getId(), key.getProjectId()));
+        removeStates(key -> Objects.equals(aProject.getId(), key.getProjectId()));
+        trainingTaskCounter.keySet()
+                .removeIf(key -> Objects.equals(aProject.getId(), key.getProjectId()));
+    }
+
+    /**
+     * Removes the states accepted by the given filter including the data which may have been
+     * evicted to disk.
+     */
+    private void removeStates(Predicate<RecommendationStateKey> aFilter)
+    {
+        Iterator<RecommendationStateKey> i = states.keySet().iterator();
+        while (i.hasNext()) {
+            RecommendationStateKey key = i.next();
+            if (aFilter.test(key)) {
+                i.remove();
+                if (stateStore != null) {
+                    stateStore.delete(key.getUser(), key.getProjectId());
+                }
+                if (modelStore != null) {
+                    modelStore.discard(key.getUser(), key.getProjectId());
+                }
+            }
         }
     }
 
@@ -588,8 +972,20 @@ public class RecommendationServiceImpl
     public boolean switchPredictions(User aUser, Project aProject)
     {
         RecommendationState state = getState(aUser.getUsername(), aProject);
-        synchronized (state) {
-            return state.switchPredictions();
+        
+        // The predictions may be evicted concurrently, so switching is retried on the restored
+        // predictions if that happens
+        while (true) {
+            PredictionsSnapshot snapshot = getPredictionsSnapshot(aUser.getUsername(), aProject);
+            if (snapshot.getIncoming() == null) {
+                return false;
+            }
+            
+            if (state.replacePredictions(snapshot, snapshot.switched())) {
+                log.debug("[{}][{}]: Switched to predictions version [{}]", aUser.getUsername(),
+                        aProject.getName(), snapshot.getVersion() + 1);
+                return true;
+            }
         }
     }
 
@@ -598,19 +994,82 @@ public class RecommendationServiceImpl
     {
         RecommendationState state = getState(aUser.getUsername(), aRecommender.getProject());
         synchronized (state) {
-            return state.getContext(aRecommender);
+            Optional<RecommenderContext> context = state.getContext(aRecommender);
+            if (!context.isPresent() && state.isContextEvicted(aRecommender)) {
+                context = restoreContext(aUser.getUsername(), state, aRecommender);
+            }
+            if (context.isPresent() || modelStore == null || !modelStore.isEnabled()) {
+                return context;
+            }
+        }
+        
+        // After a restart, the model may still be available on disk. Restoring it can take a
+        // while, so we do not hold the lock on the state while doing so.
+        RecommendationEngineFactory<?> factory = getRecommenderFactory(aRecommender);
+        if (factory == null) {
+            return Optional.empty();
+        }
+        
+        Optional<RecommenderContext> restored = modelStore.loadLatest(aUser.getUsername(),
+                aRecommender, factory.build(aRecommender));
+        synchronized (state) {
+            // Another thread may have put a newer model into the state in the meantime
+            Optional<RecommenderContext> context = state.getContext(aRecommender);
+            if (!context.isPresent() && restored.isPresent()) {
+                state.putContext(aRecommender, restored.get());
+                return restored;
+            }
+            return context;
         }
     }
     
     @Override
     public void putContext(User aUser, Recommender aRecommender, RecommenderContext aContext)
     {
+        RecommenderContext context = aContext;
+        
+        // If another user already has a model trained on the same data, reference that one
+        // instead of keeping an identical copy
+        Optional<String> fingerprint = aContext.getTrainingDataFingerprint();
+        if (fingerprint.isPresent() && aContext.isClosed()) {
+            context = shareContext(aRecommender, fingerprint.get(), aContext);
+        }
+        
         RecommendationState state = getState(aUser.getUsername(), aRecommender.getProject());
         synchronized (state) {
-            state.putContext(aRecommender, aContext);
+            state.putContext(aRecommender, context);
         }
     }
     
+    @Override
+    public Optional<RecommenderContext> getSharedContext(Recommender aRecommender,
+            String aTrainingDataFingerprint)
+    {
+        WeakReference<RecommenderContext> ref = sharedContexts
+                .get(new SharedContextKey(aRecommender.getId(), aTrainingDataFingerprint));
+        return Optional.ofNullable(ref != null ? ref.get() : null);
+    }
+    
+    /**
+     * Registers the given context as the shared context for its recommender and fingerprint
+     * unless there already is one.
+     * 
+     * @return the shared context.
+     */
+    private RecommenderContext shareContext(Recommender aRecommender, String aFingerprint,
+            RecommenderContext aContext)
+    {
+        // Contexts are only weakly referenced here - once no user references a context anymore,
+        // it can be garbage collected. Drop the entries of collected contexts on the way.
+        sharedContexts.values().removeIf(ref -> ref.get() == null);
+        
+        SharedContextKey key = new SharedContextKey(aRecommender.getId(), aFingerprint);
+        WeakReference<RecommenderContext> ref = sharedContexts.compute(key, (k, v) -> 
+                v != null && v.get() != null ? v : new WeakReference<>(aContext));
+        RecommenderContext shared = ref.get();
+        return shared != null ? shared : aContext;
+    }
+    
     @Override
     public int upsertFeature(AnnotationSchemaService annotationService, SourceDocument aDocument,
             String aUsername, CAS aCas, AnnotationLayer layer, AnnotationFeature aFeature,
@@ -685,6 +1144,133 @@ public class RecommendationServiceImpl
         }
     }
     
+    private static class SharedContextKey
+    {
+        private final long recommenderId;
+        private final String fingerprint;
+        
+        public SharedContextKey(long aRecommenderId, String aFingerprint)
+        {
+            recommenderId = aRecommenderId;
+            fingerprint = aFingerprint;
+        }
+        
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof SharedContextKey)) {
+                return false;
+            }
+            SharedContextKey castOther = (SharedContextKey) other;
+            return new EqualsBuilder().append(recommenderId, castOther.recommenderId)
+                    .append(fingerprint, castOther.fingerprint).isEquals();
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return new HashCodeBuilder().append(recommenderId).append(fingerprint).toHashCode();
+        }
+    }
+    
+    /**
+     * The active and incoming predictions of a user. Snapshots are immutable and replaced as a
+     * whole, so readers always see a consistent pair without taking a lock. Each replacement
+     * increases the version. The predictions referenced by a snapshot are not modified anymore
+     * except for the hiding flags of their suggestions.
+     */
+    private static final class PredictionsSnapshot
+    {
+        private static final PredictionsSnapshot EMPTY = 
+                new PredictionsSnapshot(null, null, false, 0);
+        
+        private final Predictions active;
+        private final Predictions incoming;
+        private final boolean evicted;
+        private final long version;
+        
+        private PredictionsSnapshot(Predictions aActive, Predictions aIncoming, boolean aEvicted,
+                long aVersion)
+        {
+            active = aActive;
+            incoming = aIncoming;
+            evicted = aEvicted;
+            version = aVersion;
+        }
+        
+        public Predictions getActive()
+        {
+            return active;
+        }
+        
+        public Predictions getIncoming()
+        {
+            return incoming;
+        }
+        
+        /**
+         * @return whether the predictions have been moved to disk. In this case, the snapshot
+         *         only references incoming predictions published after the eviction.
+         */
+        public boolean isEvicted()
+        {
+            return evicted;
+        }
+        
+        public long getVersion()
+        {
+            return version;
+        }
+        
+        public int size()
+        {
+            return (active != null ? active.size() : 0)
+                    + (incoming != null ? incoming.size() : 0);
+        }
+        
+        public PredictionsSnapshot withIncoming(Predictions aIncoming)
+        {
+            return new PredictionsSnapshot(active, aIncoming, evicted, version + 1);
+        }
+        
+        public PredictionsSnapshot switched()
+        {
+            Validate.validState(!evicted, "Predictions must be restored before switching");
+            return new PredictionsSnapshot(incoming, null, false, version + 1);
+        }
+        
+        public PredictionsSnapshot evicted()
+        {
+            return new PredictionsSnapshot(null, null, true, version + 1);
+        }
+        
+        /**
+         * Puts back the evicted predictions. Incoming predictions which have been published in
+         * the meantime take precedence over the evicted ones.
+         */
+        public PredictionsSnapshot restored(Predictions aActive, Predictions aIncoming)
+        {
+            return new PredictionsSnapshot(aActive, incoming != null ? incoming : aIncoming,
+                    false, version + 1);
+        }
+        
+        public PredictionsSnapshot without(long aRecommenderId)
+        {
+            return new PredictionsSnapshot(without(active, aRecommenderId),
+                    without(incoming, aRecommenderId), evicted, version + 1);
+        }
+        
+        private static Predictions without(Predictions aPredictions, long aRecommenderId)
+        {
+            if (aPredictions == null) {
+                return null;
+            }
+            
+            return aPredictions.copy(
+                suggestion -> suggestion.getRecommenderId() != aRecommenderId);
+        }
+    }
+    
     /**
      * We are assuming that the user is actively working on one project at a time.
      * Otherwise, the RecommendationUserState might take up a lot of memory.
@@ -695,8 +1281,15 @@ public class RecommendationServiceImpl
         private MultiValuedMap<AnnotationLayer, EvaluatedRecommender> activeRecommenders = 
                 new HashSetValuedHashMap<>();
         private Map<Recommender, RecommenderContext> contexts = new ConcurrentHashMap<>();
-        private Predictions activePredictions;
-        private Predictions incomingPredictions;
+        private final AtomicReference<PredictionsSnapshot> predictions = 
+                new AtomicReference<>(PredictionsSnapshot.EMPTY);
+        private Set<String> changedDocuments = new HashSet<>();
+        private Set<Long> retrainedRecommenders = new HashSet<>();
+        private String openedDocument;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private Map<Recommender, String> evictedContexts = new HashMap<>();
+        private final Lock predictionLock = new ReentrantLock();
+        private final AtomicBoolean predictionRequested = new AtomicBoolean();
         
         public Preferences getPreferences()
         {
@@ -719,33 +1312,31 @@ public class RecommendationServiceImpl
             activeRecommenders = aActiveRecommenders;
         }
         
-        public Predictions getActivePredictions()
+        /**
+         * Returns the current predictions. This never blocks.
+         */
+        public PredictionsSnapshot getPredictions()
         {
-            return activePredictions;
+            return predictions.get();
         }
         
         public void setIncomingPredictions(Predictions aIncomingPredictions)
         {
             Validate.notNull(aIncomingPredictions, "Predictions must be specified");
             
-            incomingPredictions = aIncomingPredictions;
-        }
-        
-        public Predictions getIncomingPredictions()
-        {
-            return incomingPredictions;
+            predictions.updateAndGet(snapshot -> snapshot.withIncoming(aIncomingPredictions));
         }
 
-        public boolean switchPredictions()
+        /**
+         * Publishes the given predictions unless the predictions have changed since the expected
+         * snapshot has been taken.
+         * 
+         * @return whether the predictions have been replaced.
+         */
+        public boolean replacePredictions(PredictionsSnapshot aExpected,
+                PredictionsSnapshot aPredictions)
         {
-            if (incomingPredictions != null) {
-                activePredictions = incomingPredictions;
-                incomingPredictions = null;
-                return true;
-            }
-            else {
-                return false;
-            }
+            return predictions.compareAndSet(aExpected, aPredictions);
         }
         
         /**
@@ -765,22 +1356,150 @@ public class RecommendationServiceImpl
             Validate.isTrue(aContext.isClosed(), "Context must be closed");
             
             contexts.put(aRecommender, aContext);
+            evictedContexts.remove(aRecommender);
+            retrainedRecommenders.add(aRecommender.getId());
         }
-                
-        public void removePredictions(Recommender aRecommender)
+        
+        public Map<Recommender, RecommenderContext> getContexts()
         {
-            // Remove incoming predictions
-            if (incomingPredictions != null) {
-                incomingPredictions.removePredictions(aRecommender.getId());
+            return new HashMap<>(contexts);
+        }
+        
+        public Lock getPredictionLock()
+        {
+            return predictionLock;
+        }
+        
+        public AtomicBoolean getPredictionRequested()
+        {
+            return predictionRequested;
+        }
+        
+        public void touch()
+        {
+            lastAccess = System.currentTimeMillis();
+        }
+        
+        /**
+         * Returns the number of milliseconds since the state has last been accessed.
+         */
+        public long getIdleTime()
+        {
+            return System.currentTimeMillis() - lastAccess;
+        }
+        
+        /**
+         * Drops the predictions after they have been moved to disk unless they have changed
+         * since the given snapshot has been taken.
+         * 
+         * @return whether the predictions have been dropped.
+         */
+        public boolean evictPredictions(PredictionsSnapshot aSnapshot)
+        {
+            return replacePredictions(aSnapshot, aSnapshot.evicted());
+        }
+        
+        public void restorePredictions(Predictions aActivePredictions,
+                Predictions aIncomingPredictions)
+        {
+            predictions.updateAndGet(snapshot -> 
+                    snapshot.restored(aActivePredictions, aIncomingPredictions));
+        }
+        
+        public boolean isContextEvicted(Recommender aRecommender)
+        {
+            return evictedContexts.containsKey(aRecommender);
+        }
+        
+        /**
+         * Returns the training data fingerprint of the evicted context of the given recommender.
+         */
+        public String getEvictedFingerprint(Recommender aRecommender)
+        {
+            return evictedContexts.get(aRecommender);
+        }
+        
+        /**
+         * Drops the context of the given recommender after it has been moved to disk.
+         */
+        public void evictContext(Recommender aRecommender, String aFingerprint)
+        {
+            contexts.remove(aRecommender);
+            evictedContexts.put(aRecommender, aFingerprint);
+        }
+        
+        /**
+         * Puts back an evicted context. Unlike {@link #putContext}, the recommender does not
+         * count as retrained since its predictions are still up-to-date.
+         */
+        public void restoreContext(Recommender aRecommender, RecommenderContext aContext)
+        {
+            if (aContext != null) {
+                contexts.put(aRecommender, aContext);
             }
+            evictedContexts.remove(aRecommender);
+        }
+        
+        /**
+         * Returns the name of the document which the user has opened last, if any.
+         */
+        public String getOpenedDocument()
+        {
+            return openedDocument;
+        }
 
-            // Remove active predictions
-            if (activePredictions != null) {
-                activePredictions.removePredictions(aRecommender.getId());
-            }
+        public void setOpenedDocument(String aDocumentName)
+        {
+            openedDocument = aDocumentName;
+        }
+
+        public void markDocumentChanged(String aDocumentName)
+        {
+            changedDocuments.add(aDocumentName);
+        }
+        
+        /**
+         * Returns the names of the documents which have been written since the last call and
+         * resets the tracking.
+         */
+        public Set<String> takeChangedDocuments()
+        {
+            Set<String> result = changedDocuments;
+            changedDocuments = new HashSet<>();
+            return result;
+        }
+
+        /**
+         * Returns the IDs of the recommenders which have received a new context since the last
+         * call and resets the tracking.
+         */
+        public Set<Long> takeRetrainedRecommenders()
+        {
+            Set<Long> result = retrainedRecommenders;
+            retrainedRecommenders = new HashSet<>();
+            return result;
+        }
+
+        /**
+         * Puts back changes which have been taken by an incremental prediction run that did not
+         * complete, so that they are considered by the next run.
+         */
+        public void restoreChanges(Set<String> aChangedDocuments, Set<Long> aRetrainedRecommenders)
+        {
+            changedDocuments.addAll(aChangedDocuments);
+            retrainedRecommenders.addAll(aRetrainedRecommenders);
+        }
+                
+        public void removePredictions(Recommender aRecommender)
+        {
+            // Remove incoming and active predictions. Published predictions may be in use by
+            // readers, so they are replaced instead of being modified.
+            long recommenderId = aRecommender.getId();
+            predictions.updateAndGet(snapshot -> snapshot.without(recommenderId));
 
             // Remove trainedModel
             contexts.remove(aRecommender);
+            evictedContexts.remove(aRecommender);
 
             // Remove from activeRecommenders map.
             // We have to do this, otherwise training and prediction continues for the
@@ -805,147 +1524,455 @@ public class RecommendationServiceImpl
     @Override
     public Predictions computePredictions(User aUser, Project aProject,
                                           List<SourceDocument> aDocuments)
+    {
+        return computePredictions(aUser, aProject, aDocuments, CancellationToken.NONE);
+    }
+
+    private Predictions computePredictions(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, CancellationToken aCancellationToken)
+    {
+        Predictions predictions = new Predictions(aUser, aProject);
+        computePredictions(aUser, aProject, aDocuments, predictions, (doc, rec) -> true,
+                aCancellationToken);
+        return predictions;
+    }
+
+    @Override
+    public Predictions computeIncrementalPredictions(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, CancellationToken aCancellationToken)
     {
         String username = aUser.getUsername();
+        RecommendationState state = getState(username, aProject);
+
+        Predictions previousPredictions;
+        Set<String> changedDocuments;
+        Set<Long> retrainedRecommenders;
+        String openedDocument;
+        synchronized (state) {
+            PredictionsSnapshot snapshot = restorePredictionsIfEvicted(username, aProject, state);
+            previousPredictions = snapshot.getIncoming() != null
+                    ? snapshot.getIncoming()
+                    : snapshot.getActive();
+            changedDocuments = state.takeChangedDocuments();
+            retrainedRecommenders = state.takeRetrainedRecommenders();
+            openedDocument = state.getOpenedDocument();
+        }
+
+        if (previousPredictions == null) {
+            log.debug("[{}]: No previous predictions - predicting all documents", username);
+            Predictions predictions = new Predictions(aUser, aProject);
+            computePredictionsOpenedDocumentFirst(aUser, aProject, aDocuments, predictions, null,
+                    openedDocument, (doc, rec) -> true, aCancellationToken);
+
+            // Predictions for the opened document may already have been published, so the next
+            // run must not take them for a complete run
+            if (aCancellationToken.isCancelled()) {
+                Set<String> documentNames = aDocuments.stream()
+                        .map(SourceDocument::getName)
+                        .collect(toSet());
+                synchronized (state) {
+                    state.restoreChanges(documentNames, emptySet());
+                }
+            }
+
+            return predictions;
+        }
+
+        // Suggestions from recommenders which are no longer active must not be carried over
+        Set<Long> activeRecommenders = new HashSet<>();
+        for (AnnotationLayer layer : annoService.listAnnotationLayer(aProject)) {
+            getActiveRecommenders(aUser, layer).stream()
+                    .map(r -> r.getRecommender().getId())
+                    .forEach(activeRecommenders::add);
+        }
+
         Predictions predictions = new Predictions(aUser, aProject);
+        predictions.inheritSuggestions(previousPredictions, suggestion -> 
+                !changedDocuments.contains(suggestion.getDocumentName())
+                && !retrainedRecommenders.contains(suggestion.getRecommenderId())
+                && activeRecommenders.contains(suggestion.getRecommenderId()));
+
+        // Changed documents are re-predicted by all recommenders, unchanged documents only by
+        // the recommenders which have been retrained
+        List<SourceDocument> documents = aDocuments.stream()
+                .filter(doc -> changedDocuments.contains(doc.getName())
+                        || !retrainedRecommenders.isEmpty())
+                .collect(toList());
+
+        log.debug("[{}]: Incremental prediction on [{}] of [{}] documents ([{}] changed, [{}] "
+                + "recommenders retrained)", username, documents.size(), aDocuments.size(),
+                changedDocuments.size(), retrainedRecommenders.size());
+
+        computePredictionsOpenedDocumentFirst(aUser, aProject, documents, predictions,
+                previousPredictions, openedDocument,
+                (doc, rec) -> changedDocuments.contains(doc.getName())
+                        || retrainedRecommenders.contains(rec.getId()),
+                aCancellationToken);
+
+        if (aCancellationToken.isCancelled()) {
+            synchronized (state) {
+                state.restoreChanges(changedDocuments, retrainedRecommenders);
+            }
+        }
+
+        return predictions;
+    }
+
+    /**
+     * Computes the predictions like
+     * {@link #computePredictions(User, Project, List, Predictions, BiPredicate, CancellationToken)}
+     * but predicts the document which the user has opened first. If further documents need to be
+     * predicted, the new suggestions for the opened document are published as incoming
+     * predictions right away. For all other documents, these preliminary predictions contain the
+     * previous suggestions until the run is complete and its predictions replace them.
+     */
+    private void computePredictionsOpenedDocumentFirst(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, Predictions aPredictions,
+            Predictions aPreviousPredictions, String aOpenedDocument,
+            BiPredicate<SourceDocument, Recommender> aFilter,
+            CancellationToken aCancellationToken)
+    {
+        Optional<SourceDocument> openedDocument = aDocuments.stream()
+                .filter(doc -> doc.getName().equals(aOpenedDocument))
+                .findFirst();
+
+        if (!openedDocument.isPresent() || aDocuments.size() == 1) {
+            computePredictions(aUser, aProject, aDocuments, aPredictions, aFilter,
+                    aCancellationToken);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        computePredictions(aUser, aProject, singletonList(openedDocument.get()), aPredictions,
+                aFilter, aCancellationToken);
+
+        if (aCancellationToken.isCancelled()) {
+            return;
+        }
+
+        Predictions preliminary = new Predictions(aUser, aProject);
+        if (aPreviousPredictions != null) {
+            preliminary.inheritSuggestions(aPreviousPredictions,
+                    suggestion -> !aOpenedDocument.equals(suggestion.getDocumentName()));
+        }
+        preliminary.inheritSuggestions(aPredictions,
+                suggestion -> aOpenedDocument.equals(suggestion.getDocumentName()));
+        putIncomingPredictions(aUser, aProject, preliminary);
+
+        log.debug("[{}]: Published predictions for opened document [{}] ({} ms)",
+                aUser.getUsername(), aOpenedDocument, System.currentTimeMillis() - start);
+
+        List<SourceDocument> remainingDocuments = aDocuments.stream()
+                .filter(doc -> doc != openedDocument.get())
+                .collect(toList());
+        computePredictions(aUser, aProject, remainingDocuments, aPredictions, aFilter,
+                aCancellationToken);
+    }
+
+    /**
+     * Computes the predictions for the given documents using the active recommenders. Only those
+     * combinations of document and recommender which are accepted by the filter are considered.
+     * The computation stops early if the cancellation token is cancelled.
+     */
+    private void computePredictions(User aUser, Project aProject, List<SourceDocument> aDocuments,
+            Predictions aPredictions, BiPredicate<SourceDocument, Recommender> aFilter,
+            CancellationToken aCancellationToken)
+    {
+        int threads = Math.min(predictionThreads,
+                (aDocuments.size() + predictionBatchSize - 1) / predictionBatchSize);
+        if (threads > 1) {
+            computePredictionsInParallel(aUser, aProject, aDocuments, aPredictions, aFilter,
+                    aCancellationToken, threads);
+            return;
+        }
 
-        CAS predictionCas = null;
         try {
-            predictionCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            // Engines are built once per run and re-used for all documents
+            Map<Long, RecommendationEngine> engines = new HashMap<>();
+            computePredictionsInBatches(aUser, aProject, new ArrayDeque<>(aDocuments), engines,
+                    engines, aPredictions, aFilter, aCancellationToken);
         }
         catch (ResourceInitializationException e) {
             log.info("Cannot create prediction CAS, stopping predictions!");
-            return predictions;
+        }
+    }
+
+    /**
+     * Spreads the documents over the shared pool of workers. Each worker pulls batches of
+     * documents from a shared queue until all documents are processed. Engines which are
+     * {@link RecommendationEngineConcurrency#THREAD_SAFE thread-safe} are shared by all workers,
+     * all other engines are built per worker. The suggestions are added to the
+     * {@link Predictions} which is backed by a concurrent map.
+     */
+    private void computePredictionsInParallel(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, Predictions aPredictions,
+            BiPredicate<SourceDocument, Recommender> aFilter,
+            CancellationToken aCancellationToken, int aThreads)
+    {
+        log.debug("[{}]: Computing predictions for [{}] documents using [{}] threads",
+                aUser.getUsername(), aDocuments.size(), aThreads);
+
+        Queue<SourceDocument> pending = new ConcurrentLinkedQueue<>(aDocuments);
+        Map<Long, RecommendationEngine> sharedEngines = new ConcurrentHashMap<>();
+
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < aThreads; i++) {
+            workers.add(() -> {
+                computePredictionsInBatches(aUser, aProject, pending, new HashMap<>(),
+                        sharedEngines, aPredictions, aFilter, aCancellationToken);
+                return null;
+            });
         }
 
-        nextDocument: for (SourceDocument document : aDocuments) {
-            Optional<CAS> originalCas = Optional.empty();
-            nextLayer: for (AnnotationLayer layer : annoService
-                    .listAnnotationLayer(document.getProject())) {
-                if (!layer.isEnabled()) {
-                    continue nextLayer;
+        try {
+            for (Future<Void> worker : predictionExecutor.invokeAll(workers)) {
+                try {
+                    worker.get();
                 }
+                catch (ExecutionException e) {
+                    log.error("[{}]: Prediction worker failed", aUser.getUsername(),
+                            e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            log.info("[{}]: Prediction interrupted", aUser.getUsername());
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                List<EvaluatedRecommender> recommenders = getActiveRecommenders(aUser, layer);
+    /**
+     * Takes batches of documents from the given queue and computes their predictions until the
+     * queue is empty. One prediction CAS per document of a batch is borrowed from the pool and
+     * re-used for all batches.
+     */
+    private void computePredictionsInBatches(User aUser, Project aProject,
+            Queue<SourceDocument> aPending, Map<Long, RecommendationEngine> aEngines,
+            Map<Long, RecommendationEngine> aSharedEngines, Predictions aPredictions,
+            BiPredicate<SourceDocument, Recommender> aFilter,
+            CancellationToken aCancellationToken)
+        throws ResourceInitializationException
+    {
+        List<CAS> predictionCasses = new ArrayList<>();
+        try {
+            List<SourceDocument> batch = new ArrayList<>();
+            while (!Thread.currentThread().isInterrupted() && !aCancellationToken.isCancelled()) {
+                batch.clear();
+                SourceDocument document;
+                while (batch.size() < predictionBatchSize
+                        && (document = aPending.poll()) != null) {
+                    batch.add(document);
+                }
+                
+                if (batch.isEmpty()) {
+                    break;
+                }
                 
-                if (recommenders.isEmpty()) {
-                    log.trace("[{}]: No active recommenders on layer [{}]", username,
-                            layer.getUiName());
-                    continue;
+                while (predictionCasses.size() < batch.size()) {
+                    predictionCasses.add(predictionTypeSystems.borrowCas(aProject));
                 }
+                
+                computePredictions(aUser, aProject, batch, predictionCasses, aEngines,
+                        aSharedEngines, aPredictions, aFilter, aCancellationToken);
+            }
+        }
+        finally {
+            predictionCasses.forEach(cas -> predictionTypeSystems.returnCas(aProject, cas));
+        }
+    }
 
-                nextRecommender: for (EvaluatedRecommender r : recommenders) {
-                    
-                    // Make sure we have the latest recommender config from the DB - the one from
-                    // the active recommenders list may be outdated
-                    Recommender recommender;
+    /**
+     * Computes the predictions for a batch of documents. Each recommender predicts on all
+     * documents of the batch which are accepted by the filter at once, so engines can batch their
+     * inference. There must be at least as many prediction CASes as documents. The engines are
+     * taken from the given maps and only built if the map does not contain an engine for a
+     * recommender yet. Engines which are {@link RecommendationEngineConcurrency#THREAD_SAFE
+     * thread-safe} are kept in the shared map which must support concurrent access. All other
+     * engines are kept in the local map which must not be shared between threads. Engines which
+     * only support {@link RecommendationEngineConcurrency#SERIAL serial} use predict under the
+     * lock of their factory.
+     */
+    private void computePredictions(User aUser, Project aProject,
+            List<SourceDocument> aDocuments, List<CAS> aPredictionCasses,
+            Map<Long, RecommendationEngine> aEngines,
+            Map<Long, RecommendationEngine> aSharedEngines, Predictions aPredictions,
+            BiPredicate<SourceDocument, Recommender> aFilter,
+            CancellationToken aCancellationToken)
+    {
+        String username = aUser.getUsername();
+        Map<SourceDocument, Optional<CAS>> originalCasses = new HashMap<>();
+        nextLayer: for (AnnotationLayer layer : annoService.listAnnotationLayer(aProject)) {
+            if (!layer.isEnabled()) {
+                continue nextLayer;
+            }
 
-                    try {
-                        recommender = getRecommender(r.getRecommender().getId());
-                    }
-                    catch (NoResultException e) {
-                        log.info("[{}][{}]: Recommender no longer available... skipping",
-                                username, r.getRecommender().getName());
-                        continue nextRecommender;
-                    }
+            List<EvaluatedRecommender> recommenders = getActiveRecommenders(aUser, layer);
+            
+            if (recommenders.isEmpty()) {
+                log.trace("[{}]: No active recommenders on layer [{}]", username,
+                        layer.getUiName());
+                continue;
+            }
 
-                    if (!recommender.isEnabled()) {
-                        log.debug("[{}][{}]: Disabled - skipping", username,
-                                r.getRecommender().getName());
-                        continue nextRecommender;
-                    }
+            nextRecommender: for (EvaluatedRecommender r : recommenders) {
+                if (aCancellationToken.isCancelled()) {
+                    return;
+                }
+                
+                // Make sure we have the latest recommender config from the DB - the one from
+                // the active recommenders list may be outdated
+                Recommender recommender;
 
-                    Optional<RecommenderContext> context = getContext(aUser, recommender);
+                try {
+                    recommender = getRecommender(r.getRecommender().getId());
+                }
+                catch (NoResultException e) {
+                    log.info("[{}][{}]: Recommender no longer available... skipping",
+                            username, r.getRecommender().getName());
+                    continue nextRecommender;
+                }
 
-                    if (!context.isPresent()) {
-                        log.info("No context available for recommender [{}]({}) for user [{}] "
-                                + "on document [{}]({}) in project [{}]({}) - skipping recommender",
+                if (!recommender.isEnabled()) {
+                    log.debug("[{}][{}]: Disabled - skipping", username,
+                            r.getRecommender().getName());
+                    continue nextRecommender;
+                }
+                
+                List<SourceDocument> documents = aDocuments.stream()
+                        .filter(document -> aFilter.test(document, recommender))
+                        .collect(toList());
+                
+                if (documents.isEmpty()) {
+                    continue nextRecommender;
+                }
+
+                Optional<RecommenderContext> context = getContext(aUser, recommender);
+
+                if (!context.isPresent()) {
+                    log.info("No context available for recommender [{}]({}) for user [{}] "
+                            + "in project [{}]({}) - skipping recommender",
+                            recommender.getName(), recommender.getId(), username,
+                            aProject.getName(), aProject.getId());
+                    continue nextRecommender;
+                }
+                
+                RecommenderContext ctx = context.get();
+                ctx.setUser(aUser);
+                
+                RecommendationEngineFactory<?> factory = getRecommenderFactory(recommender);
+                
+                // Check that configured layer and feature are accepted 
+                // by this type of recommender
+                if (!factory.accepts(recommender.getLayer(), recommender.getFeature())) {
+                    log.info("[{}][{}]: Recommender configured with invalid layer or feature "
+                            + "- skipping recommender", username, r.getRecommender().getName());
+                    continue nextRecommender;
+                }
+
+                // We lazily load the CASes only at this point because that allows us to skip
+                // loading them entirely if there is no enabled layer or recommender.
+                // If a CAS cannot be loaded, then we skip that document.
+                documents.removeIf(document -> !originalCasses
+                        .computeIfAbsent(document, doc -> readOriginalCas(doc, username))
+                        .isPresent());
+                
+                if (documents.isEmpty()) {
+                    continue nextRecommender;
+                }
+
+                RecommendationEngineConcurrency concurrency = factory.getConcurrency();
+                Map<Long, RecommendationEngine> engines = concurrency == THREAD_SAFE
+                        ? aSharedEngines : aEngines;
+
+                try {
+                    RecommendationEngine recommendationEngine = engines
+                            .computeIfAbsent(recommender.getId(), id -> {
+                                RecommendationEngine engine = factory.build(recommender);
+                                engine.setCancellationToken(aCancellationToken);
+                                return engine;
+                            });
+                    
+                    if (!recommendationEngine.isReadyForPrediction(ctx)) {
+                        log.info("Recommender context [{}]({}) for user [{}] in project "
+                                + "[{}]({}) is not ready for prediction - skipping recommender",
                                 recommender.getName(), recommender.getId(), username,
-                                document.getName(), document.getId(),
-                                document.getProject().getName(), document.getProject().getId());
+                                aProject.getName(), aProject.getId());
                         continue nextRecommender;
                     }
+
+                    log.trace("[{}][{}]: Generating predictions for layer [{}] on [{}] "
+                            + "documents", username, r.getRecommender().getName(),
+                            layer.getUiName(), documents.size());
                     
-                    RecommenderContext ctx = context.get();
-                    ctx.setUser(aUser);
-                    
-                    RecommendationEngineFactory<?> factory = getRecommenderFactory(recommender);
-                    
-                    // Check that configured layer and feature are accepted 
-                    // by this type of recommender
-                    if (!factory.accepts(recommender.getLayer(), recommender.getFeature())) {
-                        log.info("[{}][{}]: Recommender configured with invalid layer or feature "
-                                + "- skipping recommender", username, r.getRecommender().getName());
-                        continue nextRecommender;
+                    List<CAS> predictionCasses = aPredictionCasses.subList(0, documents.size());
+                    for (int i = 0; i < documents.size(); i++) {
+                        cloneAndMonkeyPatchCAS(aProject,
+                                originalCasses.get(documents.get(i)).get(),
+                                predictionCasses.get(i));
                     }
 
-                    // We lazily load the CAS only at this point because that allows us to skip
-                    // loading the CAS entirely if there is no enabled layer or recommender.
-                    // If the CAS cannot be loaded, then we skip to the next document.
-                    if (!originalCas.isPresent()) {
-                        try {
-                            originalCas = Optional.of(documentService.readAnnotationCas(document,
-                                    username));
-                        }
-                        catch (IOException e) {
-                            log.error(
-                                    "Cannot read annotation CAS for user [{}] of document "
-                                            + "[{}]({}) in project [{}]({}) - skipping document",
-                                    username, document.getName(), document.getId(),
-                                    document.getProject().getName(), document.getProject().getId(),
-                                    e);
-                            continue nextDocument;
+                    // Perform the actual prediction
+                    if (concurrency == SERIAL) {
+                        synchronized (factory) {
+                            recommendationEngine.predict(ctx, predictionCasses);
                         }
                     }
+                    else {
+                        recommendationEngine.predict(ctx, predictionCasses);
+                    }
 
-                    try {
-                        RecommendationEngine recommendationEngine = factory.build(recommender);
-                        
-                        if (!recommendationEngine.isReadyForPrediction(ctx)) {
-                            log.info("Recommender context [{}]({}) for user [{}] in project "
-                                    + "[{}]({}) is not ready for prediction - skipping recommender",
-                                    recommender.getName(), recommender.getId(), username,
-                                    document.getProject().getName(), document.getProject().getId());
-                            continue nextRecommender;
-                        }
-
-                        log.trace("[{}][{}]: Generating predictions for layer [{}]", username,
-                                r.getRecommender().getName(), layer.getUiName());
+                    for (int i = 0; i < documents.size(); i++) {
+                        SourceDocument document = documents.get(i);
+                        CAS originalCas = originalCasses.get(document).get();
                         
-                        cloneAndMonkeyPatchCAS(aProject, originalCas.get(), predictionCas);
-
-                        // Perform the actual prediction
-                        recommendationEngine.predict(ctx, predictionCas);
-
-                        // Extract the suggestions from the data which the recommender has written 
-                        // into the CAS
+                        // Extract the suggestions from the data which the recommender has
+                        // written into the CAS
                         List<AnnotationSuggestion> suggestions = extractSuggestions(aUser,
-                                predictionCas,
-                                document, recommender);
+                                predictionCasses.get(i), document, recommender);
                         
                         // Calculate the visibility of the suggestions. This happens via the 
-                        // original CAS which contains only the manually created annotations and 
-                        // *not* the suggestions.
+                        // original CAS which contains only the manually created annotations
+                        // and *not* the suggestions.
                         Collection<SuggestionGroup> groups = SuggestionGroup.group(suggestions);
-                        calculateVisibility(originalCas.get(), username, layer,
-                                groups, 0, originalCas.get().getDocumentText().length());
-
-                        predictions.putPredictions(layer.getId(), suggestions);
-                    }
-                    catch (Throwable e) {
-                        log.error(
-                                "Error applying recommender [{}]({}) for user [{}] to document "
-                                        + "[{}]({}) in project [{}]({}) - skipping recommender",
-                                recommender.getName(), recommender.getId(), username,
-                                document.getName(), document.getId(),
-                                document.getProject().getName(), document.getProject().getId(), e);
-                        continue nextRecommender;
+                        calculateVisibility(originalCas, username, layer, groups, 0,
+                                originalCas.getDocumentText().length());
+    
+                        aPredictions.putPredictions(layer.getId(), suggestions);
                     }
                 }
+                catch (CancellationException e) {
+                    return;
+                }
+                catch (Throwable e) {
+                    log.error(
+                            "Error applying recommender [{}]({}) for user [{}] to documents "
+                                    + "{} in project [{}]({}) - skipping recommender",
+                            recommender.getName(), recommender.getId(), username,
+                            documents.stream().map(SourceDocument::getName).collect(toList()),
+                            aProject.getName(), aProject.getId(), e);
+                    continue nextRecommender;
+                }
             }
         }
+    }
 
-        return predictions;
+    /**
+     * Reads the annotation CAS of the given document from the snapshot cache.
+     * 
+     * @return the CAS or nothing if it cannot be read.
+     */
+    private Optional<CAS> readOriginalCas(SourceDocument aDocument, String aUsername)
+    {
+        try {
+            return Optional.of(casSnapshotCache.read(aDocument, aUsername));
+        }
+        catch (IOException e) {
+            log.error("Cannot read annotation CAS for user [{}] of document [{}]({}) in project "
+                    + "[{}]({}) - skipping document", aUsername, aDocument.getName(),
+                    aDocument.getId(), aDocument.getProject().getName(),
+                    aDocument.getProject().getId(), e);
+            return Optional.empty();
+        }
     }
 
     private List<AnnotationSuggestion> extractSuggestions(User aUser, CAS aCas,
@@ -963,54 +1990,86 @@ public class RecommendationServiceImpl
                 FEATURE_NAME_SCORE_EXPLANATION_SUFFIX);
         Feature predictionFeature = predictedType.getFeatureByBaseName(FEATURE_NAME_IS_PREDICTION);
 
-        int predictionCount = 0;
-
-        Type tokenType = getType(aCas, Token.class);
+        // Index the token boundaries once instead of scanning the token index for every
+        // prediction
+        TokenIndex tokens = TokenIndex.of(aCas, getType(aCas, Token.class));
 
-        List<AnnotationSuggestion> result = new ArrayList<>();
-        int id = 0;
+        List<PredictionCandidate> candidates = new ArrayList<>();
         for (AnnotationFS annotationFS : CasUtil.select(aCas, predictedType)) {
             if (!annotationFS.getBooleanValue(predictionFeature)) {
                 continue;
             }
 
-            List<AnnotationFS> tokens = CasUtil.selectCovered(tokenType, annotationFS);
-            if (tokens.isEmpty()) {
+            int firstToken = tokens.firstCovered(annotationFS.getBegin(), annotationFS.getEnd());
+            int lastToken = tokens.lastCovered(annotationFS.getBegin(), annotationFS.getEnd());
+            if (firstToken == -1 || lastToken < firstToken) {
                 // This can happen if a recommender uses different token boundaries (e.g. if a 
                 // remote service performs its own tokenization). We might be smart here by looking
                 // for overlapping tokens instead of contained tokens.
                 continue;
             }
-            
-            AnnotationFS firstToken = tokens.get(0);
-            AnnotationFS lastToken = tokens.get(tokens.size() - 1);
 
+            candidates.add(new PredictionCandidate(annotationFS,
+                    tokens.get(firstToken).getBegin(), tokens.get(lastToken).getEnd(),
+                    annotationFS.getDoubleValue(scoreFeature)));
+        }
+        
+        // Only the best scoring labels of a span are ever looked at, so the others are dropped
+        // before they are turned into suggestions
+        List<PredictionCandidate> remaining = SuggestionPruning.prune(candidates,
+                candidate -> SuggestionPruning.span(candidate.begin, candidate.end),
+                candidate -> candidate.score, aRecommender.getMaxRecommendations(),
+                aRecommender.getMinScore());
+
+        List<AnnotationSuggestion> result = new ArrayList<>();
+        int id = 0;
+        for (PredictionCandidate candidate : remaining) {
+            AnnotationFS annotationFS = candidate.annotation;
             String label = annotationFS.getFeatureValueAsString(predictedFeature);
-            double score = annotationFS.getDoubleValue(scoreFeature);
             String scoreExplanation = annotationFS.getStringValue(scoreExplanationFeature);
             String name = aRecommender.getName();
 
             AnnotationSuggestion ao = new AnnotationSuggestion(id, aRecommender.getId(), name,
                     aRecommender.getLayer().getId(), featureName, aDocument.getName(),
-                    firstToken.getBegin(), lastToken.getEnd(), annotationFS.getCoveredText(), label,
-                    label, score, scoreExplanation);
+                    candidate.begin, candidate.end, annotationFS.getCoveredText(), label, label,
+                    candidate.score, scoreExplanation);
 
             result.add(ao);
             id++;
-
-            predictionCount++;
         }
 
         log.debug(
                 "[{}]({}) for user [{}] on document "
-                        + "[{}]({}) in project [{}]({}) generated {} predictions.",
+                        + "[{}]({}) in project [{}]({}) generated {} predictions ({} pruned).",
                 aRecommender.getName(), aRecommender.getId(), aUser.getUsername(),
                 aDocument.getName(), aDocument.getId(), aRecommender.getProject().getName(),
-                aRecommender.getProject().getId(), predictionCount);
+                aRecommender.getProject().getId(), result.size(),
+                candidates.size() - result.size());
 
         return result;
     }
     
+    /**
+     * A prediction which has been snapped to the token boundaries but which has not yet been
+     * turned into a suggestion.
+     */
+    private static final class PredictionCandidate
+    {
+        private final AnnotationFS annotation;
+        private final int begin;
+        private final int end;
+        private final double score;
+        
+        private PredictionCandidate(AnnotationFS aAnnotation, int aBegin, int aEnd,
+                double aScore)
+        {
+            annotation = aAnnotation;
+            begin = aBegin;
+            end = aEnd;
+            score = aScore;
+        }
+    }
+    
     /**
      * Goes through all AnnotationObjects and determines the visibility of each one
      */
@@ -1049,7 +2108,7 @@ public class RecommendationServiceImpl
                 }).collect(toList());
 
         // Get all the skipped/rejected entries for the current layer
-        List<LearningRecord> recordedAnnotations = learningRecordService.listRecords(aUser,
+        LearningRecordIndex recordedAnnotations = learningRecordService.getRecordIndex(aUser,
                 aLayer);
 
         for (AnnotationFeature feature : annoService.listAnnotationFeature(aLayer)) {
@@ -1126,57 +2185,45 @@ public class RecommendationServiceImpl
     }
 
     private void hideSuggestionsRejectedOrSkipped(AnnotationSuggestion aSuggestion,
-            List<LearningRecord> aRecordedRecommendations)
-    {
-        // If it was rejected or skipped, hide it
-        for (LearningRecord record : aRecordedRecommendations) {
-            boolean isAtTheSamePlace = record.getOffsetCharacterBegin() == aSuggestion
-                    .getBegin() && record.getOffsetCharacterEnd() == aSuggestion.getEnd();
-            if (isAtTheSamePlace && aSuggestion.labelEquals(record.getAnnotation())) {
-                switch (record.getUserAction()) {
-                case REJECTED:
-                    aSuggestion.hide(FLAG_REJECTED);
-                    break;
-                case SKIPPED:
-                    aSuggestion.hide(FLAG_SKIPPED);
-                    break;
-                default:
-                    // Nothing to do for the other cases. ACCEPTED annotation are filtered out
-                    // because the overlap with a created annotation and the same for CORRECTED
-                }
-                return;
-            }
+            LearningRecordIndex aRecordedRecommendations)
+    {
+        List<LearningRecord> records = aRecordedRecommendations.get(aSuggestion);
+        if (records.isEmpty()) {
+            return;
+        }
+        
+        // If it was rejected or skipped, hide it - the most recent record decides
+        switch (records.get(0).getUserAction()) {
+        case REJECTED:
+            aSuggestion.hide(FLAG_REJECTED);
+            break;
+        case SKIPPED:
+            aSuggestion.hide(FLAG_SKIPPED);
+            break;
+        default:
+            // Nothing to do for the other cases. ACCEPTED annotation are filtered out
+            // because the overlap with a created annotation and the same for CORRECTED
         }
     }
 
+    /**
+     * Copies the source CAS into the target CAS using the prediction type system of the project.
+     * If the target CAS already uses the cached prediction type system (e.g. because it has been
+     * obtained from the prediction CAS pool), it is only reset and filled. Otherwise, the target
+     * CAS is upgraded to the prediction type system.
+     */
     public CAS cloneAndMonkeyPatchCAS(Project aProject, CAS aSourceCas, CAS aTargetCas)
         throws UIMAException, IOException
     {
         try (StopWatch watch = new StopWatch(log, "adding score features")) {
-            TypeSystemDescription tsd = annoService.getFullProjectTypeSystem(aProject);
-
-            for (AnnotationLayer layer : annoService.listAnnotationLayer(aProject)) {
-                TypeDescription td = tsd.getType(layer.getName());
-
-                if (td == null) {
-                    log.trace("Could not monkey patch type [{}]", layer.getName());
-                    continue;
-                }
-
-                for (FeatureDescription feature : td.getFeatures()) {
-                    String scoreFeatureName = feature.getName() + FEATURE_NAME_SCORE_SUFFIX;
-                    td.addFeature(scoreFeatureName, "Score feature", CAS.TYPE_NAME_DOUBLE);
-                    
-                    String scoreExplanationFeatureName = feature.getName() + 
-                            FEATURE_NAME_SCORE_EXPLANATION_SUFFIX;
-                    td.addFeature(scoreExplanationFeatureName, "Score explanation feature", 
-                            CAS.TYPE_NAME_STRING);
-                }
-
-                td.addFeature(FEATURE_NAME_IS_PREDICTION, "Is Prediction", CAS.TYPE_NAME_BOOLEAN);
+            if (aSourceCas != aTargetCas
+                    && predictionTypeSystems.isPredictionCas(aProject, aTargetCas)) {
+                PredictionTypeSystemCache.copy(aSourceCas, aTargetCas);
+            }
+            else {
+                annoService.upgradeCas(aSourceCas, aTargetCas,
+                        predictionTypeSystems.getTypeSystemDescription(aProject));
             }
-
-            annoService.upgradeCas(aSourceCas, aTargetCas, tsd);
         }
 
         return aTargetCas;
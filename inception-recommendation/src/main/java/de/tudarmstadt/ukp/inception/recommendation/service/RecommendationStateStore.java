@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.reverseOrder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Predictions;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
+
+/**
+ * Holds the predictions of users who have been idle for a while on disk instead of in memory. The
+ * predictions are stored per project and user at {@code recommendation-states/<project>/<user>/}
+ * in the repository and are removed once they have been loaded again. Since the recommendation
+ * states do not survive a restart, all data left over from a previous run is removed on startup.
+ * <p>
+ * The trained models of idle users are kept in the {@link RecommenderModelStore} instead. The
+ * store is used unless {@link RecommendationProperties#getStateEvictionIdleMinutes()} is
+ * {@code 0}.
+ */
+@Component
+public class RecommendationStateStore
+    implements InitializingBean
+{
+    private static final String STATE_FOLDER = "recommendation-states";
+    private static final String PREDICTIONS_SUFFIX = ".predictions";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final RepositoryProperties repositoryProperties;
+
+    @Autowired
+    public RecommendationStateStore(RepositoryProperties aRepositoryProperties)
+    {
+        repositoryProperties = aRepositoryProperties;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        deleteRecursively(getStateFolder());
+    }
+
+    /**
+     * Writes the given predictions under the given name.
+     * 
+     * @return the number of bytes written.
+     */
+    public long savePredictions(String aUsername, long aProjectId, String aName,
+            Predictions aPredictions)
+        throws IOException
+    {
+        Path file = getUserFolder(aUsername, aProjectId).resolve(aName + PREDICTIONS_SUFFIX);
+        write(file, os -> {
+            try (ObjectOutputStream oos = new ObjectOutputStream(os)) {
+                oos.writeObject(aPredictions);
+            }
+        });
+        return Files.size(file);
+    }
+
+    /**
+     * Removes the predictions stored under the given name if there are any.
+     */
+    public void deletePredictions(String aUsername, long aProjectId, String aName)
+    {
+        deleteQuietly(getUserFolder(aUsername, aProjectId).resolve(aName + PREDICTIONS_SUFFIX));
+    }
+
+    /**
+     * Restores the predictions stored under the given name and removes them from the store.
+     * 
+     * @return the predictions or nothing if there are none or if they cannot be read.
+     */
+    public Optional<Predictions> loadPredictions(String aUsername, long aProjectId, String aName)
+    {
+        Path file = getUserFolder(aUsername, aProjectId).resolve(aName + PREDICTIONS_SUFFIX);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            return Optional.of((Predictions) ois.readObject());
+        }
+        catch (IOException | ClassNotFoundException e) {
+            log.error("[{}]: Unable to restore [{}] predictions of project [{}]", aUsername,
+                    aName, aProjectId, e);
+            return Optional.empty();
+        }
+        finally {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Removes everything stored for the given user and project.
+     */
+    public void delete(String aUsername, long aProjectId)
+    {
+        deleteRecursively(getUserFolder(aUsername, aProjectId));
+    }
+
+    private void write(Path aFile, StreamWriter aWriter) throws IOException
+    {
+        Files.createDirectories(aFile.getParent());
+
+        // Write to a temporary file first so that readers never see a partial file
+        Path tempFile = Files.createTempFile(aFile.getParent(),
+                aFile.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedOutputStream os = new BufferedOutputStream(
+                    Files.newOutputStream(tempFile))) {
+                aWriter.write(os);
+            }
+            Files.move(tempFile, aFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path getStateFolder()
+    {
+        return repositoryProperties.getPath().toPath().resolve(STATE_FOLDER);
+    }
+
+    private Path getUserFolder(String aUsername, long aProjectId)
+    {
+        return getStateFolder()
+                .resolve(String.valueOf(aProjectId))
+                .resolve(aUsername);
+    }
+
+    private void deleteRecursively(Path aFolder)
+    {
+        if (!Files.exists(aFolder)) {
+            return;
+        }
+
+        // Delete the contents before the folders containing them
+        try (Stream<Path> files = Files.walk(aFolder)) {
+            files.sorted(reverseOrder()).forEach(this::deleteQuietly);
+        }
+        catch (IOException e) {
+            log.error("Unable to delete [{}]", aFolder, e);
+        }
+    }
+
+    private void deleteQuietly(Path aFile)
+    {
+        try {
+            Files.deleteIfExists(aFile);
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete [{}]", aFile, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface StreamWriter
+    {
+        void write(BufferedOutputStream aStream) throws IOException;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparingLong;
+import static java.util.Comparator.reverseOrder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
+
+/**
+ * Keeps trained models on disk such that they do not need to be trained again after a restart.
+ * Models are stored per project, recommender, user and training data fingerprint at
+ * {@code project/<project>/recommender-models/<recommender>/<user>/<fingerprint>.model} along with
+ * the digests of the documents they have been trained on. Only the most recent model of a user and
+ * recommender is kept.
+ * <p>
+ * Only models of {@link RecommendationEngine#isModelPersistable() engines which support it} are
+ * stored. Models are only kept across restarts if
+ * {@link RecommendationProperties#isPersistModels()} is set. Otherwise, the store only holds the
+ * models of idle users which have been {@link #write written} to free memory until they are
+ * {@link #restore restored}.
+ */
+@Component
+public class RecommenderModelStore
+{
+    private static final String MODEL_FOLDER = "recommender-models";
+    private static final String MODEL_SUFFIX = ".model";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final RepositoryProperties repositoryProperties;
+    private final boolean enabled;
+
+    @Autowired
+    public RecommenderModelStore(RepositoryProperties aRepositoryProperties,
+            RecommendationProperties aProperties)
+    {
+        repositoryProperties = aRepositoryProperties;
+        enabled = aProperties.isPersistModels();
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Writes the model held by the given context. The context must have a training data
+     * fingerprint. Older models of the same user and recommender are removed.
+     */
+    public void save(String aUsername, Recommender aRecommender, RecommendationEngine aEngine,
+            RecommenderContext aContext)
+    {
+        if (!enabled || !aEngine.isModelPersistable()) {
+            return;
+        }
+
+        try {
+            write(aUsername, aRecommender, aEngine, aContext);
+            log.debug("[{}][{}]: Saved model [{}]", aUsername, aRecommender.getName(),
+                    aContext.getTrainingDataFingerprint().get());
+        }
+        catch (IOException e) {
+            log.error("[{}][{}]: Unable to save model", aUsername, aRecommender.getName(), e);
+        }
+    }
+
+    /**
+     * Writes the model held by the given context even if persisting models is disabled, e.g. to
+     * free the memory it occupies. The context must have a training data fingerprint and the
+     * engine must support persisting its models. Older models of the same user and recommender are
+     * removed. If the model is already stored, it is not written again.
+     * 
+     * @return the size of the stored model in bytes.
+     */
+    public long write(String aUsername, Recommender aRecommender, RecommendationEngine aEngine,
+            RecommenderContext aContext)
+        throws IOException
+    {
+        String fingerprint = aContext.getTrainingDataFingerprint().orElseThrow(
+            () -> new IllegalArgumentException("Context has no training data fingerprint"));
+
+        Path userFolder = getUserFolder(aRecommender, aUsername);
+        Path modelFile = userFolder.resolve(fingerprint + MODEL_SUFFIX);
+        if (Files.exists(modelFile)) {
+            return Files.size(modelFile);
+        }
+
+        Files.createDirectories(userFolder);
+
+        // Write to a temporary file first so that readers never see a partial model
+        Path tempFile = Files.createTempFile(userFolder, fingerprint, ".tmp");
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempFile)))) {
+                Map<String, String> digests = aContext.getTrainingDocumentDigests()
+                        .orElse(null);
+                os.writeInt(digests != null ? digests.size() : -1);
+                if (digests != null) {
+                    for (Map.Entry<String, String> e : digests.entrySet()) {
+                        os.writeUTF(e.getKey());
+                        os.writeUTF(e.getValue());
+                    }
+                }
+                aEngine.writeModel(aContext, os);
+            }
+            Files.move(tempFile, modelFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        try (Stream<Path> files = Files.list(userFolder)) {
+            files.filter(f -> !f.equals(modelFile))
+                    .filter(f -> f.getFileName().toString().endsWith(MODEL_SUFFIX))
+                    .forEach(this::deleteQuietly);
+        }
+
+        return Files.size(modelFile);
+    }
+
+    /**
+     * Restores a model which has been {@link #write written} before, even if persisting models is
+     * disabled. In that case, the model is removed from the store once it has been read.
+     *
+     * @return a closed context containing the model or nothing if no such model is available.
+     */
+    public Optional<RecommenderContext> restore(String aUsername, Recommender aRecommender,
+            String aFingerprint, RecommendationEngine aEngine)
+    {
+        Path modelFile = getUserFolder(aRecommender, aUsername)
+                .resolve(aFingerprint + MODEL_SUFFIX);
+        if (!Files.exists(modelFile)) {
+            return Optional.empty();
+        }
+
+        try {
+            return read(aUsername, aRecommender, modelFile, aFingerprint, aEngine);
+        }
+        finally {
+            if (!enabled) {
+                deleteQuietly(modelFile);
+            }
+        }
+    }
+
+    /**
+     * @return the size in bytes of the stored model trained on data with the given fingerprint or
+     *         {@code -1} if there is no such model.
+     */
+    public long getSize(String aUsername, Recommender aRecommender, String aFingerprint)
+    {
+        try {
+            Path modelFile = getUserFolder(aRecommender, aUsername)
+                    .resolve(aFingerprint + MODEL_SUFFIX);
+            return Files.exists(modelFile) ? Files.size(modelFile) : -1;
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Restores the model which has been trained on data with the given fingerprint.
+     *
+     * @return a closed context containing the model or nothing if no such model is available.
+     */
+    public Optional<RecommenderContext> load(String aUsername, Recommender aRecommender,
+            String aFingerprint, RecommendationEngine aEngine)
+    {
+        if (!enabled || !aEngine.isModelPersistable()) {
+            return Optional.empty();
+        }
+
+        Path modelFile = getUserFolder(aRecommender, aUsername)
+                .resolve(aFingerprint + MODEL_SUFFIX);
+        if (!Files.exists(modelFile)) {
+            return Optional.empty();
+        }
+
+        return read(aUsername, aRecommender, modelFile, aFingerprint, aEngine);
+    }
+
+    /**
+     * Restores the most recently saved model of the given user and recommender, independent of
+     * the data it has been trained on.
+     *
+     * @return a closed context containing the model or nothing if no model is available.
+     */
+    public Optional<RecommenderContext> loadLatest(String aUsername, Recommender aRecommender,
+            RecommendationEngine aEngine)
+    {
+        if (!enabled || !aEngine.isModelPersistable()) {
+            return Optional.empty();
+        }
+
+        Path userFolder = getUserFolder(aRecommender, aUsername);
+        if (!Files.isDirectory(userFolder)) {
+            return Optional.empty();
+        }
+
+        Optional<Path> modelFile;
+        try (Stream<Path> files = Files.list(userFolder)) {
+            modelFile = files
+                    .filter(f -> f.getFileName().toString().endsWith(MODEL_SUFFIX))
+                    .max(comparingLong(f -> f.toFile().lastModified()));
+        }
+        catch (IOException e) {
+            log.error("[{}][{}]: Unable to list models", aUsername, aRecommender.getName(), e);
+            return Optional.empty();
+        }
+
+        if (!modelFile.isPresent()) {
+            return Optional.empty();
+        }
+
+        String fileName = modelFile.get().getFileName().toString();
+        String fingerprint = fileName.substring(0, fileName.length() - MODEL_SUFFIX.length());
+        return read(aUsername, aRecommender, modelFile.get(), fingerprint, aEngine);
+    }
+
+    /**
+     * Removes all models of the given recommender.
+     */
+    public void delete(Recommender aRecommender)
+    {
+        Path recommenderFolder = getRecommenderFolder(aRecommender);
+        if (Files.exists(recommenderFolder)) {
+            deleteRecursively(recommenderFolder);
+            log.debug("Deleted models of recommender [{}]({})", aRecommender.getName(),
+                    aRecommender.getId());
+        }
+    }
+
+    /**
+     * Removes the models of the given user in the given project unless persisting models is
+     * enabled, i.e. the models which have only been {@link #write written} to free memory.
+     */
+    public void discard(String aUsername, long aProjectId)
+    {
+        if (enabled) {
+            return;
+        }
+
+        Path modelFolder = getProjectFolder(aProjectId).resolve(MODEL_FOLDER);
+        if (!Files.isDirectory(modelFolder)) {
+            return;
+        }
+
+        try (Stream<Path> recommenderFolders = Files.list(modelFolder)) {
+            recommenderFolders.map(f -> f.resolve(aUsername))
+                    .filter(Files::isDirectory)
+                    .forEach(this::deleteRecursively);
+        }
+        catch (IOException e) {
+            log.error("[{}]: Unable to delete models of project [{}]", aUsername, aProjectId, e);
+        }
+    }
+
+    private Optional<RecommenderContext> read(String aUsername, Recommender aRecommender,
+            Path aModelFile, String aFingerprint, RecommendationEngine aEngine)
+    {
+        long start = System.currentTimeMillis();
+        RecommenderContext context = new RecommenderContext();
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(aModelFile)))) {
+            int digestCount = is.readInt();
+            if (digestCount >= 0) {
+                Map<String, String> digests = new LinkedHashMap<>();
+                for (int i = 0; i < digestCount; i++) {
+                    digests.put(is.readUTF(), is.readUTF());
+                }
+                context.setTrainingDocumentDigests(digests);
+            }
+            aEngine.readModel(context, is);
+        }
+        catch (IOException e) {
+            log.error("[{}][{}]: Unable to restore model [{}] - discarding it", aUsername,
+                    aRecommender.getName(), aFingerprint, e);
+            deleteQuietly(aModelFile);
+            return Optional.empty();
+        }
+
+        context.setTrainingDataFingerprint(aFingerprint);
+        context.close();
+
+        log.info("[{}][{}]: Restored model [{}] ({} ms)", aUsername, aRecommender.getName(),
+                aFingerprint, System.currentTimeMillis() - start);
+
+        return Optional.of(context);
+    }
+
+    private Path getProjectFolder(long aProjectId)
+    {
+        return repositoryProperties.getPath().toPath()
+                .resolve("project")
+                .resolve(String.valueOf(aProjectId));
+    }
+
+    private Path getRecommenderFolder(Recommender aRecommender)
+    {
+        return getProjectFolder(aRecommender.getProject().getId())
+                .resolve(MODEL_FOLDER)
+                .resolve(String.valueOf(aRecommender.getId()));
+    }
+
+    private Path getUserFolder(Recommender aRecommender, String aUsername)
+    {
+        return getRecommenderFolder(aRecommender).resolve(aUsername);
+    }
+
+    private void deleteRecursively(Path aFolder)
+    {
+        // Delete the contents before the folders containing them
+        try (Stream<Path> files = Files.walk(aFolder)) {
+            files.sorted(reverseOrder()).forEach(this::deleteQuietly);
+        }
+        catch (IOException e) {
+            log.error("Unable to delete [{}]", aFolder, e);
+        }
+    }
+
+    private void deleteQuietly(Path aFile)
+    {
+        try {
+            Files.deleteIfExists(aFile);
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete [{}]", aFile, e);
+        }
+    }
+}
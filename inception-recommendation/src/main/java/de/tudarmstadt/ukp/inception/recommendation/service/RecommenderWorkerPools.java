@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.inception.scheduling.config.SchedulingProperties;
+
+/**
+ * Owns the worker threads on which the tasks of all users train and evaluate their recommenders.
+ * The number of threads bounds the number of models which are trained at the same time,
+ * independent of the number of tasks running.
+ */
+@Component
+public class RecommenderWorkerPools
+    implements DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ExecutorService trainingExecutor;
+    private final ExecutorService evaluationExecutor;
+
+    @Autowired
+    public RecommenderWorkerPools(SchedulingProperties aProperties)
+    {
+        trainingExecutor = newPool("training-worker-%d", aProperties.getTrainingThreads());
+        evaluationExecutor = newPool("evaluation-worker-%d", aProperties.getEvaluationThreads());
+    }
+
+    public ExecutorService getTrainingExecutor()
+    {
+        return trainingExecutor;
+    }
+
+    public ExecutorService getEvaluationExecutor()
+    {
+        return evaluationExecutor;
+    }
+
+    @Override
+    public void destroy()
+    {
+        log.info("Shutting down recommender worker pools");
+        trainingExecutor.shutdownNow();
+        evaluationExecutor.shutdownNow();
+    }
+
+    private static ExecutorService newPool(String aNamingPattern, int aThreads)
+    {
+        return Executors.newFixedThreadPool(Math.max(1, aThreads),
+                new BasicThreadFactory.Builder()
+                        .namingPattern(aNamingPattern)
+                        .daemon(true)
+                        .build());
+    }
+}
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.inception.recommendation.tasks;
 
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +30,10 @@ import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.inception.recommendation.api.RecommendationService;
 import de.tudarmstadt.ukp.inception.recommendation.api.model.Predictions;
+import de.tudarmstadt.ukp.inception.recommendation.service.CasSnapshotCache;
+import de.tudarmstadt.ukp.inception.scheduling.SchedulingService;
 import de.tudarmstadt.ukp.inception.scheduling.Task;
+import de.tudarmstadt.ukp.inception.scheduling.TaskPriority;
 
 /**
  * This consumer predicts new annotations for a given annotation layer, if a classification tool for
@@ -42,12 +46,20 @@ public class PredictionTask
 
     private @Autowired RecommendationService recommendationService;
     private @Autowired DocumentService documentService;
+    private @Autowired CasSnapshotCache casSnapshotCache;
+    private @Autowired SchedulingService schedulingService;
 
     public PredictionTask(User aUser, Project aProject, String aTrigger)
     {
         super(aUser, aProject, aTrigger);
     }
 
+    @Override
+    public TaskPriority getPriority()
+    {
+        return TaskPriority.INTERACTIVE;
+    }
+
     @Override
     public void run()
     {
@@ -56,16 +68,53 @@ public class PredictionTask
         Project project = getProject();
         List<SourceDocument> docs = documentService.listSourceDocuments(project);
 
-        log.debug("[{}][{}]: Starting prediction for project [{}] triggered by [{}]...", getId(),
-                user.getUsername(), project, getTrigger());
+        // Predictions are scheduled whenever a recommender has been trained, so a run may still
+        // be in progress when the next one starts. The next run builds on the predictions of the
+        // current one, but instead of blocking a worker thread until they are published, it asks
+        // the current run to schedule a follow-up run once it is complete.
+        Lock lock = recommendationService.getPredictionLock(user, project);
+        if (!lock.tryLock()) {
+            recommendationService.requestPrediction(user, project);
+            // The current run may have completed before the request was made
+            if (!lock.tryLock()) {
+                log.debug("[{}][{}]: Prediction in progress - deferring prediction triggered "
+                        + "by [{}]", getId(), user.getUsername(), getTrigger());
+                return;
+            }
+        }
         
-        long startTime = System.currentTimeMillis();
-
-        Predictions predictions = recommendationService.computePredictions(user, project, docs);
+        try {
+            // This run covers any run requested so far
+            recommendationService.consumePredictionRequest(user, project);
+            
+            log.debug("[{}][{}]: Starting prediction for project [{}] triggered by [{}]...",
+                    getId(), user.getUsername(), project, getTrigger());
+            
+            long startTime = System.currentTimeMillis();
+            
+            Predictions predictions = recommendationService.computeIncrementalPredictions(user,
+                    project, docs, getCancellationToken());
+            
+            // Incomplete predictions must not replace the current ones
+            if (isCancelled()) {
+                log.info("[{}][{}]: Prediction cancelled ({} ms)", getId(), user.getUsername(),
+                        (System.currentTimeMillis() - startTime));
+                return;
+            }
+            
+            log.debug("[{}][{}]: Prediction complete ({} ms, snapshot cache hit rate [{}])",
+                    getId(), user.getUsername(), (System.currentTimeMillis() - startTime),
+                    String.format("%.2f", casSnapshotCache.getHitRate()));
+            
+            recommendationService.putIncomingPredictions(user, project, predictions);
+        }
+        finally {
+            lock.unlock();
+        }
         
-        log.debug("[{}][{}]: Prediction complete ({} ms)", getId(), user.getUsername(),
-                (System.currentTimeMillis() - startTime));
-
-        recommendationService.putIncomingPredictions(user, project, predictions);
+        if (recommendationService.consumePredictionRequest(user, project) && !isCancelled()) {
+            schedulingService.enqueue(new PredictionTask(user, project,
+                    String.format("PredictionTask %s requested another run", getId())));
+        }
     }
 }
@@ -17,14 +17,22 @@
  */
 package de.tudarmstadt.ukp.inception.recommendation.tasks;
 
+import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency.SERIAL;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 import javax.persistence.NoResultException;
 
 import org.apache.commons.lang3.concurrent.LazyInitializer;
-import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,8 +54,11 @@ import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactory;
 import de.tudarmstadt.ukp.inception.recommendation.event.RecommenderEvaluationResultEvent;
+import de.tudarmstadt.ukp.inception.recommendation.service.CasSnapshotCache;
+import de.tudarmstadt.ukp.inception.recommendation.service.RecommenderWorkerPools;
 import de.tudarmstadt.ukp.inception.scheduling.SchedulingService;
 import de.tudarmstadt.ukp.inception.scheduling.Task;
+import de.tudarmstadt.ukp.inception.scheduling.TaskPriority;
 
 /**
  * This task evaluates all available classification tools for all annotation layers of the current
@@ -64,12 +75,20 @@ public class SelectionTask
     private @Autowired RecommendationService recommendationService;
     private @Autowired ApplicationEventPublisher appEventPublisher;
     private @Autowired SchedulingService schedulingService;
+    private @Autowired CasSnapshotCache casSnapshotCache;
+    private @Autowired RecommenderWorkerPools workerPools;
 
     public SelectionTask(Project aProject, User aUser, String aTrigger)
     {
         super(aUser, aProject, aTrigger);
     }
 
+    @Override
+    public TaskPriority getPriority()
+    {
+        return TaskPriority.BACKGROUND;
+    }
+
     @Override
     public void run()
     {
@@ -89,125 +108,206 @@ public class SelectionTask
             }
         };
 
-        for (AnnotationLayer layer : annoService.listAnnotationLayer(getProject())) {
-            if (!layer.isEnabled()) {
-                continue;
-            }
-            
-            List<Recommender> recommenders = recommendationService.listRecommenders(layer);
-            if (recommenders == null || recommenders.isEmpty()) {
-                log.debug("[{}][{}]: No recommenders, skipping selection.", userName,
-                        layer.getUiName());
-                continue;
-            }
-    
-            List<EvaluatedRecommender> activeRecommenders = new ArrayList<>();
-            
-            for (Recommender r : recommenders) {
-                // Make sure we have the latest recommender config from the DB - the one from
-                // the active recommenders list may be outdated
-                Recommender recommender;
-                try {
-                    recommender = recommendationService.getRecommender(r.getId());
-                }
-                catch (NoResultException e) {
-                    log.info("[{}][{}]: Recommender no longer available... skipping",
-                            user.getUsername(), r.getName());
+        // Recommenders are evaluated concurrently on the workers shared by the selection tasks of
+        // all users. The active recommenders of a layer are updated as soon as all recommenders
+        // of the layer have been evaluated.
+        ExecutorService executor = workerPools.getEvaluationExecutor();
+        try {
+            List<CompletableFuture<Void>> layers = new ArrayList<>();
+            for (AnnotationLayer layer : annoService.listAnnotationLayer(getProject())) {
+                if (!layer.isEnabled()) {
                     continue;
                 }
-
-                if (!recommender.isEnabled()) {
-                    log.debug("[{}][{}]: Disabled - skipping", userName, recommender.getName());
+                
+                List<Recommender> recommenders = recommendationService.listRecommenders(layer);
+                if (recommenders == null || recommenders.isEmpty()) {
+                    log.debug("[{}][{}]: No recommenders, skipping selection.", userName,
+                            layer.getUiName());
                     continue;
                 }
-
-                String recommenderName = recommender.getName();
-                
-                try {
-                    long start = System.currentTimeMillis();
-                    RecommendationEngineFactory factory = recommendationService
-                        .getRecommenderFactory(recommender);
-                    
-                    if (factory == null) {
-                        log.error("[{}][{}]: No recommender factory available for [{}]",
-                                user.getUsername(), r.getName(), r.getTool());
-                        continue;
+        
+                List<CompletableFuture<Optional<EvaluatedRecommender>>> candidates =
+                        new ArrayList<>();
+                for (Recommender r : recommenders) {
+                    // Make sure we have the latest recommender config from the DB - the one from
+                    // the active recommenders list may be outdated
+                    Recommender recommender;
+                    try {
+                        recommender = recommendationService.getRecommender(r.getId());
                     }
-                    
-                    if (!factory.accepts(recommender.getLayer(), recommender.getFeature())) {
-                        log.info("[{}][{}]: Recommender configured with invalid layer or feature "
-                                + "- skipping recommender", user.getUsername(), r.getName());
+                    catch (NoResultException e) {
+                        log.info("[{}][{}]: Recommender no longer available... skipping",
+                                user.getUsername(), r.getName());
                         continue;
                     }
-                    
-                    RecommendationEngine recommendationEngine = factory.build(recommender);
-
-                    if (recommender.isAlwaysSelected()) {
-                        log.debug("[{}][{}]: Activating [{}] without evaluating - always selected",
-                                userName, recommenderName, recommenderName);
-                        activeRecommenders.add(
-                                new EvaluatedRecommender(recommender, EvaluationResult.skipped()));
-                        continue;
-                    } else if (!factory.isEvaluable()) {
-                        log.debug("[{}][{}]: Activating [{}] without evaluating - not evaluable",
-                                userName, recommenderName, recommenderName);
-                        activeRecommenders.add(
-                                new EvaluatedRecommender(recommender, EvaluationResult.skipped()));
+    
+                    if (!recommender.isEnabled()) {
+                        log.debug("[{}][{}]: Disabled - skipping", userName,
+                                recommender.getName());
                         continue;
                     }
     
-                    log.info("[{}][{}]: Evaluating...", userName, recommenderName);
-
-                    DataSplitter splitter = new PercentageBasedSplitter(0.8, 10);
-                    EvaluationResult result = recommendationEngine.evaluate(casses.get(), splitter);
-                    double score = result.computeF1Score();
-
-                    Double threshold = recommender.getThreshold();
-                    boolean activated;
-                    if (score >= threshold) {
-                        activated = true;
-                        activeRecommenders.add(new EvaluatedRecommender(recommender, result));
-                        log.info("[{}][{}]: Activated ({} is above threshold {})",
-                                user.getUsername(), recommenderName, score,
-                                threshold);
-                    }
-                    else {
-                        activated = false;
-                        log.info("[{}][{}]: Not activated ({} is not above threshold {})",
-                                user.getUsername(), recommenderName, score,
-                                threshold);
-                    }
-
-                    appEventPublisher.publishEvent(new RecommenderEvaluationResultEvent(this,
-                            recommender, user.getUsername(), result,
-                            System.currentTimeMillis() - start, activated));
-                }
-                catch (Throwable e) {
-                    log.error("[{}][{}]: Failed", user.getUsername(), recommenderName, e);
+                    candidates.add(CompletableFuture.supplyAsync(
+                            () -> evaluate(recommender, casses), executor));
                 }
+                
+                layers.add(CompletableFuture
+                        .allOf(candidates.toArray(new CompletableFuture[candidates.size()]))
+                        .thenRun(() -> activate(layer, candidates)));
             }
-    
-            recommendationService.setActiveRecommenders(user, layer, activeRecommenders);
+            
+            CompletableFuture.allOf(layers.toArray(new CompletableFuture[layers.size()])).join();
+        }
+        catch (CompletionException e) {
+            log.error("[{}]: Selection failed", userName, e.getCause());
+        }
+
+        if (isCancelled()) {
+            log.info("[{}]: Selection cancelled - not scheduling training", userName);
+            return;
+        }
+
+        if (isStale()) {
+            log.info("[{}]: Selection superseded by a newer task - not scheduling training",
+                    userName);
+            return;
         }
 
         schedulingService.enqueue(new TrainingTask(user, getProject(),
                 "SelectionTask after activating recommenders"));
     }
 
+    /**
+     * Evaluates the given recommender. This method is called concurrently for the recommenders of
+     * the project.
+     * 
+     * @return the recommender including its evaluation result if it is to be activated.
+     */
+    private Optional<EvaluatedRecommender> evaluate(Recommender aRecommender,
+            LazyInitializer<List<CAS>> aCasses)
+    {
+        String userName = getUser().getUsername();
+        String recommenderName = aRecommender.getName();
+        
+        if (isCancelled()) {
+            return Optional.empty();
+        }
+        
+        try {
+            long start = System.currentTimeMillis();
+            RecommendationEngineFactory factory = recommendationService
+                .getRecommenderFactory(aRecommender);
+            
+            if (factory == null) {
+                log.error("[{}][{}]: No recommender factory available for [{}]", userName,
+                        recommenderName, aRecommender.getTool());
+                return Optional.empty();
+            }
+            
+            if (!factory.accepts(aRecommender.getLayer(), aRecommender.getFeature())) {
+                log.info("[{}][{}]: Recommender configured with invalid layer or feature "
+                        + "- skipping recommender", userName, recommenderName);
+                return Optional.empty();
+            }
+            
+            RecommendationEngine recommendationEngine = factory.build(aRecommender);
+            recommendationEngine.setCancellationToken(getCancellationToken());
+
+            if (aRecommender.isAlwaysSelected()) {
+                log.debug("[{}][{}]: Activating [{}] without evaluating - always selected",
+                        userName, recommenderName, recommenderName);
+                return Optional.of(
+                        new EvaluatedRecommender(aRecommender, EvaluationResult.skipped()));
+            } else if (!factory.isEvaluable()) {
+                log.debug("[{}][{}]: Activating [{}] without evaluating - not evaluable",
+                        userName, recommenderName, recommenderName);
+                return Optional.of(
+                        new EvaluatedRecommender(aRecommender, EvaluationResult.skipped()));
+            }
+
+            log.info("[{}][{}]: Evaluating...", userName, recommenderName);
+
+            DataSplitter splitter = new PercentageBasedSplitter(0.8, 10);
+            EvaluationResult result;
+            // Each evaluation builds its own engine and model, so thread-safe and per-thread
+            // engines can be evaluated concurrently
+            if (factory.getConcurrency() == SERIAL) {
+                // Engines which do not support concurrent use are evaluated one after the other
+                synchronized (factory) {
+                    result = recommendationEngine.evaluate(aCasses.get(), splitter);
+                }
+            }
+            else {
+                result = recommendationEngine.evaluate(aCasses.get(), splitter);
+            }
+            double score = result.computeF1Score();
+
+            Double threshold = aRecommender.getThreshold();
+            boolean activated;
+            if (score >= threshold) {
+                activated = true;
+                log.info("[{}][{}]: Activated ({} is above threshold {})", userName,
+                        recommenderName, score, threshold);
+            }
+            else {
+                activated = false;
+                log.info("[{}][{}]: Not activated ({} is not above threshold {})", userName,
+                        recommenderName, score, threshold);
+            }
+
+            appEventPublisher.publishEvent(new RecommenderEvaluationResultEvent(this,
+                    aRecommender, userName, result, System.currentTimeMillis() - start,
+                    activated));
+            
+            return activated ? Optional.of(new EvaluatedRecommender(aRecommender, result))
+                    : Optional.empty();
+        }
+        catch (CancellationException e) {
+            return Optional.empty();
+        }
+        catch (Throwable e) {
+            log.error("[{}][{}]: Failed", userName, recommenderName, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Activates the recommenders of the given layer which passed the evaluation. The order of the
+     * active recommenders follows the order of the candidates.
+     */
+    private void activate(AnnotationLayer aLayer,
+            List<CompletableFuture<Optional<EvaluatedRecommender>>> aCandidates)
+    {
+        // A partially evaluated layer must not replace the active recommenders
+        if (isCancelled()) {
+            return;
+        }
+        
+        List<EvaluatedRecommender> activeRecommenders = aCandidates.stream()
+                .map(CompletableFuture::join)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(toList());
+        
+        recommendationService.setActiveRecommenders(getUser(), aLayer, activeRecommenders);
+    }
+
     private List<CAS> readCasses(Project aProject, String aUserName)
     {
         List<CAS> casses = new ArrayList<>();
         for (SourceDocument document : documentService.listSourceDocuments(aProject)) {
             try {
-                CAS cas = documentService.readAnnotationCas(document, aUserName);
-                annoService.upgradeCasIfRequired(cas, document, aUserName);
-                casses.add(cas);
+                // The snapshot has already been upgraded to the current type system
+                casses.add(casSnapshotCache.read(document, aUserName));
             } catch (IOException e) {
                 log.error("Cannot read annotation CAS.", e);
-            } catch (UIMAException e) {
-                log.error("Cannot upgrade annotation CAS.", e);
             }
         }
-        return casses;
+        log.debug("[{}][{}]: Read [{}] CASes (snapshot cache: [{}] hits, [{}] loads, "
+                + "hit rate [{}])", getId(), aUserName, casses.size(),
+                casSnapshotCache.getHitCount(), casSnapshotCache.getLoadCount(),
+                String.format("%.2f", casSnapshotCache.getHitRate()));
+        // The list is shared by all concurrently evaluated recommenders
+        return unmodifiableList(casses);
     }
 }
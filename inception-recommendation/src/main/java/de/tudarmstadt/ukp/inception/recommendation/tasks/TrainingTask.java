@@ -19,12 +19,26 @@ package de.tudarmstadt.ukp.inception.recommendation.tasks;
 
 import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineCapability.TRAINING_NOT_SUPPORTED;
 import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineCapability.TRAINING_REQUIRED;
+import static de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineConcurrency.SERIAL;
+import static java.util.Collections.emptyMap;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.persistence.NoResultException;
 
@@ -50,9 +64,16 @@ import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineCapability;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngineFactory;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationException;
 import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.TrainingDataChanges;
+import de.tudarmstadt.ukp.inception.recommendation.service.CasSnapshotCache;
+import de.tudarmstadt.ukp.inception.recommendation.service.RecommenderModelStore;
+import de.tudarmstadt.ukp.inception.recommendation.service.RecommenderWorkerPools;
+import de.tudarmstadt.ukp.inception.recommendation.util.TrainingDataFingerprint;
 import de.tudarmstadt.ukp.inception.scheduling.SchedulingService;
 import de.tudarmstadt.ukp.inception.scheduling.Task;
+import de.tudarmstadt.ukp.inception.scheduling.TaskPriority;
 
 /**
  * This consumer trains a new classifier model, if a classification tool was selected before.
@@ -66,11 +87,35 @@ public class TrainingTask
     private @Autowired DocumentService documentService;
     private @Autowired RecommendationService recommendationService;
     private @Autowired SchedulingService schedulingService;
+    private @Autowired CasSnapshotCache casSnapshotCache;
+    private @Autowired RecommenderModelStore modelStore;
+    private @Autowired RecommenderWorkerPools workerPools;
+
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger sharedCount = new AtomicInteger();
+    private final AtomicBoolean predictionScheduled = new AtomicBoolean();
 
     public TrainingTask(User aUser, Project aProject, String aTrigger)
     {
         super(aUser, aProject, aTrigger);
     }
+
+    @Override
+    public TaskPriority getPriority()
+    {
+        return TaskPriority.BACKGROUND;
+    }
+
+    /**
+     * A training is also superseded by a newly scheduled selection for the same user and project
+     * since the selection is followed by a training of its own.
+     */
+    @Override
+    public boolean isSupersededBy(Task aTask)
+    {
+        return super.isSupersededBy(aTask) || (aTask instanceof SelectionTask
+                && getUser().equals(aTask.getUser()) && getProject().equals(aTask.getProject()));
+    }
     
     @Override
     public void run()
@@ -81,144 +126,444 @@ public class TrainingTask
         log.debug("[{}][{}]: Starting training for project [{}] triggered by [{}]...",
                 getId(), user.getUsername(),project, getTrigger());
 
-        // Read the CASes only when they are accessed the first time. This allows us to skip reading
-        // the CASes in case that no layer / recommender is available or if no recommender requires
-        // evaluation.
-        LazyInitializer<List<TrainingDocument>> casses =
+        // List the documents only when they are accessed the first time. This allows us to skip
+        // listing the documents in case that no layer / recommender is available or if no
+        // recommender requires training. The CASes themselves are only read while selecting the
+        // training documents and during training, so they need not all be in memory at once.
+        LazyInitializer<List<TrainingDocument>> documents =
                 new LazyInitializer<List<TrainingDocument>>()
         {
             @Override
             protected List<TrainingDocument> initialize()
             {
-                return readCasses(project, user);
+                return listDocuments(project, user);
             }
         };
         
-        for (AnnotationLayer layer : annoService.listAnnotationLayer(project)) {
-            if (!layer.isEnabled()) {
-                continue;
-            }
-            
-            List<EvaluatedRecommender> recommenders = recommendationService
-                    .getActiveRecommenders(user, layer);
-    
-            if (recommenders.isEmpty()) {
-                log.debug("[{}][{}][{}]: No active recommenders, skipping training.",
-                        getId(), user.getUsername(), layer.getUiName());
-                continue;
-            }
-            
-            for (EvaluatedRecommender r : recommenders) {
-                // Make sure we have the latest recommender config from the DB - the one from the
-                // active recommenders list may be outdated
-                Recommender recommender;
-                try {
-                    recommender = recommendationService.getRecommender(r.getRecommender().getId());
-                }
-                catch (NoResultException e) {
-                    log.info("[{}][{}][{}]: Recommender no longer available... skipping",
-                            getId(), user.getUsername(), r.getRecommender().getName());
+        // Recommenders are trained concurrently on the workers shared by the training tasks of all
+        // users. The CASes are shared by all of them and are not modified. The context of each
+        // recommender is published as soon as it has been trained and a prediction is scheduled
+        // for it, so fast recommenders do not wait for slow ones. Recommenders whose engines do
+        // not support concurrent use are trained one after the other on a single worker.
+        ExecutorService executor = workerPools.getTrainingExecutor();
+        try {
+            List<CompletableFuture<Void>> trainings = new ArrayList<>();
+            List<Recommender> serialRecommenders = new ArrayList<>();
+            for (AnnotationLayer layer : annoService.listAnnotationLayer(project)) {
+                if (!layer.isEnabled()) {
                     continue;
                 }
                 
-                if (!recommender.isEnabled()) {
-                    log.debug("[{}][{}][{}]: Disabled - skipping", user.getUsername(),
-                            getId(), r.getRecommender().getName());
+                List<EvaluatedRecommender> recommenders = recommendationService
+                        .getActiveRecommenders(user, layer);
+        
+                if (recommenders.isEmpty()) {
+                    log.debug("[{}][{}][{}]: No active recommenders, skipping training.",
+                            getId(), user.getUsername(), layer.getUiName());
                     continue;
                 }
                 
-                long startTime = System.currentTimeMillis();
-                
-                try {
-                    RecommendationEngineFactory factory = recommendationService
-                            .getRecommenderFactory(recommender);
-
-                    if (!factory.accepts(recommender.getLayer(), recommender.getFeature())) {
-                        log.info("[{}][{}][{}]: Recommender configured with invalid layer or feature "
-                                        + "- skipping recommender",
+                for (EvaluatedRecommender r : recommenders) {
+                    // Make sure we have the latest recommender config from the DB - the one from
+                    // the active recommenders list may be outdated
+                    Recommender recommender;
+                    try {
+                        recommender = recommendationService
+                                .getRecommender(r.getRecommender().getId());
+                    }
+                    catch (NoResultException e) {
+                        log.info("[{}][{}][{}]: Recommender no longer available... skipping",
                                 getId(), user.getUsername(), r.getRecommender().getName());
                         continue;
                     }
                     
-                    RecommendationEngine recommendationEngine = factory.build(recommender);
-                   
-                    RecommenderContext ctx = recommendationEngine
-                            .newContext(recommendationService.getContext(user, recommender)
-                                    .orElse(RecommenderContext.EMPTY_CONTEXT));
-                    ctx.setUser(user);
-                    
-                    RecommendationEngineCapability capability = recommendationEngine
-                            .getTrainingCapability();
-                    
-                    // If engine does not support training, mark engine ready and skip to prediction
-                    if (capability == TRAINING_NOT_SUPPORTED) {
-                        log.info("[{}][{}][{}]: Engine does not support training",
-                                getId(), user.getUsername(), recommender.getName());
-                        ctx.close();
-                        recommendationService.putContext(user, recommender, ctx);
+                    if (!recommender.isEnabled()) {
+                        log.debug("[{}][{}][{}]: Disabled - skipping", user.getUsername(),
+                                getId(), r.getRecommender().getName());
                         continue;
                     }
                     
-                    List<CAS> cassesForTraining = casses.get()
-                            .stream()
-                            .filter(e -> !recommender.getStatesIgnoredForTraining()
-                                    .contains(e.state))
-                            .filter(e -> containsTargetTypeAndFeature(recommender, e.cas))
-                            .map(e -> e.cas)
-                            .collect(Collectors.toList());
-
-                    // If no data for training is available, but the engine requires training, 
-                    // do not mark as ready
-                    if (cassesForTraining.isEmpty() && capability == TRAINING_REQUIRED) {
-                        log.info("[{}][{}][{}]: There are no annotations available to train on",
-                                getId(), user.getUsername(), recommender.getName());
+                    RecommendationEngineFactory factory = recommendationService
+                            .getRecommenderFactory(recommender);
+                    if (factory != null && factory.getConcurrency() == SERIAL) {
+                        serialRecommenders.add(recommender);
                         continue;
                     }
                     
-                    log.info("[{}][{}][{}]: Training model on [{}] out of [{}] documents ...",
-                            getId(), user.getUsername(), recommender.getName(),
-                            cassesForTraining.size(), casses.get().size());
-                    
-                    recommendationEngine.train(ctx, cassesForTraining);
-                    
-                    log.info("[{}][{}][{}]: Training complete ({} ms)", getId(),
-                            user.getUsername(), recommender.getName(),
-                            (System.currentTimeMillis() - startTime));
-                    
-                    ctx.close();
-                    recommendationService.putContext(user, recommender, ctx);
+                    trainings.add(CompletableFuture.runAsync(
+                            () -> train(recommender, documents), executor));
+                }
+            }
+            
+            if (!serialRecommenders.isEmpty()) {
+                trainings.add(CompletableFuture.runAsync(
+                        () -> serialRecommenders.forEach(r -> train(r, documents)), executor));
+            }
+            
+            CompletableFuture.allOf(trainings.toArray(new CompletableFuture[trainings.size()]))
+                    .join();
+        }
+        catch (CompletionException e) {
+            log.error("[{}][{}]: Training failed", getId(), user.getUsername(), e.getCause());
+        }
+
+        if (skippedCount.get() > 0) {
+            log.info("[{}][{}]: Skipped training of [{}] recommenders with unchanged training "
+                    + "data", getId(), user.getUsername(), skippedCount);
+        }
+
+        if (sharedCount.get() > 0) {
+            log.info("[{}][{}]: Skipped training of [{}] recommenders with models shared by "
+                    + "other users", getId(), user.getUsername(), sharedCount);
+        }
+
+        log.debug("[{}][{}]: CAS snapshot cache: [{}] hits, [{}] loads, hit rate [{}]", getId(),
+                user.getUsername(), casSnapshotCache.getHitCount(),
+                casSnapshotCache.getLoadCount(),
+                String.format("%.2f", casSnapshotCache.getHitRate()));
+
+        if (isCancelled()) {
+            log.info("[{}][{}]: Training cancelled - not scheduling prediction", getId(),
+                    user.getUsername());
+            return;
+        }
+
+        if (isStale()) {
+            log.info("[{}][{}]: Training superseded by a newer task - not scheduling prediction",
+                    getId(), user.getUsername());
+            return;
+        }
+
+        // Changed documents still need to be predicted even if no recommender has been trained
+        if (!predictionScheduled.get()) {
+            schedulingService.enqueue(new PredictionTask(user, getProject(),
+                    String.format("TrainingTask %s complete", getId())));
+        }
+    }
+
+    /**
+     * Publishes the given context and schedules a prediction such that the suggestions of the
+     * recommender become available without waiting for the other recommenders. Scheduled
+     * predictions are coalesced, so recommenders which finish at about the same time share a
+     * prediction run.
+     */
+    private void publishContext(Recommender aRecommender, RecommenderContext aContext)
+    {
+        recommendationService.putContext(getUser(), aRecommender, aContext);
+        
+        if (isCancelled() || isStale()) {
+            return;
+        }
+        
+        predictionScheduled.set(true);
+        schedulingService.enqueue(new PredictionTask(getUser(), getProject(),
+                String.format("TrainingTask %s trained [%s]", getId(), aRecommender.getName())));
+    }
+
+    /**
+     * Trains the given recommender and publishes its context. This method is called concurrently
+     * for the active recommenders of the user.
+     */
+    private void train(Recommender aRecommender,
+            LazyInitializer<List<TrainingDocument>> aDocuments)
+    {
+        User user = getUser();
+        
+        if (isCancelled()) {
+            return;
+        }
+        
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            RecommendationEngineFactory factory = recommendationService
+                    .getRecommenderFactory(aRecommender);
+
+            if (!factory.accepts(aRecommender.getLayer(), aRecommender.getFeature())) {
+                log.info("[{}][{}][{}]: Recommender configured with invalid layer or feature "
+                                + "- skipping recommender",
+                        getId(), user.getUsername(), aRecommender.getName());
+                return;
+            }
+            
+            RecommendationEngine recommendationEngine = factory.build(aRecommender);
+            recommendationEngine.setCancellationToken(getCancellationToken());
+            
+            // Data such as gazeteers which the engine trains on besides the documents is part of
+            // the fingerprint, so the model is trained again when that data changes
+            String additionalDataDigest = TrainingDataFingerprint.digest(recommendationEngine);
+           
+            Optional<RecommenderContext> existingCtx = recommendationService
+                    .getContext(user, aRecommender);
+            RecommenderContext ctx = recommendationEngine
+                    .newContext(existingCtx.orElse(RecommenderContext.EMPTY_CONTEXT));
+            ctx.setUser(user);
+            
+            RecommendationEngineCapability capability = recommendationEngine
+                    .getTrainingCapability();
+            
+            // If engine does not support training, mark engine ready and skip to prediction
+            if (capability == TRAINING_NOT_SUPPORTED) {
+                log.info("[{}][{}][{}]: Engine does not support training",
+                        getId(), user.getUsername(), aRecommender.getName());
+                // The context does not depend on any data, so all users can share it
+                String fingerprint = TrainingDataFingerprint.compute(aRecommender,
+                        additionalDataDigest, Collections.emptyList());
+                // Publishing the context again would mark the recommender as retrained and
+                // cause all documents to be predicted again
+                if (existingCtx.flatMap(RecommenderContext::getTrainingDataFingerprint)
+                        .map(fingerprint::equals).orElse(false)) {
+                    skippedCount.incrementAndGet();
+                    log.debug("[{}][{}][{}]: Configuration unchanged - keeping context",
+                            getId(), user.getUsername(), aRecommender.getName());
+                    return;
+                }
+                Optional<RecommenderContext> sharedCtx = recommendationService
+                        .getSharedContext(aRecommender, fingerprint);
+                if (sharedCtx.isPresent()) {
+                    sharedCount.incrementAndGet();
+                    publishContext(aRecommender, sharedCtx.get());
+                    return;
+                }
+                ctx.setTrainingDataFingerprint(fingerprint);
+                ctx.close();
+                publishContext(aRecommender, ctx);
+                return;
+            }
+            
+            // Each document is digested while it is read to determine whether it contains
+            // training data, so the fingerprint does not require reading it again
+            List<TrainingDocument> documentsForTraining = new ArrayList<>();
+            Map<String, String> documentDigests = new LinkedHashMap<>();
+            for (TrainingDocument document : aDocuments.get()) {
+                getCancellationToken().throwIfCancelled();
+                
+                if (aRecommender.getStatesIgnoredForTraining().contains(document.state)) {
+                    continue;
                 }
-                catch (Throwable e) {
-                    log.info("[{}][{}][{}]: Training failed ({} ms)", getId(),
-                            user.getUsername(), recommender.getName(),
-                            (System.currentTimeMillis() - startTime), e);
+                
+                CAS cas;
+                try {
+                    cas = readCas(document, user);
+                }
+                catch (IOException e) {
+                    log.error("Cannot read annotation CAS.", e);
+                    continue;
+                }
+                
+                if (containsTargetTypeAndFeature(aRecommender, cas)) {
+                    documentsForTraining.add(document);
+                    documentDigests.put(document.document.getName(),
+                            TrainingDataFingerprint.digest(aRecommender, cas));
+                }
+            }
+
+            // If no data for training is available, but the engine requires training, 
+            // do not mark as ready
+            if (documentsForTraining.isEmpty() && capability == TRAINING_REQUIRED) {
+                log.info("[{}][{}][{}]: There are no annotations available to train on",
+                        getId(), user.getUsername(), aRecommender.getName());
+                return;
+            }
+            
+            // If the data the recommender trains on has not changed since the current
+            // model was trained (e.g. because only annotations on other layers were
+            // edited), keep using the current model
+            String fingerprint = TrainingDataFingerprint.combine(aRecommender,
+                    additionalDataDigest, documentDigests.values());
+            if (existingCtx.flatMap(RecommenderContext::getTrainingDataFingerprint)
+                    .map(fingerprint::equals).orElse(false)) {
+                skippedCount.incrementAndGet();
+                log.debug("[{}][{}][{}]: Training data unchanged - keeping model",
+                        getId(), user.getUsername(), aRecommender.getName());
+                return;
+            }
+            
+            // If another user has already trained a model on the same data, e.g. because
+            // all users annotated the same seed documents, share that model
+            Optional<RecommenderContext> sharedCtx = recommendationService
+                    .getSharedContext(aRecommender, fingerprint);
+            if (sharedCtx.isPresent()) {
+                sharedCount.incrementAndGet();
+                log.debug("[{}][{}][{}]: Using model shared with other users", getId(),
+                        user.getUsername(), aRecommender.getName());
+                publishContext(aRecommender, sharedCtx.get());
+                return;
+            }
+            
+            // If the model has already been trained on the same data before (e.g. before
+            // a restart), restore it from the model store instead of training it again
+            Optional<RecommenderContext> storedCtx = modelStore.load(user.getUsername(),
+                    aRecommender, fingerprint, recommendationEngine);
+            if (storedCtx.isPresent()) {
+                log.info("[{}][{}][{}]: Restored stored model ({} ms)", getId(),
+                        user.getUsername(), aRecommender.getName(),
+                        (System.currentTimeMillis() - startTime));
+                publishContext(aRecommender, storedCtx.get());
+                return;
+            }
+            
+            if (factory.getConcurrency() == SERIAL) {
+                // Engines which do not support concurrent use are trained one after the other
+                synchronized (factory) {
+                    fit(recommendationEngine, aRecommender, ctx, existingCtx,
+                            documentsForTraining, documentDigests, additionalDataDigest,
+                            aDocuments.get().size());
                 }
             }
+            else {
+                fit(recommendationEngine, aRecommender, ctx, existingCtx, documentsForTraining,
+                        documentDigests, additionalDataDigest, aDocuments.get().size());
+            }
+            
+            // Do not keep a model which may only be partially trained
+            if (isCancelled()) {
+                return;
+            }
+            
+            log.info("[{}][{}][{}]: Training complete ({} ms)", getId(),
+                    user.getUsername(), aRecommender.getName(),
+                    (System.currentTimeMillis() - startTime));
+            
+            ctx.setTrainingDataFingerprint(fingerprint);
+            if (recommendationEngine.isIncrementalTrainingSupported()) {
+                ctx.setTrainingDocumentDigests(documentDigests);
+            }
+            ctx.close();
+            publishContext(aRecommender, ctx);
+            modelStore.save(user.getUsername(), aRecommender, recommendationEngine, ctx);
+        }
+        catch (CancellationException e) {
+            // A model which may only be partially trained is discarded
+        }
+        catch (Throwable e) {
+            log.info("[{}][{}][{}]: Training failed ({} ms)", getId(),
+                    user.getUsername(), aRecommender.getName(),
+                    (System.currentTimeMillis() - startTime), e);
         }
+    }
+    
+    /**
+     * Trains the model of the given recommender, incrementally if the engine supports it.
+     */
+    private void fit(RecommendationEngine aEngine, Recommender aRecommender,
+            RecommenderContext aContext, Optional<RecommenderContext> aExistingContext,
+            List<TrainingDocument> aDocuments, Map<String, String> aDigests,
+            String aAdditionalDataDigest, int aDocumentCount)
+        throws RecommendationException
+    {
+        User user = getUser();
+        
+        boolean updated = aEngine.isIncrementalTrainingSupported()
+                && trainIncrementally(aEngine, aRecommender, aContext,
+                        aExistingContext, aDocuments, aDigests, aAdditionalDataDigest);
+        
+        if (!updated) {
+            log.info("[{}][{}][{}]: Training model on [{}] out of [{}] documents ...",
+                    getId(), user.getUsername(), aRecommender.getName(),
+                    aDocuments.size(), aDocumentCount);
+            
+            // The CASes are read again from the snapshot cache (or from disk if they
+            // have been evicted in the meantime) while the engine consumes them
+            Iterable<CAS> cassesForTraining = () -> aDocuments.stream()
+                    .map(document -> readCasUnchecked(document, user))
+                    .iterator();
+            if (aEngine.isMultiPassTraining()) {
+                // Keep the CASes in memory such that they are not read again on
+                // every pass of the engine over the training data
+                List<CAS> casses = new ArrayList<>();
+                cassesForTraining.forEach(casses::add);
+                aEngine.train(aContext, casses);
+            }
+            else {
+                aEngine.train(aContext, cassesForTraining);
+            }
+        }
+    }
 
-        schedulingService.enqueue(new PredictionTask(user, getProject(),
-                        String.format("TrainingTask %s complete", getId())));
+    /**
+     * Updates the current model of the recommender with the documents which have changed since it
+     * has been trained. If there is no current model which can be updated, the engine is passed an
+     * empty context and all documents as changed. This is also the case if the additional
+     * training data of the engine (e.g. gazeteers) has changed since the model has been trained.
+     * 
+     * @return whether the engine has updated the model.
+     */
+    private boolean trainIncrementally(RecommendationEngine aEngine, Recommender aRecommender,
+            RecommenderContext aContext, Optional<RecommenderContext> aExistingContext,
+            List<TrainingDocument> aDocuments, Map<String, String> aDigests,
+            String aAdditionalDataDigest)
+        throws RecommendationException
+    {
+        User user = getUser();
+        
+        // The current model can only be updated if it is known which documents it has been
+        // trained on and if neither the configuration of the recommender nor the additional
+        // training data have changed since. In that case, the fingerprint of these documents under
+        // the current configuration matches the fingerprint of the model.
+        Optional<RecommenderContext> previousCtx = aExistingContext
+                .filter(c -> c.getTrainingDocumentDigests()
+                        .map(digests -> TrainingDataFingerprint.combine(aRecommender,
+                                aAdditionalDataDigest, digests.values()))
+                        .equals(c.getTrainingDataFingerprint()));
+        Map<String, String> previousDigests = previousCtx
+                .flatMap(RecommenderContext::getTrainingDocumentDigests)
+                .orElse(emptyMap());
+        
+        Map<String, Supplier<CAS>> changedDocuments = new LinkedHashMap<>();
+        for (TrainingDocument document : aDocuments) {
+            String name = document.document.getName();
+            if (!aDigests.get(name).equals(previousDigests.get(name))) {
+                changedDocuments.put(name, () -> readCasUnchecked(document, user));
+            }
+        }
+        
+        Set<String> removedDocuments = new LinkedHashSet<>(previousDigests.keySet());
+        removedDocuments.removeAll(aDigests.keySet());
+        
+        TrainingDataChanges changes = new TrainingDataChanges(changedDocuments,
+                removedDocuments);
+        if (!aEngine.trainIncrementally(aContext,
+                previousCtx.orElse(RecommenderContext.EMPTY_CONTEXT), changes)) {
+            return false;
+        }
+        
+        log.info("[{}][{}][{}]: Updated model with [{}] changed and [{}] removed documents",
+                getId(), user.getUsername(), aRecommender.getName(), changedDocuments.size(),
+                removedDocuments.size());
+        
+        return true;
     }
 
-    private List<TrainingDocument> readCasses(Project aProject, User aUser)
+    private List<TrainingDocument> listDocuments(Project aProject, User aUser)
     {
-        List<TrainingDocument> casses = new ArrayList<>();
+        List<TrainingDocument> documents = new ArrayList<>();
         Map<SourceDocument, AnnotationDocument> allDocuments =
                 documentService.listAllDocuments(aProject, aUser);
         for (Map.Entry<SourceDocument, AnnotationDocument> entry : allDocuments.entrySet()) {
-            try {
-                SourceDocument sourceDocument = entry.getKey();
-                AnnotationDocument annotationDocument = entry.getValue();
-                AnnotationDocumentState state = annotationDocument != null ?
-                        annotationDocument.getState() : AnnotationDocumentState.NEW;
+            SourceDocument sourceDocument = entry.getKey();
+            AnnotationDocument annotationDocument = entry.getValue();
+            AnnotationDocumentState state = annotationDocument != null ?
+                    annotationDocument.getState() : AnnotationDocumentState.NEW;
 
-                CAS cas = documentService.readAnnotationCas(sourceDocument, aUser.getUsername());
-                casses.add(new TrainingDocument(cas, state));
-            } catch (IOException e) {
-                log.error("Cannot read annotation CAS.", e);
-            }
+            documents.add(new TrainingDocument(sourceDocument, state));
+        }
+        return documents;
+    }
+
+    private CAS readCas(TrainingDocument aDocument, User aUser) throws IOException
+    {
+        return casSnapshotCache.read(aDocument.document, aUser.getUsername());
+    }
+
+    private CAS readCasUnchecked(TrainingDocument aDocument, User aUser)
+    {
+        try {
+            return readCas(aDocument, aUser);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return casses;
     }
 
     private boolean containsTargetTypeAndFeature(Recommender aRecommender, CAS aCas)
@@ -244,11 +589,11 @@ public class TrainingTask
 
     private static class TrainingDocument
     {
-        private final CAS cas;
+        private final SourceDocument document;
         private final AnnotationDocumentState state;
 
-        private TrainingDocument(CAS aCas, AnnotationDocumentState aState) {
-            cas = aCas;
+        private TrainingDocument(SourceDocument aDocument, AnnotationDocumentState aState) {
+            document = aDocument;
             state = aState;
         }
     }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.util;
+
+import static java.util.Comparator.comparingDouble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Drops the candidates for suggestions which would never be looked at before they are turned
+ * into suggestions: candidates scoring below a minimum score and, if a recommender proposes
+ * several labels for the same span, all but the best scoring ones.
+ */
+public class SuggestionPruning
+{
+    private SuggestionPruning()
+    {
+        // No instances
+    }
+
+    /**
+     * @param aCandidates
+     *            the candidates.
+     * @param aSpan
+     *            the span of a candidate. Candidates with the same span compete with each other.
+     * @param aScore
+     *            the score of a candidate.
+     * @param aMaxPerSpan
+     *            the maximum number of candidates kept per span. A value of {@code 0} or less
+     *            keeps all candidates.
+     * @param aMinScore
+     *            the minimum score of a candidate. A value of {@code 0} or less keeps all
+     *            candidates.
+     * @return the remaining candidates in their original order.
+     */
+    public static <T> List<T> prune(List<T> aCandidates, ToLongFunction<T> aSpan,
+            ToDoubleFunction<T> aScore, int aMaxPerSpan, double aMinScore)
+    {
+        List<T> candidates = new ArrayList<>(aCandidates.size());
+        Map<Long, List<T>> candidatesBySpan = new LinkedHashMap<>();
+        for (T candidate : aCandidates) {
+            if (aMinScore > 0 && aScore.applyAsDouble(candidate) < aMinScore) {
+                continue;
+            }
+
+            candidates.add(candidate);
+            if (aMaxPerSpan > 0) {
+                candidatesBySpan.computeIfAbsent(aSpan.applyAsLong(candidate),
+                        _key -> new ArrayList<>()).add(candidate);
+            }
+        }
+
+        // Candidates are identified by reference since different candidates may be equal
+        Set<T> pruned = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<T> spanCandidates : candidatesBySpan.values()) {
+            if (spanCandidates.size() > aMaxPerSpan) {
+                spanCandidates.sort(comparingDouble(aScore).reversed());
+                pruned.addAll(spanCandidates.subList(aMaxPerSpan, spanCandidates.size()));
+            }
+        }
+
+        if (!pruned.isEmpty()) {
+            candidates.removeIf(pruned::contains);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * @return a key identifying the span with the given offsets.
+     */
+    public static long span(int aBegin, int aEnd)
+    {
+        return ((long) aBegin << 32) | (aEnd & 0xFFFFFFFFL);
+    }
+}
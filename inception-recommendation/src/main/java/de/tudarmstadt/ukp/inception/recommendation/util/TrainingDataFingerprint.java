@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+
+/**
+ * Computes a fingerprint of the data a recommender is trained on. Two trainings with the same
+ * fingerprint produce equivalent models. The fingerprint covers the configuration of the
+ * recommender (including the document states ignored for training) as well as the text and the
+ * annotations of the target layer and feature of each training document. Annotations on other
+ * layers do not affect the fingerprint. The order of the documents does not matter. Data which
+ * the engine trains on in addition to the documents (e.g. gazeteers) is covered via
+ * {@link RecommendationEngine#digestAdditionalTrainingData}.
+ */
+public class TrainingDataFingerprint
+{
+    private static final String ALGORITHM = "SHA-256";
+
+    private TrainingDataFingerprint()
+    {
+        // No instances
+    }
+
+    public static String compute(Recommender aRecommender, String aAdditionalDataDigest,
+            Iterable<CAS> aCasses)
+    {
+        List<String> documentDigests = new ArrayList<>();
+        for (CAS cas : aCasses) {
+            documentDigests.add(digest(aRecommender, cas));
+        }
+        return combine(aRecommender, aAdditionalDataDigest, documentDigests);
+    }
+
+    /**
+     * Computes the fingerprint from the digests of the individual training documents obtained via
+     * {@link #digest(Recommender, CAS)}. This allows callers to digest each document while it is
+     * loaded instead of keeping all documents in memory until the fingerprint is computed.
+     * 
+     * @param aAdditionalDataDigest
+     *            the digest of the additional training data of the engine obtained via
+     *            {@link #digest(RecommendationEngine)}.
+     */
+    public static String combine(Recommender aRecommender, String aAdditionalDataDigest,
+            Collection<String> aDocumentDigests)
+    {
+        // Digest each document separately and combine the sorted digests so that the fingerprint
+        // does not depend on the order in which the documents are listed
+        List<String> documentDigests = new ArrayList<>(aDocumentDigests);
+        documentDigests.sort(null);
+
+        MessageDigest digest = newDigest();
+        update(digest, aRecommender.getTool());
+        update(digest, aRecommender.getLayer().getName());
+        update(digest, aRecommender.getFeature().getName());
+        update(digest, aRecommender.getTraits());
+        if (aRecommender.getStatesIgnoredForTraining() != null) {
+            aRecommender.getStatesIgnoredForTraining().stream()
+                    .map(Enum::name)
+                    .sorted()
+                    .forEach(state -> update(digest, state));
+        }
+        // Terminate the list of states such that it cannot be confused with the documents
+        update(digest, null);
+        digest.update(ByteBuffer.allocate(4).putInt(aRecommender.getMaxRecommendations())
+                .array());
+        update(digest, aAdditionalDataDigest);
+        for (String documentDigest : documentDigests) {
+            update(digest, documentDigest);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the digest of the target annotations of the given recommender in a single
+     *         training document.
+     */
+    public static String digest(Recommender aRecommender, CAS aCas)
+    {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        // Hashing the full text of every document on every training run would be expensive. The
+        // length and hash code of the text are sufficient to tell documents apart and the hash
+        // code of a string is cached once computed.
+        String text = aCas.getDocumentText();
+        if (text != null) {
+            buffer.putInt(text.length()).putInt(text.hashCode());
+        }
+        digest.update(buffer.array());
+
+        Type type = getType(aCas, aRecommender.getLayer().getName());
+        Feature feature = type.getFeatureByBaseName(aRecommender.getFeature().getName());
+        for (AnnotationFS ann : select(aCas, type)) {
+            buffer.clear();
+            buffer.putInt(ann.getBegin()).putInt(ann.getEnd());
+            digest.update(buffer.array());
+            if (feature != null && feature.getRange().isPrimitive()) {
+                update(digest, ann.getFeatureValueAsString(feature));
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the digest of the data the given engine trains on in addition to the training
+     *         documents.
+     */
+    public static String digest(RecommendationEngine aEngine) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new OutputStream()
+        {
+            @Override
+            public void write(int aByte)
+            {
+                digest.update((byte) aByte);
+            }
+
+            @Override
+            public void write(byte[] aBytes, int aOffset, int aLength)
+            {
+                digest.update(aBytes, aOffset, aLength);
+            }
+        }) {
+            aEngine.digestAdditionalTrainingData(out);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest aDigest, String aValue)
+    {
+        if (aValue != null) {
+            aDigest.update(aValue.getBytes(UTF_8));
+        }
+        // Separator which cannot be part of the UTF-8 encoding of a string
+        aDigest.update((byte) 0xFF);
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] aBytes)
+    {
+        StringBuilder sb = new StringBuilder(aBytes.length * 2);
+        for (byte b : aBytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.uima.cas.CAS;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
+
+public class CasSnapshotCacheTest
+{
+    private static final String USER = "user";
+
+    private @Mock DocumentService documentService;
+    private @Mock AnnotationSchemaService annoService;
+
+    private SourceDocument document;
+
+    private CasSnapshotCache sut;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        initMocks(this);
+
+        Project project = new Project();
+        project.setId(1l);
+
+        document = new SourceDocument();
+        document.setId(2l);
+        document.setName("document.txt");
+        document.setProject(project);
+
+        when(documentService.getAnnotationCasTimestamp(document, USER))
+                .thenReturn(Optional.of(1000l));
+        when(documentService.readAnnotationCas(document, USER))
+                .thenAnswer(invocation -> mock(CAS.class));
+
+        sut = new CasSnapshotCache(documentService, annoService, new RecommendationProperties());
+    }
+
+    @Test
+    public void thatSnapshotIsReused() throws Exception
+    {
+        CAS first = sut.read(document, USER);
+        CAS second = sut.read(document, USER);
+
+        assertThat(second).isSameAs(first);
+        assertThat(sut.getLoadCount()).isEqualTo(1);
+        assertThat(sut.getHitCount()).isEqualTo(1);
+        verify(documentService, times(1)).readAnnotationCas(document, USER);
+    }
+
+    @Test(timeout = 10000)
+    public void thatConcurrentReadersShareLoad() throws Exception
+    {
+        CAS loaded = mock(CAS.class);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        when(documentService.readAnnotationCas(document, USER)).thenAnswer(invocation -> {
+            loading.countDown();
+            proceed.await();
+            return loaded;
+        });
+
+        AtomicReference<CAS> first = new AtomicReference<>();
+        Thread firstReader = reader(first);
+        firstReader.start();
+        loading.await();
+
+        AtomicReference<CAS> second = new AtomicReference<>();
+        Thread secondReader = reader(second);
+        secondReader.start();
+
+        // The second reader has to wait for the load of the first one
+        while (secondReader.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        proceed.countDown();
+        firstReader.join();
+        secondReader.join();
+
+        assertThat(first.get()).isSameAs(loaded);
+        assertThat(second.get()).isSameAs(loaded);
+        assertThat(sut.getLoadCount()).isEqualTo(1);
+        verify(documentService, times(1)).readAnnotationCas(document, USER);
+    }
+
+    @Test
+    public void thatSnapshotIsNotUsedAfterTimestampChanged() throws Exception
+    {
+        CAS first = sut.read(document, USER);
+
+        when(documentService.getAnnotationCasTimestamp(document, USER))
+                .thenReturn(Optional.of(2000l));
+
+        CAS second = sut.read(document, USER);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(sut.getLoadCount()).isEqualTo(2);
+        assertThat(sut.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void thatSnapshotIsDiscardedWhenCasIsWritten() throws Exception
+    {
+        CAS first = sut.read(document, USER);
+
+        AnnotationDocument annotationDocument = new AnnotationDocument();
+        annotationDocument.setDocument(document);
+        annotationDocument.setUser(USER);
+        AfterCasWrittenEvent event = mock(AfterCasWrittenEvent.class);
+        when(event.getDocument()).thenReturn(annotationDocument);
+        sut.onAfterCasWritten(event);
+
+        CAS second = sut.read(document, USER);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(sut.getLoadCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void thatCacheCanBeDisabled() throws Exception
+    {
+        RecommendationProperties properties = new RecommendationProperties();
+        properties.setCasSnapshotCacheSize(0);
+        sut = new CasSnapshotCache(documentService, annoService, properties);
+
+        sut.read(document, USER);
+        sut.read(document, USER);
+
+        assertThat(sut.getLoadCount()).isEqualTo(2);
+        assertThat(sut.getHitRate()).isEqualTo(0.0);
+    }
+
+    private Thread reader(AtomicReference<CAS> aResult)
+    {
+        return new Thread(() -> {
+            try {
+                aResult.set(sut.read(document, USER));
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.TypeSystemUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AnnotationSchemaServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Compares preparing the prediction CAS of a document by upgrading it to a freshly monkey-patched
+ * type system (as done before the type system was cached) against resetting a pooled CAS which
+ * already uses the cached prediction type system and copying the document into it.
+ * <p>
+ * Run via the {@link #main} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PredictionCasBenchmark
+{
+    private static final int TOKENS = 5_000;
+
+    private AnnotationSchemaServiceImpl annoService;
+    private Project project;
+    private CAS documentCas;
+    private CAS uncachedPredictionCas;
+    private CAS cachedPredictionCas;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        project = new Project();
+        project.setId(1l);
+        project.setName("benchmark");
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1l);
+        layer.setName(NamedEntity.class.getName());
+        layer.setUiName("Named Entity");
+        layer.setType(WebAnnoConst.SPAN_TYPE);
+        layer.setProject(project);
+        layer.setEnabled(true);
+
+        JCas jCas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TOKENS; i++) {
+            int begin = text.length();
+            text.append("token").append(i);
+            new Token(jCas, begin, text.length()).addToIndexes();
+            if (i % 10 == 0) {
+                new NamedEntity(jCas, begin, text.length()).addToIndexes();
+            }
+            text.append(' ');
+        }
+        jCas.setDocumentText(text.toString());
+        documentCas = jCas.getCas();
+
+        annoService = mock(AnnotationSchemaServiceImpl.class);
+        when(annoService.getFullProjectTypeSystem(project)).thenAnswer(_invocation ->
+                TypeSystemUtil.typeSystem2TypeSystemDescription(documentCas.getTypeSystem()));
+        when(annoService.listAnnotationLayer(project)).thenReturn(asList(layer));
+        doCallRealMethod().when(annoService).upgradeCas(any(CAS.class), any(CAS.class),
+                any(TypeSystemDescription.class));
+
+        uncachedPredictionCas = CasCreationUtils.createCas((TypeSystemDescription) null, null,
+                null);
+
+        PredictionTypeSystemCache cache = new PredictionTypeSystemCache(annoService, 1);
+        cachedPredictionCas = cache.borrowCas(project);
+    }
+
+    @Benchmark
+    public CAS upgradeToFreshTypeSystem() throws Exception
+    {
+        TypeSystemDescription tsd = PredictionTypeSystemCache.createPredictionTypeSystem(
+                annoService.getFullProjectTypeSystem(project),
+                annoService.listAnnotationLayer(project));
+        annoService.upgradeCas(documentCas, uncachedPredictionCas, tsd);
+        return uncachedPredictionCas;
+    }
+
+    @Benchmark
+    public CAS resetAndCopyIntoPooledCas() throws Exception
+    {
+        PredictionTypeSystemCache.copy(documentCas, cachedPredictionCas);
+        return cachedPredictionCas;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(PredictionCasBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Predictions;
+
+public class RecommendationStateStoreTest
+{
+    private static final String USER = "user";
+    private static final long PROJECT_ID = 1l;
+
+    public @Rule TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Project project;
+    private RepositoryProperties repoProps;
+
+    private RecommendationStateStore sut;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        project = new Project();
+        project.setId(PROJECT_ID);
+
+        repoProps = new RepositoryProperties();
+        repoProps.setPath(temporaryFolder.getRoot());
+
+        sut = new RecommendationStateStore(repoProps);
+        sut.afterPropertiesSet();
+    }
+
+    @Test
+    public void thatPredictionsCanBeRestoredOnce() throws Exception
+    {
+        Predictions predictions = new Predictions(new User(USER), project);
+        predictions.putPredictions(3l, asList(
+                new AnnotationSuggestion(1, 2l, "recommender", 3l, "feature", "doc1", 0, 5,
+                        "Alice", "PER", "PER", 0.9, null)));
+
+        sut.savePredictions(USER, PROJECT_ID, "active", predictions);
+
+        Optional<Predictions> restored = sut.loadPredictions(USER, PROJECT_ID, "active");
+
+        assertThat(restored).isPresent();
+        assertThat(restored.get().size()).isEqualTo(1);
+        assertThat(restored.get().getPredictionsByRecommender("doc1", 2l))
+                .extracting(AnnotationSuggestion::getLabel)
+                .containsExactly("PER");
+        assertThat(sut.loadPredictions(USER, PROJECT_ID, "active")).isEmpty();
+    }
+
+    @Test
+    public void thatLeftoversAreRemovedOnStartup() throws Exception
+    {
+        Predictions predictions = new Predictions(new User(USER), project);
+        sut.savePredictions(USER, PROJECT_ID, "active", predictions);
+
+        sut = new RecommendationStateStore(repoProps);
+        sut.afterPropertiesSet();
+
+        assertThat(sut.loadPredictions(USER, PROJECT_ID, "active")).isEmpty();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.DataSplitter;
+import de.tudarmstadt.ukp.inception.recommendation.api.evaluation.EvaluationResult;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommendationEngine;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext.Key;
+import de.tudarmstadt.ukp.inception.recommendation.config.RecommendationProperties;
+
+public class RecommenderModelStoreTest
+{
+    private static final String USER = "user";
+
+    public @Rule TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Recommender recommender;
+    private RecommendationEngine engine;
+
+    private RecommenderModelStore sut;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setName("layer");
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName("feature");
+
+        recommender = new Recommender();
+        recommender.setId(2l);
+        recommender.setName("recommender");
+        recommender.setProject(project);
+        recommender.setLayer(layer);
+        recommender.setFeature(feature);
+
+        engine = new StringModelEngine(recommender);
+
+        RepositoryProperties repoProps = new RepositoryProperties();
+        repoProps.setPath(temporaryFolder.getRoot());
+        RecommendationProperties properties = new RecommendationProperties();
+        properties.setPersistModels(true);
+
+        sut = new RecommenderModelStore(repoProps, properties);
+    }
+
+    @Test
+    public void thatModelCanBeRestored() throws Exception
+    {
+        sut.save(USER, recommender, engine, trainedContext("model-1", "fp1"));
+
+        Optional<RecommenderContext> restored = sut.load(USER, recommender, "fp1", engine);
+
+        assertThat(restored).isPresent();
+        assertThat(restored.get().isClosed()).isTrue();
+        assertThat(restored.get().get(StringModelEngine.KEY_MODEL)).contains("model-1");
+        assertThat(restored.get().getTrainingDataFingerprint()).contains("fp1");
+    }
+
+    @Test
+    public void thatDocumentDigestsAreRestored() throws Exception
+    {
+        RecommenderContext ctx = new RecommenderContext();
+        ctx.put(StringModelEngine.KEY_MODEL, "model-1");
+        ctx.setTrainingDataFingerprint("fp1");
+        ctx.setTrainingDocumentDigests(singletonMap("doc1", "digest1"));
+        ctx.close();
+
+        sut.save(USER, recommender, engine, ctx);
+
+        assertThat(sut.load(USER, recommender, "fp1", engine)
+                .flatMap(RecommenderContext::getTrainingDocumentDigests))
+                .contains(singletonMap("doc1", "digest1"));
+    }
+
+    @Test
+    public void thatWrittenModelIsRestoredOnceWhenDisabled() throws Exception
+    {
+        disable();
+
+        assertThat(sut.write(USER, recommender, engine, trainedContext("model-1", "fp1")))
+                .isPositive();
+
+        Optional<RecommenderContext> restored = sut.restore(USER, recommender, "fp1", engine);
+
+        assertThat(restored).isPresent();
+        assertThat(restored.get().isClosed()).isTrue();
+        assertThat(restored.get().get(StringModelEngine.KEY_MODEL)).contains("model-1");
+        assertThat(restored.get().getTrainingDataFingerprint()).contains("fp1");
+        assertThat(sut.restore(USER, recommender, "fp1", engine)).isEmpty();
+    }
+
+    @Test
+    public void thatWrittenModelIsKeptWhenEnabled() throws Exception
+    {
+        sut.write(USER, recommender, engine, trainedContext("model-1", "fp1"));
+
+        assertThat(sut.restore(USER, recommender, "fp1", engine)).isPresent();
+        assertThat(sut.load(USER, recommender, "fp1", engine)).isPresent();
+    }
+
+    @Test
+    public void thatWrittenModelsAreDiscardedWhenDisabled() throws Exception
+    {
+        disable();
+        sut.write(USER, recommender, engine, trainedContext("model-1", "fp1"));
+
+        sut.discard(USER, recommender.getProject().getId());
+
+        assertThat(sut.getSize(USER, recommender, "fp1")).isEqualTo(-1);
+    }
+
+    @Test
+    public void thatOnlyLatestModelIsKept() throws Exception
+    {
+        sut.save(USER, recommender, engine, trainedContext("model-1", "fp1"));
+        sut.save(USER, recommender, engine, trainedContext("model-2", "fp2"));
+
+        assertThat(sut.load(USER, recommender, "fp1", engine)).isEmpty();
+        assertThat(sut.loadLatest(USER, recommender, engine)
+                .flatMap(ctx -> ctx.get(StringModelEngine.KEY_MODEL))).contains("model-2");
+    }
+
+    @Test
+    public void thatModelsAreRemovedWithRecommender() throws Exception
+    {
+        sut.save(USER, recommender, engine, trainedContext("model-1", "fp1"));
+
+        sut.delete(recommender);
+
+        assertThat(sut.loadLatest(USER, recommender, engine)).isEmpty();
+    }
+
+    @Test
+    public void thatNothingIsStoredWhenDisabled() throws Exception
+    {
+        disable();
+
+        sut.save(USER, recommender, engine, trainedContext("model-1", "fp1"));
+
+        assertThat(temporaryFolder.getRoot().list()).isEmpty();
+    }
+
+    private void disable()
+    {
+        RepositoryProperties repoProps = new RepositoryProperties();
+        repoProps.setPath(temporaryFolder.getRoot());
+        sut = new RecommenderModelStore(repoProps, new RecommendationProperties());
+    }
+
+    private RecommenderContext trainedContext(String aModel, String aFingerprint)
+    {
+        RecommenderContext ctx = new RecommenderContext();
+        ctx.put(StringModelEngine.KEY_MODEL, aModel);
+        ctx.setTrainingDataFingerprint(aFingerprint);
+        ctx.close();
+        return ctx;
+    }
+
+    private static class StringModelEngine
+        extends RecommendationEngine
+    {
+        private static final Key<String> KEY_MODEL = new Key<>("model");
+
+        public StringModelEngine(Recommender aRecommender)
+        {
+            super(aRecommender);
+        }
+
+        @Override
+        public boolean isModelPersistable()
+        {
+            return true;
+        }
+
+        @Override
+        public void writeModel(RecommenderContext aContext, OutputStream aOutput)
+            throws IOException
+        {
+            aOutput.write(aContext.get(KEY_MODEL).get().getBytes(UTF_8));
+        }
+
+        @Override
+        public void readModel(RecommenderContext aContext, InputStream aInput)
+            throws IOException
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int b;
+            while ((b = aInput.read()) != -1) {
+                buffer.write(b);
+            }
+            aContext.put(KEY_MODEL, new String(buffer.toByteArray(), UTF_8));
+        }
+
+        @Override
+        public void train(RecommenderContext aContext, List<CAS> aCasses)
+        {
+            // Not used
+        }
+
+        @Override
+        public void predict(RecommenderContext aContext, CAS aCas)
+        {
+            // Not used
+        }
+
+        @Override
+        public EvaluationResult evaluate(List<CAS> aCasses, DataSplitter aDataSplitter)
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isReadyForPrediction(RecommenderContext aContext)
+        {
+            return aContext.get(KEY_MODEL).isPresent();
+        }
+    }
+}
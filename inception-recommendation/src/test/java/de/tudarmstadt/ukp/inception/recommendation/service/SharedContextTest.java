@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Recommender;
+import de.tudarmstadt.ukp.inception.recommendation.api.recommender.RecommenderContext;
+import de.tudarmstadt.ukp.inception.recommendation.util.TrainingDataFingerprint;
+
+public class SharedContextTest
+{
+    private User user1;
+    private User user2;
+    private Recommender recommender;
+
+    private RecommendationServiceImpl sut;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        recommender = new Recommender();
+        recommender.setId(2l);
+        recommender.setProject(project);
+        recommender.setTool("tool");
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setName("layer");
+        recommender.setLayer(layer);
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName("value");
+        recommender.setFeature(feature);
+
+        user1 = new User("user1");
+        user2 = new User("user2");
+
+        sut = new RecommendationServiceImpl((EntityManager) null);
+    }
+
+    @Test
+    public void thatContextsWithSameFingerprintAreShared()
+    {
+        RecommenderContext ctx1 = closedContext("fp");
+        RecommenderContext ctx2 = closedContext("fp");
+
+        sut.putContext(user1, recommender, ctx1);
+        sut.putContext(user2, recommender, ctx2);
+
+        assertThat(sut.getContext(user2, recommender)).containsSame(ctx1);
+        assertThat(sut.getSharedContext(recommender, "fp")).containsSame(ctx1);
+    }
+
+    @Test
+    public void thatContextsWithDifferentFingerprintsAreNotShared()
+    {
+        RecommenderContext ctx1 = closedContext("fp1");
+        RecommenderContext ctx2 = closedContext("fp2");
+
+        sut.putContext(user1, recommender, ctx1);
+        sut.putContext(user2, recommender, ctx2);
+
+        assertThat(sut.getContext(user1, recommender)).containsSame(ctx1);
+        assertThat(sut.getContext(user2, recommender)).containsSame(ctx2);
+        assertThat(sut.getSharedContext(recommender, "fp3")).isEmpty();
+    }
+
+    @Test
+    public void thatContextsTrainedOnDifferentAdditionalDataAreNotShared()
+    {
+        // E.g. the gazeteers of the recommender have changed after user1 has been trained
+        String fp1 = TrainingDataFingerprint.combine(recommender, "gazeteers1",
+                asList("doc1", "doc2"));
+        String fp2 = TrainingDataFingerprint.combine(recommender, "gazeteers2",
+                asList("doc1", "doc2"));
+
+        sut.putContext(user1, recommender, closedContext(fp1));
+
+        assertThat(fp1).isNotEqualTo(fp2);
+        assertThat(sut.getSharedContext(recommender, fp1)).isPresent();
+        assertThat(sut.getSharedContext(recommender, fp2)).isEmpty();
+    }
+
+    private RecommenderContext closedContext(String aFingerprint)
+    {
+        RecommenderContext ctx = new RecommenderContext();
+        ctx.setTrainingDataFingerprint(aFingerprint);
+        ctx.close();
+        return ctx;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.AnnotationSuggestion;
+import de.tudarmstadt.ukp.inception.recommendation.api.model.Predictions;
+
+/**
+ * Simulates many annotators working on the same project at the same time. Each annotator renders
+ * the active predictions over and over while a prediction run occasionally publishes new
+ * predictions which are then switched to, as done by the editor on each render.
+ * <p>
+ * Run via the {@link #main} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(16)
+public class StateContentionBenchmark
+{
+    private static final int SUGGESTIONS = 1_000;
+    private static final int RENDERS_PER_PREDICTION_RUN = 100;
+
+    private final AtomicInteger annotatorCounter = new AtomicInteger();
+
+    private RecommendationServiceImpl sut;
+    private Project project;
+
+    @Setup
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1l);
+        project.setName("benchmark");
+
+        sut = new RecommendationServiceImpl((EntityManager) null);
+    }
+
+    @State(Scope.Thread)
+    public static class Annotator
+    {
+        private User user;
+        private Predictions predictions;
+        private int renders;
+
+        @Setup
+        public void setup(StateContentionBenchmark aBenchmark)
+        {
+            user = new User("annotator" + aBenchmark.annotatorCounter.incrementAndGet());
+
+            List<AnnotationSuggestion> suggestions = new ArrayList<>();
+            for (int i = 0; i < SUGGESTIONS; i++) {
+                suggestions.add(new AnnotationSuggestion(i, 2l, "recommender", 3l, "feature",
+                        "doc" + (i % 10), i * 10, i * 10 + 5, "token" + i, "PER", "PER", 0.9,
+                        null));
+            }
+            predictions = new Predictions(user, aBenchmark.project);
+            predictions.putPredictions(3l, suggestions);
+
+            aBenchmark.sut.putIncomingPredictions(user, aBenchmark.project, predictions);
+            aBenchmark.sut.switchPredictions(user, aBenchmark.project);
+        }
+    }
+
+    @Benchmark
+    public int render(Annotator aAnnotator)
+    {
+        if (++aAnnotator.renders % RENDERS_PER_PREDICTION_RUN == 0) {
+            sut.putIncomingPredictions(aAnnotator.user, project, aAnnotator.predictions);
+        }
+
+        sut.switchPredictions(aAnnotator.user, project);
+        return sut.getPredictions(aAnnotator.user, project).size();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(StateContentionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.recommendation.util;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SuggestionPruningTest
+{
+    private final Candidate a1 = new Candidate(0, 5, 0.2);
+    private final Candidate a2 = new Candidate(0, 5, 0.9);
+    private final Candidate a3 = new Candidate(0, 5, 0.5);
+    private final Candidate b1 = new Candidate(6, 9, 0.1);
+    private final Candidate b2 = new Candidate(6, 9, 0.7);
+
+    private final List<Candidate> candidates = asList(a1, a2, a3, b1, b2);
+
+    @Test
+    public void thatBestCandidatesPerSpanAreKeptInOrder()
+    {
+        assertThat(prune(2, 0.0)).containsExactly(a2, a3, b1, b2);
+        assertThat(prune(1, 0.0)).containsExactly(a2, b2);
+    }
+
+    @Test
+    public void thatCandidatesBelowMinScoreAreDropped()
+    {
+        assertThat(prune(0, 0.5)).containsExactly(a2, a3, b2);
+        assertThat(prune(1, 0.8)).containsExactly(a2);
+    }
+
+    @Test
+    public void thatEverythingIsKeptWithoutLimits()
+    {
+        assertThat(prune(0, 0.0)).containsExactlyElementsOf(candidates);
+    }
+
+    @Test
+    public void thatSpansAreDistinct()
+    {
+        assertThat(SuggestionPruning.span(0, 5)).isEqualTo(SuggestionPruning.span(0, 5));
+        assertThat(SuggestionPruning.span(0, 5)).isNotEqualTo(SuggestionPruning.span(5, 0));
+        assertThat(SuggestionPruning.span(1, 0)).isNotEqualTo(SuggestionPruning.span(0, 1));
+    }
+
+    private List<Candidate> prune(int aMaxPerSpan, double aMinScore)
+    {
+        return SuggestionPruning.prune(candidates, c -> SuggestionPruning.span(c.begin, c.end),
+                c -> c.score, aMaxPerSpan, aMinScore);
+    }
+
+    private static class Candidate
+    {
+        private final int begin;
+        private final int end;
+        private final double score;
+
+        private Candidate(int aBegin, int aEnd, double aScore)
+        {
+            begin = aBegin;
+            end = aEnd;
+            score = aScore;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.scheduling;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Allows requesting a {@link Task} to stop. Cancellation is cooperative: the task and the code it
+ * calls poll the token at suitable points, e.g. between documents, and stop their work once
+ * cancellation has been requested.
+ */
+public class CancellationToken
+{
+    /**
+     * Token for work which is not run as part of a task and hence cannot be cancelled. Requesting
+     * cancellation via this token has no effect since the token is shared.
+     */
+    public static final CancellationToken NONE = new CancellationToken()
+    {
+        @Override
+        public void cancel()
+        {
+            // Nothing to do - the work holding this token cannot be stopped
+        }
+    };
+
+    private volatile boolean cancelled = false;
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException
+     *             if cancellation has been requested.
+     */
+    public void throwIfCancelled()
+    {
+        if (cancelled) {
+            throw new CancellationException("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.scheduling;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingLong;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded work queue for the {@link SchedulingService} which hands out tasks by
+ * {@link Task#getPriority() priority} and, within the same priority, fairly across users.
+ * <p>
+ * Fairness is implemented as start-time fair queuing: every task receives a virtual start time
+ * which is one past the later of the current virtual time and the virtual start time of the
+ * previous task of the same user. Thus, a user who schedules many tasks at once does not delay
+ * the tasks of other users - the tasks of all waiting users are handed out in turns. Tasks of the
+ * same user and priority are handed out in the order in which they were scheduled.
+ * <p>
+ * Removal of elements is based on identity since tasks consider each other equal when they are
+ * of the same type and belong to the same user and project.
+ */
+public class FairTaskQueue
+    extends AbstractQueue<Runnable>
+    implements BlockingQueue<Runnable>
+{
+    private static final String NO_USER = "";
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final PriorityQueue<Entry> entries;
+    private final Map<String, Long> lastStartByUser = new HashMap<>();
+    private long virtualTime = 0;
+    private long sequence = 0;
+
+    public FairTaskQueue(int aCapacity)
+    {
+        Validate.isTrue(aCapacity > 0, "Capacity must be positive but was [%d]", aCapacity);
+
+        capacity = aCapacity;
+        entries = new PriorityQueue<>(dispatchOrder());
+    }
+
+    /**
+     * @return the number of scheduled tasks per user.
+     */
+    public Map<String, Integer> getDepthByUser()
+    {
+        lock.lock();
+        try {
+            Map<String, Integer> result = new HashMap<>();
+            for (Entry entry : entries) {
+                result.merge(entry.user, 1, Integer::sum);
+            }
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable aRunnable)
+    {
+        Validate.notNull(aRunnable);
+
+        lock.lock();
+        try {
+            if (entries.size() >= capacity) {
+                return false;
+            }
+            enqueue(aRunnable);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable aRunnable, long aTimeout, TimeUnit aUnit)
+        throws InterruptedException
+    {
+        Validate.notNull(aRunnable);
+
+        long nanos = aUnit.toNanos(aTimeout);
+        lock.lockInterruptibly();
+        try {
+            while (entries.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(aRunnable);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable aRunnable) throws InterruptedException
+    {
+        Validate.notNull(aRunnable);
+
+        lock.lockInterruptibly();
+        try {
+            while (entries.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(aRunnable);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll()
+    {
+        lock.lock();
+        try {
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long aTimeout, TimeUnit aUnit) throws InterruptedException
+    {
+        long nanos = aUnit.toNanos(aTimeout);
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek()
+    {
+        lock.lock();
+        try {
+            Entry head = entries.peek();
+            return head != null ? head.runnable : null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object aObject)
+    {
+        lock.lock();
+        try {
+            Iterator<Entry> i = entries.iterator();
+            while (i.hasNext()) {
+                if (i.next().runnable == aObject) {
+                    i.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        lock.lock();
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        lock.lock();
+        try {
+            return capacity - entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> aCollection)
+    {
+        return drainTo(aCollection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> aCollection, int aMaxElements)
+    {
+        Validate.notNull(aCollection);
+        Validate.isTrue(aCollection != this, "Cannot drain queue into itself");
+
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < aMaxElements && !entries.isEmpty()) {
+                aCollection.add(dequeue());
+                count++;
+            }
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the queue in the order in which the tasks would be
+     *         handed out. Removing through the iterator removes the task from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator()
+    {
+        List<Entry> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(entries);
+        }
+        finally {
+            lock.unlock();
+        }
+        snapshot.sort(dispatchOrder());
+
+        return new Iterator<Runnable>()
+        {
+            private int next = 0;
+            private Runnable last;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public Runnable next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot.get(next++).runnable;
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                Validate.validState(last != null, "next() has not been called");
+                FairTaskQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void enqueue(Runnable aRunnable)
+    {
+        String user = NO_USER;
+        TaskPriority priority = TaskPriority.NORMAL;
+        if (aRunnable instanceof Task) {
+            Task task = (Task) aRunnable;
+            user = task.getUser().getUsername();
+            priority = task.getPriority();
+        }
+
+        long start = Math.max(virtualTime, lastStartByUser.getOrDefault(user, 0l)) + 1;
+        lastStartByUser.put(user, start);
+
+        entries.add(new Entry(aRunnable, user, priority, start, sequence++));
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue()
+    {
+        Entry head = entries.poll();
+        if (head == null) {
+            return null;
+        }
+
+        virtualTime = Math.max(virtualTime, head.start);
+
+        // Forget users whose tasks have all been handed out to keep the bookkeeping small
+        lastStartByUser.values().removeIf(start -> start <= virtualTime);
+
+        notFull.signal();
+        return head.runnable;
+    }
+
+    private static Comparator<Entry> dispatchOrder()
+    {
+        return comparing((Entry e) -> e.priority).reversed()
+                .thenComparing(comparingLong((Entry e) -> e.start))
+                .thenComparing(comparingLong((Entry e) -> e.sequence));
+    }
+
+    private static class Entry
+    {
+        private final Runnable runnable;
+        private final String user;
+        private final TaskPriority priority;
+        private final long start;
+        private final long sequence;
+
+        public Entry(Runnable aRunnable, String aUser, TaskPriority aPriority, long aStart,
+                long aSequence)
+        {
+            runnable = aRunnable;
+            user = aUser;
+            priority = aPriority;
+            start = aStart;
+            sequence = aSequence;
+        }
+    }
+}
@@ -17,7 +17,6 @@
  */
 package de.tudarmstadt.ukp.inception.scheduling;
 
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,7 +36,7 @@ public class InspectableThreadPoolExecutor
                                          BiConsumer<Runnable, Throwable> aAfterExecuteCallback)
     {
         super(aNumberOfThreads, aNumberOfThreads, 0L, TimeUnit.MILLISECONDS,
-                new ArrayBlockingQueue<>(queueSize, true), buildThreadFactory());
+                new FairTaskQueue(queueSize), buildThreadFactory());
 
         beforeExecuteCallback = aBeforeExecuteCallback;
         afterExecuteCallback = aAfterExecuteCallback;
@@ -20,7 +20,10 @@ package de.tudarmstadt.ukp.inception.scheduling;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +33,7 @@ import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.inception.scheduling.config.SchedulingProperties;
 
 @Component
@@ -63,6 +67,9 @@ public class SchedulingService
         runningTasks.remove(aRunnable);
     }
 
+    /**
+     * @return the scheduled tasks in the order in which they are going to be executed.
+     */
     public List<Task> getScheduledTasks()
     {
         List<Task> result = new ArrayList<>();
@@ -70,6 +77,30 @@ public class SchedulingService
         return result;
     }
 
+    /**
+     * @return the scheduled tasks of the given user in the order in which they are going to be
+     *         executed. The size of the list is the depth of the user's queue.
+     */
+    public List<Task> getScheduledTasks(String aUsername)
+    {
+        List<Task> result = new ArrayList<>();
+        executor.getQueue().forEach(r -> {
+            Task task = (Task) r;
+            if (task.getUser().getUsername().equals(aUsername)) {
+                result.add(task);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the number of scheduled tasks per user.
+     */
+    public Map<String, Integer> getScheduledTaskCountByUser()
+    {
+        return ((FairTaskQueue) executor.getQueue()).getDepthByUser();
+    }
+
     public List<Task> getRunningTasks()
     {
         // We return copy here, as else the list the receiver sees might be updated
@@ -85,11 +116,27 @@ public class SchedulingService
         return result;
     }
 
+    /**
+     * Schedules the given task. A scheduled task with the same
+     * {@link Task#getCoalescingKey() coalescing key} is replaced by the new task. Running tasks
+     * which are {@link Task#isSupersededBy superseded} by the new task are marked as
+     * {@link Task#markStale() stale}.
+     */
     public synchronized void enqueue(Task aTask)
     {
-        if (getScheduledTasks().contains(aTask)) {
-            log.debug("Task already in queue: {}", aTask);
-            return;
+        for (Task scheduled : getScheduledTasks()) {
+            if (scheduled.getCoalescingKey().equals(aTask.getCoalescingKey())
+                    && executor.remove(scheduled)) {
+                log.debug("Replacing scheduled task [{}] with [{}]", scheduled, aTask);
+            }
+        }
+
+        for (Task running : getRunningTasks()) {
+            if (running != aTask && !running.isStale() && running.isSupersededBy(aTask)) {
+                log.debug("Marking running task [{}] as stale - superseded by [{}]", running,
+                        aTask);
+                running.markStale();
+            }
         }
 
         log.debug("Enqueuing task [{}]", aTask);
@@ -103,16 +150,44 @@ public class SchedulingService
     }
 
     /**
-     * Removes all task for the user with name {@code aUsername} from the scheduler's queue.
-     * @param aUserName The name of the user whose tasks will be removed.
+     * Removes all task for the user with name {@code aUserName} from the scheduler's queue and
+     * cancels the running ones.
+     * 
+     * @param aUserName
+     *            The name of the user whose tasks will be removed.
      */
     public synchronized void stopAllTasksForUser(String aUserName)
     {
-        // TODO: Stop the running tasks also
-        executor.getQueue().removeIf(e -> {
-            Task task = (Task) e;
-            return task.getUser().getUsername().equals(aUserName);
-        });
+        cancelTasks(task -> task.getUser().getUsername().equals(aUserName));
+    }
+
+    /**
+     * Removes all tasks for the given project from the scheduler's queue and cancels the running
+     * ones.
+     * 
+     * @param aProject
+     *            The project whose tasks will be removed.
+     */
+    public synchronized void stopAllTasksForProject(Project aProject)
+    {
+        cancelTasks(task -> Objects.equals(task.getProject().getId(), aProject.getId()));
+    }
+
+    /**
+     * Removes the matching tasks from the queue and {@link Task#cancel() cancels} the matching
+     * running tasks. Cancellation is cooperative, i.e. a running task may take a moment to notice
+     * that it has been cancelled.
+     */
+    private void cancelTasks(Predicate<Task> aFilter)
+    {
+        executor.getQueue().removeIf(e -> aFilter.test((Task) e));
+
+        for (Task running : getRunningTasks()) {
+            if (!running.isCancelled() && aFilter.test(running)) {
+                log.debug("Cancelling running task [{}]", running);
+                running.cancel();
+            }
+        }
     }
 
     @Override
@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.inception.scheduling;
 
+import static java.util.Arrays.asList;
 import static org.apache.commons.lang3.Validate.notNull;
 
 import java.util.Objects;
@@ -34,6 +35,8 @@ public abstract class Task
     private final Project project;
     private final String trigger;
     private final int id;
+    private volatile boolean stale = false;
+    private final CancellationToken cancellationToken = new CancellationToken();
 
     public Task(User aUser, Project aProject, String aTrigger)
     {
@@ -72,6 +75,71 @@ public abstract class Task
         return id;
     }
 
+    /**
+     * @return the priority with which the task is handed to a worker thread. Tasks of the same
+     *         priority are handed out fairly across users.
+     */
+    public TaskPriority getPriority()
+    {
+        return TaskPriority.NORMAL;
+    }
+
+    /**
+     * Tasks with equal coalescing keys do the same work. When a task is scheduled, it replaces any
+     * scheduled task with the same key. By default, the key consists of the type of the task, the
+     * user and the project.
+     */
+    public Object getCoalescingKey()
+    {
+        return asList(getClass(), user, project);
+    }
+
+    /**
+     * @return whether the results of this task are made obsolete by the given task which has
+     *         just been scheduled. By default, this is the case if both tasks have the same
+     *         {@link #getCoalescingKey() coalescing key}.
+     */
+    public boolean isSupersededBy(Task aTask)
+    {
+        return getCoalescingKey().equals(aTask.getCoalescingKey());
+    }
+
+    /**
+     * Marks the task as stale, i.e. its inputs have changed while it was running. A stale task
+     * should finish (or stop) without scheduling any follow-up tasks.
+     */
+    public void markStale()
+    {
+        stale = true;
+    }
+
+    public boolean isStale()
+    {
+        return stale;
+    }
+
+    /**
+     * @return the token via which the task is asked to stop. The task should poll it regularly,
+     *         e.g. between documents, and pass it on to long-running operations.
+     */
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Requests the task to stop. A cancelled task should not schedule any follow-up tasks.
+     */
+    public void cancel()
+    {
+        cancellationToken.cancel();
+    }
+
+    public boolean isCancelled()
+    {
+        return cancellationToken.isCancelled();
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(getName());
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.scheduling;
+
+/**
+ * Priority of a {@link Task}. Scheduled tasks with a higher priority are executed before tasks
+ * with a lower priority, independent of the user who scheduled them.
+ */
+public enum TaskPriority
+{
+    /**
+     * Long-running work which the user does not wait for, e.g. training recommenders.
+     */
+    BACKGROUND,
+
+    NORMAL,
+
+    /**
+     * Work whose results the user is waiting for, e.g. predictions shown in the editor.
+     */
+    INTERACTIVE;
+}
@@ -27,6 +27,27 @@ public class SchedulingProperties
     private int numberOfThreads = 4;
     private int queueSize = 100;
 
+    /**
+     * Number of worker threads used to compute the predictions for the documents of a project.
+     * The workers are shared by the prediction tasks of all users. A value of {@code 1} processes
+     * the documents one after the other on the thread running the prediction task.
+     */
+    private int predictionThreads = 1;
+
+    /**
+     * Number of recommenders which are trained at the same time. The workers are shared by the
+     * training tasks of all users. Each training holds its own model, so memory usage grows with
+     * the number of threads.
+     */
+    private int trainingThreads = 2;
+
+    /**
+     * Number of recommenders which are evaluated at the same time. The workers are shared by the
+     * selection tasks of all users. Each evaluation trains its own model, so memory usage grows
+     * with the number of threads.
+     */
+    private int evaluationThreads = 2;
+
     public int getNumberOfThreads()
     {
         return numberOfThreads;
@@ -44,6 +65,36 @@ public class SchedulingProperties
 
     public void setQueueSize(int aQueueSize)
     {
-        queueSize = queueSize;
+        queueSize = aQueueSize;
+    }
+
+    public int getPredictionThreads()
+    {
+        return predictionThreads;
+    }
+
+    public void setPredictionThreads(int aPredictionThreads)
+    {
+        predictionThreads = aPredictionThreads;
+    }
+
+    public int getTrainingThreads()
+    {
+        return trainingThreads;
+    }
+
+    public void setTrainingThreads(int aTrainingThreads)
+    {
+        trainingThreads = aTrainingThreads;
+    }
+
+    public int getEvaluationThreads()
+    {
+        return evaluationThreads;
+    }
+
+    public void setEvaluationThreads(int aEvaluationThreads)
+    {
+        evaluationThreads = aEvaluationThreads;
     }
 }
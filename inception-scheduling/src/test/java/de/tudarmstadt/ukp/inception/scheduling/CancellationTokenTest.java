@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.scheduling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+public class CancellationTokenTest
+{
+    @Test
+    public void thatCancellationIsSignalled()
+    {
+        CancellationToken sut = new CancellationToken();
+
+        sut.cancel();
+
+        assertThat(sut.isCancelled()).isTrue();
+        assertThatThrownBy(sut::throwIfCancelled).isInstanceOf(CancellationException.class);
+    }
+
+    @Test
+    public void thatCancellingNoneHasNoEffect()
+    {
+        CancellationToken.NONE.cancel();
+
+        assertThat(CancellationToken.NONE.isCancelled()).isFalse();
+        CancellationToken.NONE.throwIfCancelled();
+    }
+}
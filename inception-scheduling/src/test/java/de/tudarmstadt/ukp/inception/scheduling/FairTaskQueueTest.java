@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.inception.scheduling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+public class FairTaskQueueTest
+{
+    private FairTaskQueue sut;
+
+    @Before
+    public void setUp()
+    {
+        sut = new FairTaskQueue(100);
+    }
+
+    @Test
+    public void thatTasksAreHandedOutFairlyAcrossUsers()
+    {
+        Task a1 = buildTask("userA", TaskPriority.NORMAL);
+        Task a2 = buildTask("userA", TaskPriority.NORMAL);
+        Task a3 = buildTask("userA", TaskPriority.NORMAL);
+        Task b1 = buildTask("userB", TaskPriority.NORMAL);
+        Task b2 = buildTask("userB", TaskPriority.NORMAL);
+
+        sut.offer(a1);
+        sut.offer(a2);
+        sut.offer(a3);
+        sut.offer(b1);
+        sut.offer(b2);
+
+        assertThat(sut.getDepthByUser())
+                .containsEntry("userA", 3)
+                .containsEntry("userB", 2);
+        assertThat(drain()).containsExactly(a1, b1, a2, b2, a3);
+    }
+
+    @Test
+    public void thatHigherPriorityTasksAreHandedOutFirst()
+    {
+        Task background = buildTask("userA", TaskPriority.BACKGROUND);
+        Task normal = buildTask("userB", TaskPriority.NORMAL);
+        Task interactive = buildTask("userA", TaskPriority.INTERACTIVE);
+
+        sut.offer(background);
+        sut.offer(normal);
+        sut.offer(interactive);
+
+        assertThat(sut).containsExactly(interactive, normal, background);
+        assertThat(drain()).containsExactly(interactive, normal, background);
+    }
+
+    @Test
+    public void thatRemovalIsBasedOnIdentity()
+    {
+        Task first = buildTask("userA", TaskPriority.NORMAL);
+        Task second = buildTask("userA", TaskPriority.NORMAL);
+
+        sut.offer(first);
+        sut.offer(second);
+        sut.remove(second);
+
+        assertThat(drain()).containsExactly(first);
+    }
+
+    @Test
+    public void thatQueueIsBounded()
+    {
+        sut = new FairTaskQueue(1);
+
+        assertThat(sut.offer(buildTask("userA", TaskPriority.NORMAL))).isTrue();
+        assertThat(sut.offer(buildTask("userB", TaskPriority.NORMAL))).isFalse();
+        assertThat(sut.remainingCapacity()).isEqualTo(0);
+    }
+
+    private List<Runnable> drain()
+    {
+        List<Runnable> result = new ArrayList<>();
+        sut.drainTo(result);
+        return result;
+    }
+
+    private Task buildTask(String aUsername, TaskPriority aPriority)
+    {
+        Project project = new Project();
+        project.setName("project");
+        return new PriorityTask(new User(aUsername), project, aPriority);
+    }
+
+    private static class PriorityTask
+        extends Task
+    {
+        private final TaskPriority priority;
+
+        PriorityTask(User aUser, Project aProject, TaskPriority aPriority)
+        {
+            super(aUser, aProject, "JUnit");
+            priority = aPriority;
+        }
+
+        @Override
+        public TaskPriority getPriority()
+        {
+            return priority;
+        }
+
+        @Override
+        public void run()
+        {
+            // Nothing to do
+        }
+    }
+}
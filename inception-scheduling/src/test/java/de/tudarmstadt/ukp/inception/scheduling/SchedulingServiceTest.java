@@ -115,6 +115,85 @@ public class SchedulingServiceTest {
                 .doesNotContain(tasksToRemove);
     }
 
+    @Test
+    public void thatScheduledTaskIsReplacedByNewerTaskWithSameKey()
+    {
+        Project project = buildProject("project1");
+        User user = buildUser("user1");
+
+        // Keep all worker threads busy so the following tasks stay in the queue
+        SchedulingProperties properties = new SchedulingProperties();
+        for (int i = 0; i < properties.getNumberOfThreads(); i++) {
+            sut.enqueue(buildDummyTask("busyUser" + i, "busyProject"));
+        }
+        await().atMost(15, SECONDS).until(() ->
+                sut.getRunningTasks().size() == properties.getNumberOfThreads());
+
+        Task first = new DummyTask(user, project);
+        Task second = new DummyTask(user, project);
+        sut.enqueue(first);
+        sut.enqueue(second);
+
+        assertThat(sut.getScheduledTasks()).hasSize(1);
+        assertThat(sut.getScheduledTasks().get(0)).isSameAs(second);
+        assertThat(sut.getScheduledTasks("user1")).hasSize(1);
+    }
+
+    @Test
+    public void thatSupersededRunningTaskIsMarkedStale()
+    {
+        Project project = buildProject("project1");
+        User user = buildUser("user1");
+
+        Task running = new DummyTask(user, project);
+        sut.enqueue(running);
+        await().atMost(15, SECONDS).until(() -> sut.getRunningTasks().contains(running));
+
+        Task successor = new DummyTask(user, project);
+        sut.enqueue(successor);
+
+        assertThat(running.isStale()).isTrue();
+        assertThat(successor.isStale()).isFalse();
+    }
+
+    @Test
+    public void thatRunningTasksForUserAreCancelled()
+    {
+        Task task = buildDummyTask("testUser", "project1");
+        Task otherTask = buildDummyTask("otherUser", "project1");
+        sut.enqueue(task);
+        sut.enqueue(otherTask);
+        await().atMost(15, SECONDS).until(() -> sut.getRunningTasks().size() == 2);
+
+        sut.stopAllTasksForUser("testUser");
+
+        assertThat(task.isCancelled()).isTrue();
+        assertThat(otherTask.isCancelled()).isFalse();
+        await().atMost(15, SECONDS).until(() -> !sut.getRunningTasks().contains(task));
+        assertThat(sut.getRunningTasks()).containsExactly(otherTask);
+    }
+
+    @Test
+    public void thatRunningTasksForProjectAreCancelled()
+    {
+        Project project = buildProject("project1");
+        project.setId(1l);
+        Project otherProject = buildProject("project2");
+        otherProject.setId(2l);
+
+        Task task = new DummyTask(buildUser("user1"), project);
+        Task otherTask = new DummyTask(buildUser("user1"), otherProject);
+        sut.enqueue(task);
+        sut.enqueue(otherTask);
+        await().atMost(15, SECONDS).until(() -> sut.getRunningTasks().size() == 2);
+
+        sut.stopAllTasksForProject(project);
+
+        assertThat(task.isCancelled()).isTrue();
+        assertThat(otherTask.isCancelled()).isFalse();
+        await().atMost(15, SECONDS).until(() -> !sut.getRunningTasks().contains(task));
+    }
+
     private User buildUser(String aUsername)
     {
         return new User(aUsername);
@@ -133,8 +212,8 @@ public class SchedulingServiceTest {
     }
 
     /**
-     * DummyTask is a task that does nothing and just sleeps until interrupted. if interrupted,
-     * it just finishes running and returns.
+     * DummyTask is a task that does nothing and just sleeps until interrupted or cancelled. If
+     * interrupted or cancelled, it just finishes running and returns.
      */
     private static class DummyTask extends Task
     {
@@ -145,9 +224,9 @@ public class SchedulingServiceTest {
 
         @Override
         public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
+            while (!Thread.currentThread().isInterrupted() && !isCancelled()) {
                 try {
-                    Thread.sleep(1000);
+                    Thread.sleep(100);
                 } catch (InterruptedException e) {
                     break;
                 }